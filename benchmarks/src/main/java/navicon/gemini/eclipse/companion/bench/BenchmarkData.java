@@ -0,0 +1,46 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import navicon.gemini.eclipse.companion.IdeContext;
+
+// Deterministic inputs shared by the benchmarks
+final class BenchmarkData {
+
+	private static final String LINE = "\t\tString message = \"Line \" + index + \":\\t\" + values.get(index); // ok\n";
+
+	private BenchmarkData() {
+	}
+
+	// Source-like text of exactly the given length, with quotes and tabs that JSON has to escape
+	static String source(int length) {
+		StringBuilder text = new StringBuilder(length + LINE.length());
+		while (text.length() < length) {
+			text.append(LINE);
+		}
+		text.setLength(length);
+		return text.toString();
+	}
+
+	static IdeContext context(int openFiles, int active) {
+		IdeContext context = new IdeContext();
+		context.workspacePath = "/home/user/workspace";
+		List<IdeContext.OpenFile> files = new ArrayList<>(openFiles);
+		for (int i = 0; i < openFiles; i++) {
+			IdeContext.OpenFile file = new IdeContext.OpenFile();
+			file.filePath = "/home/user/workspace/project" + (i % 7) + "/src/main/java/com/example/module" + i
+					+ "/Component" + i + ".java";
+			file.timestamp = 1_700_000_000_000L + i;
+			file.active = i == active;
+			files.add(file);
+		}
+		context.openFiles = files;
+		context.activeFile = files.isEmpty() ? null : files.get(active).filePath;
+		context.selectedText = "values.get(index)";
+		context.cursorPosition = new IdeContext.CursorPosition();
+		context.cursorPosition.line = 40 + active;
+		context.cursorPosition.character = 12;
+		return context;
+	}
+}
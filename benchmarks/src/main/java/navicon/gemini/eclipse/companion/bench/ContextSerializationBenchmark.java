@@ -0,0 +1,70 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.ContextDeltaEncoder;
+import navicon.gemini.eclipse.companion.FrameBuffer;
+import navicon.gemini.eclipse.companion.IdeContext;
+import navicon.gemini.eclipse.companion.JsonCodec;
+import navicon.gemini.eclipse.companion.JsonRpcNotification;
+
+// Encoding a context snapshot into an SSE frame the way a session writer does: a full
+// ide/contextUpdate, and an ide/contextDelta after the active editor changed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextSerializationBenchmark {
+
+	@Param({ "10", "100", "500" })
+	public int openFiles;
+
+	private JsonCodec codec;
+	private final FrameBuffer buffer = new FrameBuffer();
+	private final ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+	private IdeContext first;
+	private IdeContext second;
+	private boolean flip;
+
+	@Setup
+	public void setUp() {
+		codec = new JsonCodec(new ObjectMapper());
+		first = BenchmarkData.context(openFiles, 0);
+		second = BenchmarkData.context(openFiles, openFiles - 1);
+	}
+
+	@Benchmark
+	public int fullUpdate() throws IOException {
+		encoder.requestResync();
+		return write(encoder.encode(first));
+	}
+
+	@Benchmark
+	public int delta() throws IOException {
+		flip = !flip;
+		return write(encoder.encode(flip ? first : second));
+	}
+
+	private int write(ContextDeltaEncoder.Update update) throws IOException {
+		buffer.reset();
+		codec.writeSseFrame(new JsonRpcNotification(update.method, update.params), buffer);
+		return buffer.size();
+	}
+}
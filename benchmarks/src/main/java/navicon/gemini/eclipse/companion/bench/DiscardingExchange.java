@@ -0,0 +1,115 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+// An SSE stream that counts and drops what is written, so a benchmark measures the session and not a socket
+final class DiscardingExchange extends HttpExchange {
+
+	private final Headers requestHeaders = new Headers();
+	private final Headers responseHeaders = new Headers();
+	private long bytes;
+	private final OutputStream body = new OutputStream() {
+		@Override
+		public void write(int b) {
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	};
+
+	long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public Headers getRequestHeaders() {
+		return requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders() {
+		return responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI() {
+		return URI.create("/mcp");
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return "POST";
+	}
+
+	@Override
+	public HttpContext getHttpContext() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public InputStream getRequestBody() {
+		return InputStream.nullInputStream();
+	}
+
+	@Override
+	public OutputStream getResponseBody() {
+		return body;
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) {
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return InetSocketAddress.createUnresolved("localhost", 0);
+	}
+
+	@Override
+	public int getResponseCode() {
+		return 200;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return InetSocketAddress.createUnresolved("localhost", 0);
+	}
+
+	@Override
+	public String getProtocol() {
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return null;
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+	}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o) {
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal() {
+		return null;
+	}
+}
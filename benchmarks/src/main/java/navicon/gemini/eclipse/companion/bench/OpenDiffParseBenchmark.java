@@ -0,0 +1,58 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.McpRequest;
+import navicon.gemini.eclipse.companion.McpRequestParser;
+
+// Parsing a tools/call openDiff request whose newContent is payloadBytes of Java-like source
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class OpenDiffParseBenchmark {
+
+	@Param({ "1024", "65536", "1048576", "10485760" })
+	public int payloadBytes;
+
+	private McpRequestParser parser;
+	private byte[] body;
+
+	@Setup
+	public void setUp() throws IOException {
+		ObjectMapper objectMapper = new ObjectMapper();
+		parser = new McpRequestParser(objectMapper, 64L * 1024 * 1024);
+		body = objectMapper.writeValueAsBytes(objectMapper.createObjectNode().put("jsonrpc", "2.0").put("id", 1)
+				.put("method", "tools/call").set("params",
+						objectMapper.createObjectNode().put("name", "openDiff").set("arguments",
+								objectMapper.createObjectNode().put("filePath", "/workspace/src/Example.java")
+										.put("newContent", BenchmarkData.source(payloadBytes)))));
+	}
+
+	@Benchmark
+	public McpRequest parse() throws IOException {
+		try (JsonParser json = parser.createParser(new ByteArrayInputStream(body))) {
+			json.nextToken();
+			return parser.readRequest(json);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.CompanionSettings;
+import navicon.gemini.eclipse.companion.IdeContext;
+import navicon.gemini.eclipse.companion.JsonCodec;
+import navicon.gemini.eclipse.companion.ServerMetrics;
+import navicon.gemini.eclipse.companion.SseSessionRegistry;
+
+// Notifications and context updates going out to every connected session: queueing, serialization,
+// event ids, the replay buffer and the stream writes. The writer runs on the calling thread, so each
+// operation is one complete broadcast.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseWriteBenchmark {
+
+	@Param({ "1", "8" })
+	public int sessions;
+
+	private SseSessionRegistry registry;
+	private final List<DiscardingExchange> exchanges = new ArrayList<>();
+	private Map<String, Object> diagnostics;
+	private IdeContext first;
+	private IdeContext second;
+	private boolean flip;
+
+	// Bytes written to all streams per second, next to the operation rate
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Written {
+		public long bytes;
+	}
+
+	@Setup
+	public void setUp() {
+		registry = new SseSessionRegistry(new JsonCodec(new ObjectMapper()), Runnable::run,
+				CompanionSettings.sseQueueCapacity(), CompanionSettings.replayBufferEvents(),
+				CompanionSettings.replayBufferBytes(), new ServerMetrics());
+		for (int i = 0; i < sessions; i++) {
+			DiscardingExchange exchange = new DiscardingExchange();
+			exchanges.add(exchange);
+			registry.open(exchange, SseSessionRegistry.newSessionId(), true);
+		}
+		diagnostics = new LinkedHashMap<>();
+		diagnostics.put("filePath", "/home/user/workspace/project/src/main/java/com/example/Component.java");
+		diagnostics.put("message", BenchmarkData.source(200));
+		diagnostics.put("errors", 3);
+		first = BenchmarkData.context(50, 0);
+		second = BenchmarkData.context(50, 49);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		registry.closeAll();
+	}
+
+	@Benchmark
+	public void notification(Written written) {
+		long before = bytes();
+		registry.broadcastNotification("ide/diagnostics", diagnostics);
+		written.bytes += bytes() - before;
+	}
+
+	@Benchmark
+	public void contextUpdate(Written written) {
+		long before = bytes();
+		flip = !flip;
+		registry.broadcastContext(flip ? first : second);
+		written.bytes += bytes() - before;
+	}
+
+	private long bytes() {
+		long total = 0;
+		for (DiscardingExchange exchange : exchanges) {
+			total += exchange.getBytes();
+		}
+		return total;
+	}
+}
@@ -0,0 +1,110 @@
+package navicon.gemini.eclipse.companion.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.DiagnosticsStore;
+import navicon.gemini.eclipse.companion.FileContentReader;
+import navicon.gemini.eclipse.companion.FindFilesTool;
+import navicon.gemini.eclipse.companion.FrameBuffer;
+import navicon.gemini.eclipse.companion.GetDiagnosticsTool;
+import navicon.gemini.eclipse.companion.GetServerStatsTool;
+import navicon.gemini.eclipse.companion.JsonCodec;
+import navicon.gemini.eclipse.companion.McpDispatcher;
+import navicon.gemini.eclipse.companion.McpRequest;
+import navicon.gemini.eclipse.companion.McpRequestParser;
+import navicon.gemini.eclipse.companion.PathIndex;
+import navicon.gemini.eclipse.companion.ReadFileTool;
+import navicon.gemini.eclipse.companion.SearchTextTool;
+import navicon.gemini.eclipse.companion.ServerMetrics;
+import navicon.gemini.eclipse.companion.ToolRegistry;
+import navicon.gemini.eclipse.companion.TrigramIndex;
+
+// A tools/list request from body bytes to response bytes, against the tools the core provides
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToolsListBenchmark {
+
+	private static final byte[] REQUEST = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/list\"}"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private McpRequestParser parser;
+	private McpDispatcher dispatcher;
+	private JsonCodec codec;
+	private final FrameBuffer buffer = new FrameBuffer();
+
+	@Setup
+	public void setUp() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		codec = new JsonCodec(objectMapper);
+		parser = new McpRequestParser(objectMapper, 16 * 1024 * 1024);
+		ToolRegistry registry = new ToolRegistry(objectMapper);
+		registry.register(new FindFilesTool(new PathIndex(), () -> true, objectMapper));
+		registry.register(new SearchTextTool(new TrigramIndex(1 << 20), new SearchTextTool.Source() {
+			@Override
+			public Map<String, String> unindexedFiles() {
+				return Collections.emptyMap();
+			}
+
+			@Override
+			public CharSequence read(String key, String location) {
+				return null;
+			}
+		}, () -> true, objectMapper));
+		registry.register(new GetDiagnosticsTool(new DiagnosticsStore(), objectMapper));
+		registry.register(new ReadFileTool(new FileContentReader(new FileContentReader.Buffers() {
+			@Override
+			public String dirtyContent(String filePath) {
+				return null;
+			}
+
+			@Override
+			public Charset charset(String filePath) {
+				return StandardCharsets.UTF_8;
+			}
+
+			@Override
+			public boolean isReadable(String filePath) {
+				return false;
+			}
+		}), objectMapper));
+		ServerMetrics metrics = new ServerMetrics();
+		registry.register(new GetServerStatsTool(metrics, objectMapper));
+		dispatcher = new McpDispatcher(registry, Runnable::run, metrics);
+	}
+
+	@Benchmark
+	public int toolsList() throws IOException {
+		McpRequest request;
+		try (JsonParser json = parser.createParser(new ByteArrayInputStream(REQUEST))) {
+			json.nextToken();
+			request = parser.readRequest(json);
+		}
+		buffer.reset();
+		codec.writeJson(dispatcher.dispatch(request, "bench"), buffer);
+		return buffer.size();
+	}
+}
@@ -0,0 +1,69 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Coalesces bursts of flush requests, such as context updates or diagnostics changes. The first
+// request after a quiet period is flushed immediately, requests arriving while a flush is pending are
+// folded into it, and a request that arrives within the minimum interval of the previous flush gets a
+// trailing flush at the end of it.
+public class CoalescingScheduler {
+
+	private final ScheduledExecutorService executor;
+	private final Runnable flushAction;
+	private final String name;
+	private final ServerMetrics metrics;
+	private final long minIntervalNanos;
+	private final AtomicBoolean flushPending = new AtomicBoolean(false);
+	private final LongAdder requested = new LongAdder();
+	private final LongAdder flushed = new LongAdder();
+	private volatile long lastFlushNanos;
+
+	// The name identifies the flush action in the recent errors of the metrics
+	public CoalescingScheduler(ScheduledExecutorService executor, long minIntervalMs, Runnable flushAction,
+			String name, ServerMetrics metrics) {
+		this.executor = executor;
+		this.flushAction = flushAction;
+		this.name = name;
+		this.metrics = metrics;
+		this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minIntervalMs));
+		this.lastFlushNanos = System.nanoTime() - minIntervalNanos;
+	}
+
+	public void requestFlush() {
+		requested.increment();
+		if (flushPending.compareAndSet(false, true)) {
+			long delay = Math.max(0, lastFlushNanos + minIntervalNanos - System.nanoTime());
+			try {
+				executor.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// Server is shutting down
+				flushPending.set(false);
+			}
+		}
+	}
+
+	private void flush() {
+		// Cleared before running so that a request arriving during the flush schedules the trailing one
+		flushPending.set(false);
+		lastFlushNanos = System.nanoTime();
+		flushed.increment();
+		try {
+			flushAction.run();
+		} catch (RuntimeException e) {
+			metrics.reportError(name, e);
+		}
+	}
+
+	public long getRequestedCount() {
+		return requested.sum();
+	}
+
+	// Flushes run, each of which may send nothing when the context did not change
+	public long getFlushCount() {
+		return flushed.sum();
+	}
+}
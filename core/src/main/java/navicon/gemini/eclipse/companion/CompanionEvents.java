@@ -0,0 +1,107 @@
+package navicon.gemini.eclipse.companion;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Java Flight Recorder events, so a recording of a slow IDE shows the companion's requests,
+// notifications and UI-thread work next to GC and safepoints. Stack traces are off, and callers only
+// fill in the fields after shouldCommit(), so an event costs next to nothing while no recording
+// enables it. The events are enabled without a threshold; a .jfc file can set one.
+public final class CompanionEvents {
+
+	private CompanionEvents() {
+	}
+
+	@Name("navicon.gemini.Request")
+	@Label("MCP Request")
+	@Description("A JSON-RPC request or notification from the Gemini CLI, from parsed to answered")
+	@Category({ "Gemini Companion", "MCP" })
+	@StackTrace(false)
+	public static class Request extends Event {
+		@Label("Method")
+		public String method;
+
+		@Label("Id")
+		public String id;
+
+		@Label("Tool")
+		public String tool;
+
+		@Label("Session")
+		public String sessionId;
+
+		@Label("Size")
+		@DataAmount
+		public long size;
+
+		@Label("Error")
+		public boolean error;
+	}
+
+	@Name("navicon.gemini.SseWrite")
+	@Label("SSE Write")
+	@Description("An event written to a CLI's SSE stream; the duration covers serializing, writing and flushing it")
+	@Category({ "Gemini Companion", "MCP" })
+	@StackTrace(false)
+	public static class SseWrite extends Event {
+		@Label("Method")
+		public String method;
+
+		@Label("Session")
+		public String sessionId;
+
+		@Label("Event Id")
+		public long eventId;
+
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+
+		@Label("Queue Wait")
+		@Description("Time between enqueueing the message and the writer picking it up")
+		@Timespan
+		public long queueWait;
+	}
+
+	@Name("navicon.gemini.ContextCapture")
+	@Label("Context Capture")
+	@Description("Reading the open editors and selection on the UI thread for ide/contextUpdate")
+	@Category({ "Gemini Companion", "UI Thread" })
+	@StackTrace(false)
+	public static class ContextCapture extends Event {
+		@Label("Open Files")
+		public int openFiles;
+
+		@Label("Selection Length")
+		public int selectionLength;
+
+		@Label("UI Queue Wait")
+		@Description("Time between asyncExec and the capture starting on the UI thread")
+		@Timespan
+		public long queueWait;
+	}
+
+	@Name("navicon.gemini.DiffViewOpen")
+	@Label("Diff View Open")
+	@Description("From the openDiff or openDiffBatch call until the compare input is ready to show")
+	@Category({ "Gemini Companion", "UI Thread" })
+	@StackTrace(false)
+	public static class DiffViewOpen extends Event {
+		@Label("File")
+		@Description("The first file of a batch")
+		public String filePath;
+
+		@Label("Files")
+		public int files;
+
+		@Label("Proposed Length")
+		@Description("Characters of the proposed content, summed over a batch")
+		public int proposedLength;
+	}
+}
@@ -0,0 +1,36 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Warnings and errors from code that has no request to report them on, such as an invalid setting
+// or a failed background task. The plugin sends them to the Eclipse error log (see Activator);
+// outside Eclipse they go to stderr.
+public final class CompanionLog {
+
+	private static final Consumer<String> STDERR_WARNINGS = System.err::println;
+	private static final BiConsumer<String, Throwable> STDERR_ERRORS = (message, error) -> {
+		System.err.println(message);
+		error.printStackTrace();
+	};
+
+	private static volatile Consumer<String> warnings = STDERR_WARNINGS;
+	private static volatile BiConsumer<String, Throwable> errors = STDERR_ERRORS;
+
+	private CompanionLog() {
+	}
+
+	// Null for either restores stderr
+	public static void setSink(Consumer<String> warningSink, BiConsumer<String, Throwable> errorSink) {
+		warnings = warningSink != null ? warningSink : STDERR_WARNINGS;
+		errors = errorSink != null ? errorSink : STDERR_ERRORS;
+	}
+
+	public static void warn(String message) {
+		warnings.accept(message);
+	}
+
+	public static void error(String message, Throwable error) {
+		errors.accept(message, error);
+	}
+}
@@ -0,0 +1,140 @@
+package navicon.gemini.eclipse.companion;
+
+// Tunables read from system properties, e.g. -Dgemini.companion.contextUpdateIntervalMs=250 in eclipse.ini
+public final class CompanionSettings {
+
+	public static final String PREFIX = "gemini.companion.";
+
+	private CompanionSettings() {
+	}
+
+	// Minimum time between two ide/contextUpdate notifications
+	public static long contextUpdateIntervalMs() {
+		return getLong("contextUpdateIntervalMs", 100);
+	}
+
+	// Longest selectedText sent inline; larger selections are fetched with getDocumentRange
+	public static int maxInlineSelectionChars() {
+		return (int) getLong("maxInlineSelectionChars", 16 * 1024);
+	}
+
+	// Bytes of content one readFile call returns across all its files; the rest is marked truncated
+	public static long readFileMaxBytes() {
+		return getLong("readFileMaxBytes", 4L * 1024 * 1024);
+	}
+
+	// Minimum time between two ide/diagnostics notifications
+	public static long diagnosticsIntervalMs() {
+		return getLong("diagnosticsIntervalMs", 250);
+	}
+
+	// A notification with more changes than this only says resync and the client calls getDiagnostics
+	public static int maxDiagnosticsPerNotification() {
+		return (int) getLong("maxDiagnosticsPerNotification", 1000);
+	}
+
+	// Longest time ide/diagnostics is held back while a build runs
+	public static long diagnosticsBuildDeferMs() {
+		return getLong("diagnosticsBuildDeferMs", 30000);
+	}
+
+	// Memory budget of the searchText trigram index; files beyond it are read on every search
+	public static long searchIndexMaxBytes() {
+		return getLong("searchIndexMaxBytes", 256L * 1024 * 1024);
+	}
+
+	// Larger files are neither indexed nor searched
+	public static long searchMaxFileBytes() {
+		return getLong("searchMaxFileBytes", 1024 * 1024);
+	}
+
+	// A searchText call returns what it has found after this long
+	public static long searchTimeoutMs() {
+		return getLong("searchTimeoutMs", 10000);
+	}
+
+	// Outbound messages buffered per SSE session before context updates start being dropped
+	public static int sseQueueCapacity() {
+		return (int) getLong("sseQueueCapacity", 256);
+	}
+
+	// An SSE stream idle for this long gets a keep-alive comment
+	public static long keepAliveIntervalMs() {
+		return getLong("keepAliveIntervalMs", 15000);
+	}
+
+	// A session whose write blocks for longer than this is considered dead and released
+	public static long writeStallTimeoutMs() {
+		return getLong("writeStallTimeoutMs", 10000);
+	}
+
+	// How long a session whose stream broke can be resumed with its Mcp-Session-Id and Last-Event-ID
+	public static long sessionResumeTimeoutMs() {
+		return getLong("sessionResumeTimeoutMs", 60000);
+	}
+
+	// Events and bytes kept per session for replay on resume; older events fall back to a context snapshot
+	public static int replayBufferEvents() {
+		return (int) getLong("replayBufferEvents", 256);
+	}
+
+	public static long replayBufferBytes() {
+		return getLong("replayBufferBytes", 4L * 1024 * 1024);
+	}
+
+	// "auto" uses virtual threads when the JDK has them, "virtual" asks for them, "pooled" never uses them
+	public static String executionModel() {
+		return System.getProperty(PREFIX + "executionModel", LaneExecutor.MODEL_AUTO);
+	}
+
+	// Pool size and queue bound of the lane running HTTP requests when virtual threads are not used
+	public static int requestThreads() {
+		return (int) getLong("requestThreads", 8);
+	}
+
+	public static int requestQueueCapacity() {
+		return (int) getLong("requestQueueCapacity", 256);
+	}
+
+	// Pool size of the lane running SSE writers; a stalled stream holds one of these until it is released
+	public static int streamThreads() {
+		return (int) getLong("streamThreads", 16);
+	}
+
+	// Largest accepted request body, which also bounds a single string argument such as newContent
+	public static long maxRequestBytes() {
+		return getLong("maxRequestBytes", 64L * 1024 * 1024);
+	}
+
+	// Also serve /mcp on a Unix domain socket, advertised as socketPath in the discovery file
+	public static boolean unixSocketEnabled() {
+		return Boolean.getBoolean(PREFIX + "unixSocket");
+	}
+
+	// A socket connection is closed when a read stalls or it sits idle between requests this long
+	public static long unixSocketTimeoutMs() {
+		return getLong("unixSocketTimeoutMs", 30000);
+	}
+
+	// The JDK HTTP server leaves Nagle's algorithm on, so a response written as headers and then body
+	// waits for the client's delayed ACK, about 40 ms per request on Linux. Only takes effect before
+	// the first HttpServer is created; an explicit -Dsun.net.httpserver.nodelay wins.
+	public static void enableHttpNoDelay() {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	static long getLong(String key, long defaultValue) {
+		String value = System.getProperty(PREFIX + key);
+		if (value == null || value.isBlank()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			CompanionLog.warn("Ignoring invalid value for " + PREFIX + key + ": " + value);
+			return defaultValue;
+		}
+	}
+}
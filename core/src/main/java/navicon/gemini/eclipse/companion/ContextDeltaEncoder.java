@@ -0,0 +1,163 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import navicon.gemini.eclipse.companion.IdeContext.CursorPosition;
+import navicon.gemini.eclipse.companion.IdeContext.OpenFile;
+import navicon.gemini.eclipse.companion.IdeContext.SelectionInfo;
+
+// Remembers the last context sent to one session and turns the next snapshot into either a full
+// ide/contextUpdate (first send or after a resync) or an ide/contextDelta holding only what changed.
+// A delta carries each changed top-level field (null when it was cleared) and, under "openFiles",
+// the entries that were added or changed ("upserted") and the paths that were closed ("removed").
+// Deltas are only sent to clients that announced the DELTA_CAPABILITY in initialize; the others,
+// the Gemini CLI among them, get every change as a full ide/contextUpdate.
+public class ContextDeltaEncoder {
+
+	public static final String FULL_METHOD = "ide/contextUpdate";
+	public static final String DELTA_METHOD = "ide/contextDelta";
+	// Key under capabilities.experimental in the initialize params and result
+	public static final String DELTA_CAPABILITY = DELTA_METHOD;
+
+	private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+	private final boolean deltas;
+	private IdeContext lastSent;
+
+	public static class Update {
+		public final String method;
+		public final Object params;
+		// The context the delta was computed against, null for a full update
+		public final IdeContext baseline;
+
+		Update(String method, Object params, IdeContext baseline) {
+			this.method = method;
+			this.params = params;
+			this.baseline = baseline;
+		}
+	}
+
+	public ContextDeltaEncoder(boolean deltas) {
+		this.deltas = deltas;
+	}
+
+	// Whether the initialize params announce that the client applies ide/contextDelta
+	public static boolean acceptsDeltas(JsonNode initializeParams) {
+		return initializeParams != null && initializeParams.path("capabilities").path("experimental")
+				.path(DELTA_CAPABILITY).asBoolean(false);
+	}
+
+	public boolean isDeltas() {
+		return deltas;
+	}
+
+	// Returns null when the snapshot is identical to the last one sent
+	public synchronized Update encode(IdeContext context) {
+		IdeContext previous = lastSent;
+		lastSent = context;
+		if (previous == null) {
+			return new Update(FULL_METHOD, context, null);
+		}
+
+		ObjectNode delta = NODES.objectNode();
+		if (!Objects.equals(previous.workspacePath, context.workspacePath)) {
+			delta.put("workspacePath", context.workspacePath);
+		}
+		if (!Objects.equals(previous.activeFile, context.activeFile)) {
+			delta.put("activeFile", context.activeFile);
+		}
+		if (!Objects.equals(previous.selectedText, context.selectedText)) {
+			delta.put("selectedText", context.selectedText);
+		}
+		if (!Objects.equals(previous.cursorPosition, context.cursorPosition)) {
+			delta.set("cursorPosition", toNode(context.cursorPosition));
+		}
+		if (!Objects.equals(previous.selection, context.selection)) {
+			delta.set("selection", toNode(context.selection));
+		}
+		ObjectNode openFiles = diffOpenFiles(previous.openFiles, context.openFiles);
+		if (openFiles != null) {
+			delta.set("openFiles", openFiles);
+		}
+		if (delta.isEmpty()) {
+			return null;
+		}
+		return deltas ? new Update(DELTA_METHOD, delta, previous) : new Update(FULL_METHOD, context, null);
+	}
+
+	// The snapshot the client is expected to hold, null before the first send or after a resync
+	public synchronized IdeContext getLastSent() {
+		return lastSent;
+	}
+
+	// The next encode() sends the full context again
+	public synchronized void requestResync() {
+		lastSent = null;
+	}
+
+	private static ObjectNode diffOpenFiles(List<OpenFile> before, List<OpenFile> after) {
+		Map<String, OpenFile> previousByPath = new HashMap<>();
+		if (before != null) {
+			for (OpenFile file : before) {
+				previousByPath.put(file.filePath, file);
+			}
+		}
+		ArrayNode upserted = NODES.arrayNode();
+		if (after != null) {
+			for (OpenFile file : after) {
+				OpenFile old = previousByPath.remove(file.filePath);
+				if (!file.equals(old)) {
+					upserted.add(toNode(file));
+				}
+			}
+		}
+		if (upserted.isEmpty() && previousByPath.isEmpty()) {
+			return null;
+		}
+		ObjectNode node = NODES.objectNode();
+		node.set("upserted", upserted);
+		ArrayNode removed = node.putArray("removed");
+		previousByPath.keySet().forEach(removed::add);
+		return node;
+	}
+
+	private static ObjectNode toNode(OpenFile file) {
+		ObjectNode node = NODES.objectNode();
+		node.put("filePath", file.filePath);
+		node.put("timestamp", file.timestamp);
+		node.put("active", file.active);
+		return node;
+	}
+
+	private static ObjectNode toNode(CursorPosition position) {
+		if (position == null) {
+			return null;
+		}
+		ObjectNode node = NODES.objectNode();
+		node.put("line", position.line);
+		node.put("character", position.character);
+		return node;
+	}
+
+	private static ObjectNode toNode(SelectionInfo selection) {
+		if (selection == null) {
+			return null;
+		}
+		ObjectNode node = NODES.objectNode();
+		node.put("offset", selection.offset);
+		node.put("length", selection.length);
+		if (selection.hash != null) {
+			node.put("hash", selection.hash);
+		}
+		node.put("truncated", selection.truncated);
+		return node;
+	}
+}
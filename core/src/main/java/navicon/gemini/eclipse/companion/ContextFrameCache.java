@@ -0,0 +1,60 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Sessions that last received the same snapshot produce the same delta for the next one, so the
+// encoded frame is cached per (baseline, target) pair. Only frames for the newest target are kept,
+// and nothing is cached while a single session is connected.
+public class ContextFrameCache {
+
+	public interface FrameEncoder {
+		byte[] encode() throws IOException;
+	}
+
+	private IdeContext target;
+	private final Map<IdeContext, byte[]> framesByBaseline = new IdentityHashMap<>();
+	private byte[] fullFrame;
+	private volatile boolean sharing;
+
+	public boolean isSharing() {
+		return sharing;
+	}
+
+	void setSharing(boolean sharing) {
+		this.sharing = sharing;
+		if (!sharing) {
+			synchronized (this) {
+				target = null;
+				framesByBaseline.clear();
+				fullFrame = null;
+			}
+		}
+	}
+
+	public byte[] frameFor(IdeContext baseline, IdeContext context, FrameEncoder encoder) throws IOException {
+		synchronized (this) {
+			if (target == context) {
+				byte[] cached = baseline == null ? fullFrame : framesByBaseline.get(baseline);
+				if (cached != null) {
+					return cached;
+				}
+			}
+		}
+		byte[] frame = encoder.encode();
+		synchronized (this) {
+			if (target != context) {
+				target = context;
+				framesByBaseline.clear();
+				fullFrame = null;
+			}
+			if (baseline == null) {
+				fullFrame = frame;
+			} else {
+				framesByBaseline.put(baseline, frame);
+			}
+		}
+		return frame;
+	}
+}
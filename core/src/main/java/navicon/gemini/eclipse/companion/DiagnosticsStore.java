@@ -0,0 +1,222 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// The current problem markers by file, plus the changes not yet sent to the CLI. Changes accumulate
+// until drain(): a marker changed several times is sent once with its last state, and a marker added
+// and removed again in between is not sent at all. Diagnostics are identified by path and marker id;
+// marker ids are unique in the workspace, so a removal needs only the id.
+public class DiagnosticsStore {
+
+	public static final String ERROR = "error";
+	public static final String WARNING = "warning";
+	public static final String INFO = "info";
+
+	public static class Diagnostic {
+		public String path;
+		public long id;
+		public String severity;
+		public String message;
+		// 1-based; absent for markers without a line, such as build path problems
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer line;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer charStart;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer charEnd;
+		// Marker type, e.g. org.eclipse.jdt.core.problem
+		public String source;
+	}
+
+	public static class DiagnosticRef {
+		public String path;
+		public long id;
+
+		DiagnosticRef(String path, long id) {
+			this.path = path;
+			this.id = id;
+		}
+	}
+
+	// Params of ide/diagnostics
+	public static class Delta {
+		// New diagnostics, and changed ones replacing the diagnostic with the same path and id
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public List<Diagnostic> added;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public List<DiagnosticRef> removed;
+		// Too many changes to list; the client should fetch the diagnostics it needs with getDiagnostics
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean resync;
+		public int errors;
+		public int warnings;
+
+		@JsonIgnore
+		public boolean isEmpty() {
+			return !resync && (added == null || added.isEmpty()) && (removed == null || removed.isEmpty());
+		}
+	}
+
+	private final Map<String, Map<Long, Diagnostic>> byPath = new HashMap<>();
+	// The path each marker was stored under; the resource of a removed marker may no longer have one,
+	// e.g. when its project was closed or deleted
+	private final Map<Long, String> pathById = new HashMap<>();
+	private final Map<String, Diagnostic> pendingAdded = new LinkedHashMap<>();
+	private final Map<String, DiagnosticRef> pendingRemoved = new LinkedHashMap<>();
+	// Added since the last drain, so the client has never seen them
+	private final Set<String> unsent = new HashSet<>();
+	private int errors;
+	private int warnings;
+
+	public synchronized void put(Diagnostic diagnostic) {
+		String oldPath = pathById.put(diagnostic.id, diagnostic.path);
+		if (oldPath != null && !oldPath.equals(diagnostic.path)) {
+			remove(oldPath, diagnostic.id);
+		}
+		String key = key(diagnostic.path, diagnostic.id);
+		Diagnostic previous = byPath.computeIfAbsent(diagnostic.path, p -> new HashMap<>()).put(diagnostic.id,
+				diagnostic);
+		count(previous, -1);
+		count(diagnostic, 1);
+		// Re-adding one the client still knows turns the pending removal into a replacement
+		if (pendingRemoved.remove(key) == null && previous == null) {
+			unsent.add(key);
+		}
+		pendingAdded.put(key, diagnostic);
+	}
+
+	// The diagnostics present at startup; the client fetches those with getDiagnostics, so they are
+	// not reported as changes
+	public synchronized void load(Collection<Diagnostic> diagnostics) {
+		for (Diagnostic diagnostic : diagnostics) {
+			pathById.put(diagnostic.id, diagnostic.path);
+			count(byPath.computeIfAbsent(diagnostic.path, p -> new HashMap<>()).put(diagnostic.id, diagnostic), -1);
+			count(diagnostic, 1);
+		}
+	}
+
+	public synchronized void remove(long id) {
+		String path = pathById.remove(id);
+		if (path != null) {
+			remove(path, id);
+		}
+	}
+
+	private void remove(String path, long id) {
+		Map<Long, Diagnostic> diagnostics = byPath.get(path);
+		Diagnostic previous = diagnostics == null ? null : diagnostics.remove(id);
+		if (previous == null) {
+			return;
+		}
+		if (diagnostics.isEmpty()) {
+			byPath.remove(path);
+		}
+		count(previous, -1);
+		String key = key(path, id);
+		pendingAdded.remove(key);
+		if (!unsent.remove(key)) {
+			pendingRemoved.put(key, new DiagnosticRef(path, id));
+		}
+	}
+
+	// Takes the changes since the previous drain; more than maxChanges are replaced by a resync flag
+	public synchronized Delta drain(int maxChanges) {
+		Delta delta = new Delta();
+		if (pendingAdded.size() + pendingRemoved.size() > maxChanges) {
+			delta.resync = true;
+		} else {
+			delta.added = new ArrayList<>(pendingAdded.values());
+			delta.removed = new ArrayList<>(pendingRemoved.values());
+		}
+		pendingAdded.clear();
+		pendingRemoved.clear();
+		unsent.clear();
+		delta.errors = errors;
+		delta.warnings = warnings;
+		return delta;
+	}
+
+	public synchronized boolean hasPendingChanges() {
+		return !pendingAdded.isEmpty() || !pendingRemoved.isEmpty();
+	}
+
+	// Diagnostics of the given paths, or of all files when paths is null, most severe first
+	public synchronized List<Diagnostic> get(Collection<String> paths, String minSeverity) {
+		int threshold = rank(minSeverity);
+		List<Diagnostic> result = new ArrayList<>();
+		Collection<Map<Long, Diagnostic>> files;
+		if (paths == null) {
+			files = byPath.values();
+		} else {
+			files = new ArrayList<>();
+			for (String path : paths) {
+				Map<Long, Diagnostic> diagnostics = byPath.get(path);
+				if (diagnostics != null) {
+					files.add(diagnostics);
+				}
+			}
+		}
+		for (Map<Long, Diagnostic> diagnostics : files) {
+			for (Diagnostic diagnostic : diagnostics.values()) {
+				if (rank(diagnostic.severity) >= threshold) {
+					result.add(diagnostic);
+				}
+			}
+		}
+		result.sort((a, b) -> {
+			int c = Integer.compare(rank(b.severity), rank(a.severity));
+			if (c == 0) {
+				c = a.path.compareTo(b.path);
+			}
+			if (c == 0) {
+				c = Integer.compare(a.line == null ? 0 : a.line, b.line == null ? 0 : b.line);
+			}
+			return c;
+		});
+		return result;
+	}
+
+	public synchronized int getErrorCount() {
+		return errors;
+	}
+
+	public synchronized int getWarningCount() {
+		return warnings;
+	}
+
+	// Unknown severities rank lowest so a typo in minSeverity includes everything
+	public static int rank(String severity) {
+		if (ERROR.equals(severity)) {
+			return 2;
+		}
+		if (WARNING.equals(severity)) {
+			return 1;
+		}
+		return 0;
+	}
+
+	private void count(Diagnostic diagnostic, int sign) {
+		if (diagnostic == null) {
+			return;
+		}
+		if (ERROR.equals(diagnostic.severity)) {
+			errors += sign;
+		} else if (WARNING.equals(diagnostic.severity)) {
+			warnings += sign;
+		}
+	}
+
+	private static String key(String path, long id) {
+		return path + '#' + id;
+	}
+}
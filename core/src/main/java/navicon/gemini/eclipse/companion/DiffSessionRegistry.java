@@ -0,0 +1,73 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The proposed changes the CLI has open, one session per file. A view (V) shows the files of one
+// openDiff or openDiffBatch call under a shared diff id, and a file is in at most one view, so a new
+// diff for it supersedes the old session. Whoever removes a session decides its outcome: the view
+// when the user accepts or rejects it, closeDiff or a superseding diff when it is dropped silently.
+public class DiffSessionRegistry<V> {
+
+	private final Map<String, DiffSession<V>> byFilePath = new LinkedHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+
+	public static class DiffSession<V> {
+		public final String diffId;
+		public final String filePath;
+		public final V view;
+
+		public DiffSession(String diffId, String filePath, V view) {
+			this.diffId = diffId;
+			this.filePath = filePath;
+			this.view = view;
+		}
+	}
+
+	public String newDiffId() {
+		return "diff-" + nextId.incrementAndGet();
+	}
+
+	// Returns the session it replaces, which the caller has to drop from its view
+	public synchronized DiffSession<V> open(DiffSession<V> session) {
+		return byFilePath.put(session.filePath, session);
+	}
+
+	public synchronized DiffSession<V> get(String filePath) {
+		return byFilePath.get(filePath);
+	}
+
+	// False when the session was already closed or superseded
+	public synchronized boolean remove(DiffSession<V> session) {
+		return byFilePath.remove(session.filePath, session);
+	}
+
+	public synchronized DiffSession<V> removeFile(String filePath) {
+		return byFilePath.remove(filePath);
+	}
+
+	public synchronized List<DiffSession<V>> removeDiff(String diffId) {
+		List<DiffSession<V>> removed = new ArrayList<>();
+		byFilePath.values().removeIf(session -> {
+			if (session.diffId.equals(diffId)) {
+				removed.add(session);
+				return true;
+			}
+			return false;
+		});
+		return removed;
+	}
+
+	public synchronized List<DiffSession<V>> removeAll() {
+		List<DiffSession<V>> removed = new ArrayList<>(byFilePath.values());
+		byFilePath.clear();
+		return removed;
+	}
+
+	public synchronized int size() {
+		return byFilePath.size();
+	}
+}
@@ -0,0 +1,331 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Reads files the way the user sees them: unsaved editor content when there is some, otherwise the
+// file on disk. Large files are memory-mapped and only the requested range is decoded, so reading a
+// few lines of a big log does not copy the whole file onto the heap. The hash is the SHA-256 of the
+// file's bytes in its encoding, which for a saved file is what sha256sum prints; disk hashes are
+// cached by size and modification time.
+public class FileContentReader {
+
+	// Files up to this size are read into the heap; mapping them costs more than it saves
+	private static final int MAP_THRESHOLD = 256 * 1024;
+	private static final int CHUNK = 16 * 1024 * 1024;
+	private static final int BINARY_PROBE_BYTES = 8192;
+	private static final int HASH_CACHE_SIZE = 1024;
+
+	// Unsaved editor content and what may be read at all, both decided by the IDE
+	public interface Buffers {
+		// null when the file is not open or has no unsaved changes
+		String dirtyContent(String filePath);
+
+		Charset charset(String filePath);
+
+		// Whether read() may serve the file; anything else comes back with an error
+		boolean isReadable(String filePath);
+	}
+
+	public static class Request {
+		public String filePath;
+		// Byte range; offset without length reads to the end
+		public Long offset;
+		public Long length;
+		// Line range, 0-based and inclusive; used instead of a byte range
+		public Integer startLine;
+		public Integer endLine;
+		public String knownHash;
+	}
+
+	public static class FileContent {
+		public String filePath;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String hash;
+		// Size in bytes of the whole file or editor content
+		public long size;
+		// Served from an editor with unsaved changes
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean dirty;
+		// hash equals knownHash, so content is left out
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean unchanged;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String content;
+		// Byte range of content within the file
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Long offset;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer length;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer startLine;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer endLine;
+		// The range was cut at the byte budget of the call
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean truncated;
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean binary;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String error;
+	}
+
+	// Bytes of editor content or of a file, readable in slices
+	private interface Bytes {
+		long size();
+
+		ByteBuffer slice(long from, int length) throws IOException;
+	}
+
+	private static class CachedHash {
+		final long size;
+		final long modified;
+		final String hash;
+
+		CachedHash(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	private final Buffers buffers;
+	private final Map<String, CachedHash> hashes = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedHash> eldest) {
+			return size() > HASH_CACHE_SIZE;
+		}
+	};
+
+	public FileContentReader(Buffers buffers) {
+		this.buffers = buffers;
+	}
+
+	// The whole text, decoded with the file's charset
+	public String readText(String filePath) throws IOException {
+		String dirty = buffers.dirtyContent(filePath);
+		if (dirty != null) {
+			return dirty;
+		}
+		return new String(Files.readAllBytes(Paths.get(filePath)), buffers.charset(filePath));
+	}
+
+	// Reads at most maxBytes of the requested range; problems with the file are reported in error
+	public FileContent read(Request request, long maxBytes) {
+		FileContent result = new FileContent();
+		result.filePath = request.filePath;
+		if (!buffers.isReadable(request.filePath)) {
+			result.error = "Not a workspace file or open editor";
+			return result;
+		}
+		Charset charset = buffers.charset(request.filePath);
+		String dirty = buffers.dirtyContent(request.filePath);
+		if (dirty != null) {
+			ByteBuffer bytes = ByteBuffer.wrap(dirty.getBytes(charset));
+			result.dirty = true;
+			result.hash = hex(sha256(bytes.duplicate()));
+			try {
+				read(request, heapBytes(bytes), charset, maxBytes, result);
+			} catch (IOException e) {
+				// Heap bytes are never read from a file
+				throw new IllegalStateException(e);
+			}
+			return result;
+		}
+		Path path = Paths.get(request.filePath);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			Bytes bytes = size <= MAP_THRESHOLD ? heapBytes(readFully(channel, (int) size)) : mappedBytes(channel, size);
+			result.hash = diskHash(request.filePath, path, bytes);
+			read(request, bytes, charset, maxBytes, result);
+		} catch (NoSuchFileException e) {
+			result.error = "File not found";
+		} catch (IOException | IllegalArgumentException e) {
+			result.error = e.toString();
+		}
+		return result;
+	}
+
+	private void read(Request request, Bytes bytes, Charset charset, long maxBytes, FileContent result)
+			throws IOException {
+		long size = bytes.size();
+		result.size = size;
+		if (request.knownHash != null && request.knownHash.equalsIgnoreCase(result.hash)) {
+			result.unchanged = true;
+			return;
+		}
+		long from;
+		long to;
+		if (request.startLine != null) {
+			int startLine = Math.max(0, request.startLine);
+			int endLine = request.endLine == null ? Integer.MAX_VALUE : request.endLine;
+			if (endLine < startLine) {
+				result.error = "endLine is before startLine";
+				return;
+			}
+			long[] range = lineRange(bytes, startLine, endLine);
+			from = range[0];
+			to = range[1];
+			result.startLine = startLine;
+			result.endLine = range[2] < startLine ? null : (int) range[2];
+		} else {
+			from = request.offset == null ? 0 : Math.max(0, Math.min(size, request.offset));
+			to = request.length == null ? size : Math.min(size, from + Math.max(0, request.length));
+		}
+		if (to - from > maxBytes) {
+			to = from + maxBytes;
+			result.truncated = true;
+			result.endLine = null;
+		}
+		ByteBuffer slice = bytes.slice(from, (int) (to - from));
+		if (isBinary(slice)) {
+			result.binary = true;
+			return;
+		}
+		result.offset = from;
+		result.length = (int) (to - from);
+		result.content = decode(slice, charset);
+	}
+
+	// Byte offsets of the start of startLine and the end of endLine (after its line break), and the
+	// last line actually included, -1 for none. Lines end at \n, so the \r of \r\n stays in the content.
+	private static long[] lineRange(Bytes bytes, int startLine, int endLine) throws IOException {
+		long size = bytes.size();
+		long from = startLine == 0 ? 0 : -1;
+		int line = 0;
+		for (long pos = 0; pos < size; pos += CHUNK) {
+			int length = (int) Math.min(CHUNK, size - pos);
+			ByteBuffer chunk = bytes.slice(pos, length);
+			for (int i = 0; i < length; i++) {
+				if (chunk.get(i) == '\n') {
+					line++;
+					if (line == startLine) {
+						from = pos + i + 1;
+					}
+					if (line > endLine) {
+						return new long[] { from, pos + i + 1, endLine };
+					}
+				}
+			}
+		}
+		if (from < 0) {
+			// startLine is past the end; an empty range at the end of the file
+			return new long[] { size, size, -1 };
+		}
+		return new long[] { from, size, line };
+	}
+
+	private String diskHash(String filePath, Path path, Bytes bytes) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long modified = attributes.lastModifiedTime().toMillis();
+		synchronized (hashes) {
+			CachedHash cached = hashes.get(filePath);
+			if (cached != null && cached.size == bytes.size() && cached.modified == modified) {
+				return cached.hash;
+			}
+		}
+		MessageDigest digest = sha256();
+		for (long pos = 0; pos < bytes.size(); pos += CHUNK) {
+			digest.update(bytes.slice(pos, (int) Math.min(CHUNK, bytes.size() - pos)));
+		}
+		String hash = hex(digest);
+		synchronized (hashes) {
+			hashes.put(filePath, new CachedHash(bytes.size(), modified, hash));
+		}
+		return hash;
+	}
+
+	private static Bytes heapBytes(ByteBuffer buffer) {
+		return new Bytes() {
+			@Override
+			public long size() {
+				return buffer.capacity();
+			}
+
+			@Override
+			public ByteBuffer slice(long from, int length) {
+				return buffer.slice((int) from, length);
+			}
+		};
+	}
+
+	// Each slice is its own mapping, released when the buffer is collected
+	private static Bytes mappedBytes(FileChannel channel, long size) {
+		return new Bytes() {
+			@Override
+			public long size() {
+				return size;
+			}
+
+			@Override
+			public ByteBuffer slice(long from, int length) throws IOException {
+				return channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+			}
+		};
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			// keep reading
+		}
+		// A file that shrank meanwhile is served as far as it was read
+		return buffer.flip().slice();
+	}
+
+	private static boolean isBinary(ByteBuffer slice) {
+		for (int i = 0, n = Math.min(slice.limit(), BINARY_PROBE_BYTES); i < n; i++) {
+			if (slice.get(i) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// A range can start or end inside a multi-byte character; those bytes become U+FFFD
+	private static String decode(ByteBuffer slice, Charset charset) {
+		try {
+			return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(slice).toString();
+		} catch (CharacterCodingException e) {
+			// Not thrown with REPLACE
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest sha256(ByteBuffer bytes) {
+		MessageDigest digest = sha256();
+		digest.update(bytes);
+		return digest;
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(MessageDigest digest) {
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
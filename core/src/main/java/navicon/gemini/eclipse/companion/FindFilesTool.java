@@ -0,0 +1,89 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Looks files up in the workspace index so the CLI does not have to crawl the disk, including build
+// output it would then have to filter. Either a glob or a fuzzy query; results come in pages.
+public class FindFilesTool implements McpTool {
+
+	public static final int DEFAULT_LIMIT = 100;
+	public static final int MAX_LIMIT = 1000;
+
+	private final PathIndex index;
+	private final BooleanSupplier indexComplete;
+	private final ObjectMapper objectMapper;
+	private final JsonNode schema = SchemaBuilder.object()
+			.property("pattern", "string",
+					"Glob such as **/*.java or src/**/Foo?.{ts,tsx}; without a slash it matches file names")
+			.property("query", "string", "Fuzzy file name or path query, used instead of pattern")
+			.property("offset", "integer", "Index of the first result to return, 0 by default")
+			.property("limit", "integer", "Maximum number of results, " + DEFAULT_LIMIT + " by default")
+			.build();
+
+	public static class Result {
+		public List<String> files;
+		public int total;
+		// Offset of the next page, absent on the last one
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public Integer nextOffset;
+		// False while the initial scan is still running and results may be incomplete
+		public boolean complete;
+	}
+
+	public FindFilesTool(PathIndex index, BooleanSupplier indexComplete, ObjectMapper objectMapper) {
+		this.index = index;
+		this.indexComplete = indexComplete;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String getName() {
+		return "findFiles";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Finds workspace files by glob or fuzzy path match, skipping derived and team-ignored resources";
+	}
+
+	@Override
+	public JsonNode getInputSchema() {
+		return schema;
+	}
+
+	@Override
+	public ToolResult call(ToolCall call) throws ToolException {
+		ToolArguments args = call.getArguments();
+		String pattern = args.getString("pattern");
+		String query = args.getString("query");
+		if ((pattern == null) == (query == null)) {
+			throw ToolException.invalidParams("Exactly one of pattern or query is required");
+		}
+		int offset = Math.max(0, args.getInt("offset", 0));
+		int limit = Math.min(MAX_LIMIT, Math.max(1, args.getInt("limit", DEFAULT_LIMIT)));
+
+		PathIndex.Page page;
+		try {
+			page = pattern != null ? index.glob(pattern, offset, limit) : index.fuzzy(query, offset, limit);
+		} catch (IllegalArgumentException e) {
+			// An unbalanced bracket or similar that still made an invalid regex
+			throw ToolException.invalidParams("Invalid pattern: " + e.getMessage());
+		}
+		Result result = new Result();
+		result.files = page.paths;
+		result.total = page.total;
+		result.nextOffset = offset + page.paths.size() < page.total ? offset + page.paths.size() : null;
+		result.complete = indexComplete.getAsBoolean();
+		try {
+			return ToolResult.text(objectMapper.writeValueAsString(result));
+		} catch (JsonProcessingException e) {
+			throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// A reusable, unsynchronized byte buffer that Jackson serializes into. Unlike ByteArrayOutputStream
+// the contents can be written out without copying, and the array is kept between messages; it is
+// only dropped back to the initial size after an unusually large message.
+public final class FrameBuffer extends OutputStream {
+
+	private static final int INITIAL_SIZE = 8 * 1024;
+	private static final int RETAINED_MAX_SIZE = 256 * 1024;
+
+	private byte[] buf = new byte[INITIAL_SIZE];
+	private int count;
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void reset() {
+		count = 0;
+		if (buf.length > RETAINED_MAX_SIZE) {
+			buf = new byte[INITIAL_SIZE];
+		}
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > buf.length) {
+			if (minCapacity < 0) {
+				throw new OutOfMemoryError("Frame too large");
+			}
+			int newCapacity = Math.max(minCapacity, buf.length << 1);
+			buf = Arrays.copyOf(buf, newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity);
+		}
+	}
+}
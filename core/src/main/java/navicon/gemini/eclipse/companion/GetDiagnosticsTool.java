@@ -0,0 +1,87 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Returns the current problem markers, the baseline that ide/diagnostics notifications update
+public class GetDiagnosticsTool implements McpTool {
+
+	public static final int DEFAULT_LIMIT = 500;
+	public static final int MAX_LIMIT = 5000;
+
+	private final DiagnosticsStore store;
+	private final ObjectMapper objectMapper;
+	private final JsonNode schema = SchemaBuilder.object()
+			.arrayProperty("filePaths", "string", "Absolute paths of the files to report; all files when omitted")
+			.property("minSeverity", "string", "error, warning or info; warning by default")
+			.property("limit", "integer", "Maximum number of diagnostics, " + DEFAULT_LIMIT + " by default")
+			.build();
+
+	public static class Result {
+		public List<DiagnosticsStore.Diagnostic> diagnostics;
+		public int total;
+		// Workspace totals, whatever the filter
+		public int errors;
+		public int warnings;
+	}
+
+	public GetDiagnosticsTool(DiagnosticsStore store, ObjectMapper objectMapper) {
+		this.store = store;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String getName() {
+		return "getDiagnostics";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Returns compile errors, warnings and other problem markers, most severe first";
+	}
+
+	@Override
+	public JsonNode getInputSchema() {
+		return schema;
+	}
+
+	@Override
+	public ToolResult call(ToolCall call) throws ToolException {
+		ToolArguments args = call.getArguments();
+		List<String> paths = null;
+		JsonNode filePaths = args.getNode("filePaths");
+		if (filePaths != null && !filePaths.isNull()) {
+			if (!filePaths.isArray()) {
+				throw ToolException.invalidParams("filePaths must be an array of strings");
+			}
+			paths = new ArrayList<>();
+			for (JsonNode path : filePaths) {
+				paths.add(path.asText());
+			}
+		}
+		String minSeverity = args.getString("minSeverity");
+		if (minSeverity == null) {
+			minSeverity = DiagnosticsStore.WARNING;
+		} else if (!minSeverity.equals(DiagnosticsStore.ERROR) && !minSeverity.equals(DiagnosticsStore.WARNING)
+				&& !minSeverity.equals(DiagnosticsStore.INFO)) {
+			throw ToolException.invalidParams("minSeverity must be error, warning or info");
+		}
+		int limit = Math.min(MAX_LIMIT, Math.max(1, args.getInt("limit", DEFAULT_LIMIT)));
+
+		List<DiagnosticsStore.Diagnostic> diagnostics = store.get(paths, minSeverity);
+		Result result = new Result();
+		result.total = diagnostics.size();
+		result.diagnostics = diagnostics.size() > limit ? diagnostics.subList(0, limit) : diagnostics;
+		result.errors = store.getErrorCount();
+		result.warnings = store.getWarningCount();
+		try {
+			return ToolResult.text(objectMapper.writeValueAsString(result));
+		} catch (JsonProcessingException e) {
+			throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// The server's own latency and throughput figures, the same snapshot as GET /metrics?format=json
+public class GetServerStatsTool implements McpTool {
+
+	private final ServerMetrics metrics;
+	private final ObjectMapper objectMapper;
+	private final JsonNode schema = SchemaBuilder.object()
+			.property("reset", "boolean", "Start a new measurement window after taking this snapshot").build();
+
+	public GetServerStatsTool(ServerMetrics metrics, ObjectMapper objectMapper) {
+		this.metrics = metrics;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String getName() {
+		return "getServerStats";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Returns request latency percentiles per method and tool, SSE throughput and error counts of the IDE companion,"
+				+ " since startup and since the last reset";
+	}
+
+	@Override
+	public JsonNode getInputSchema() {
+		return schema;
+	}
+
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+
+	@Override
+	public ToolResult call(ToolCall call) throws ToolException {
+		ServerMetrics.Snapshot snapshot = metrics.snapshot();
+		if (call.getArguments().getBoolean("reset", false)) {
+			metrics.reset();
+		}
+		try {
+			return ToolResult.text(objectMapper.writeValueAsString(snapshot));
+		} catch (JsonProcessingException e) {
+			throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// One periodic task for all SSE sessions. A keep-alive is only sent once a stream has been idle for
+// the keep-alive interval, so busy streams carry no extra traffic. A session whose write has been
+// blocked longer than the stall timeout is aborted; one whose peer vanished fails on the keep-alive
+// write. Either way a dead peer is detached within interval + tick or stall timeout + tick, and a
+// detached session that nobody resumed is closed once the resume timeout has passed.
+public class HeartbeatService {
+
+	private final SseSessionRegistry sessions;
+	private final ServerMetrics metrics;
+	private final long intervalNanos;
+	private final long stallTimeoutNanos;
+	private final long resumeTimeoutNanos;
+	private final long tickMs;
+	private final LongAdder keepAlivesSent = new LongAdder();
+	private final LongAdder stalledSessions = new LongAdder();
+	private final LongAdder expiredSessions = new LongAdder();
+	private ScheduledFuture<?> task;
+
+	public HeartbeatService(SseSessionRegistry sessions, long intervalMs, long stallTimeoutMs, long resumeTimeoutMs,
+			ServerMetrics metrics) {
+		this.sessions = sessions;
+		this.metrics = metrics;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+		this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMs);
+		this.resumeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(resumeTimeoutMs);
+		this.tickMs = Math.max(100, Math.min(1000, Math.min(intervalMs, stallTimeoutMs) / 4));
+	}
+
+	public synchronized void start(ScheduledExecutorService scheduler) {
+		if (task == null) {
+			task = scheduler.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	private void tick() {
+		long now = System.nanoTime();
+		for (SseSession session : sessions.all()) {
+			try {
+				if (session.isDetached()) {
+					if (session.getDetachedNanos(now) >= resumeTimeoutNanos) {
+						expiredSessions.increment();
+						session.close();
+					}
+				} else if (session.isWriteStalled(now, stallTimeoutNanos)) {
+					stalledSessions.increment();
+					session.abort();
+				} else if (session.getIdleNanos(now) >= intervalNanos) {
+					keepAlivesSent.increment();
+					session.sendKeepAlive();
+				}
+			} catch (RuntimeException e) {
+				// A failing session must not cancel the periodic task for everyone else
+				metrics.reportError("heartbeat", e);
+			}
+		}
+	}
+
+	public long getKeepAlivesSent() {
+		return keepAlivesSent.sum();
+	}
+
+	public long getStalledSessions() {
+		return stalledSessions.sum();
+	}
+
+	public long getExpiredSessions() {
+		return expiredSessions.sum();
+	}
+}
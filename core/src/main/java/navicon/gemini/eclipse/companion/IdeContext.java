@@ -0,0 +1,92 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.List;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// The editor state sent to the CLI as ide/contextUpdate, captured on the UI thread and then only read.
+// The nested classes compare by value so ContextDeltaEncoder can tell what changed.
+public class IdeContext {
+	public String workspacePath;
+	public List<OpenFile> openFiles;
+	public String activeFile;
+	// Capped at maxInlineSelectionChars; selection describes the full selection
+	public String selectedText;
+	public CursorPosition cursorPosition;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public SelectionInfo selection;
+
+	public static class OpenFile {
+		public String filePath;
+		public long timestamp;
+		public boolean active;
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof OpenFile)) {
+				return false;
+			}
+			OpenFile other = (OpenFile) obj;
+			return timestamp == other.timestamp && active == other.active && Objects.equals(filePath, other.filePath);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(filePath, timestamp, active);
+		}
+	}
+
+	public static class CursorPosition {
+		public int line;
+		public int character;
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CursorPosition)) {
+				return false;
+			}
+			CursorPosition other = (CursorPosition) obj;
+			return line == other.line && character == other.character;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * line + character;
+		}
+	}
+
+	public static class SelectionInfo {
+		public int offset;
+		public int length;
+		// SHA-256 of the UTF-8 selected text, absent for an empty selection
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String hash;
+		// True when selectedText holds only the beginning of the selection
+		public boolean truncated;
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SelectionInfo)) {
+				return false;
+			}
+			SelectionInfo other = (SelectionInfo) obj;
+			return offset == other.offset && length == other.length && truncated == other.truncated
+					&& Objects.equals(hash, other.hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(offset, length, hash, truncated);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Serialization shared by HTTP responses and SSE streams: one ObjectWriter per message type, built
+// once, streaming into reusable FrameBuffers, with the SSE "data: " prefix and frame terminator
+// pre-encoded. JSON never contains a raw newline, so every message fits on one data line.
+public class JsonCodec {
+
+	private static final byte[] SSE_DATA_PREFIX = "data: ".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] SSE_FRAME_END = "\n\n".getBytes(StandardCharsets.UTF_8);
+	private static final int POOLED_BUFFERS = 16;
+
+	private final ObjectMapper objectMapper;
+	private final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+	private final BlockingQueue<FrameBuffer> bufferPool = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+	public JsonCodec(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public ObjectMapper getObjectMapper() {
+		return objectMapper;
+	}
+
+	public ObjectWriter writerFor(Class<?> type) {
+		return writers.computeIfAbsent(type,
+				t -> objectMapper.writerFor(t).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+	}
+
+	public void writeJson(Object value, OutputStream out) throws IOException {
+		writerFor(value.getClass()).writeValue(out, value);
+	}
+
+	public void writeSseFrame(Object message, FrameBuffer buffer) throws IOException {
+		buffer.write(SSE_DATA_PREFIX, 0, SSE_DATA_PREFIX.length);
+		writeJson(message, buffer);
+		buffer.write(SSE_FRAME_END, 0, SSE_FRAME_END.length);
+	}
+
+	// For frames shared between sessions, which need their own array
+	public byte[] sseFrameBytes(Object message) throws IOException {
+		FrameBuffer buffer = borrowBuffer();
+		try {
+			writeSseFrame(message, buffer);
+			return buffer.toByteArray();
+		} finally {
+			releaseBuffer(buffer);
+		}
+	}
+
+	public FrameBuffer borrowBuffer() {
+		FrameBuffer buffer = bufferPool.poll();
+		return buffer != null ? buffer : new FrameBuffer();
+	}
+
+	public void releaseBuffer(FrameBuffer buffer) {
+		buffer.reset();
+		bufferPool.offer(buffer);
+	}
+}
@@ -0,0 +1,24 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class JsonRpcError {
+	public final String jsonrpc = "2.0";
+	public final JsonNode id;
+	public final Error error;
+
+	public JsonRpcError(JsonNode id, int code, String message) {
+		this.id = id;
+		this.error = new Error(code, message);
+	}
+
+	public static class Error {
+		public final int code;
+		public final String message;
+
+		Error(int code, String message) {
+			this.code = code;
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Serialized directly by Jackson, so the params object is never converted to a tree first
+public class JsonRpcNotification {
+	public final String jsonrpc = "2.0";
+	public final String method;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public final Object params;
+
+	public JsonRpcNotification(String method, Object params) {
+		this.method = method;
+		this.params = params;
+	}
+}
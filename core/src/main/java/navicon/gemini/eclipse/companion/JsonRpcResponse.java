@@ -0,0 +1,14 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class JsonRpcResponse {
+	public final String jsonrpc = "2.0";
+	public final JsonNode id;
+	public final Object result;
+
+	public JsonRpcResponse(JsonNode id, Object result) {
+		this.id = id;
+		this.result = result;
+	}
+}
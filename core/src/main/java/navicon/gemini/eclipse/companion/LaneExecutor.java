@@ -0,0 +1,156 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// An executor for one class of work ("lane"), so that e.g. blocked SSE writers can never take the
+// threads that short tools/call requests need. Runs each task on its own virtual thread when the
+// JDK has them (21+) and the model allows it, otherwise on a bounded pool with a bounded queue.
+// Either way at most threads + queueCapacity tasks are admitted at a time; work beyond that is
+// rejected rather than piling up inside the IDE process.
+public class LaneExecutor implements Executor {
+
+	public static final String MODEL_AUTO = "auto";
+	public static final String MODEL_VIRTUAL = "virtual";
+	public static final String MODEL_POOLED = "pooled";
+
+	private final String name;
+	private final ExecutorService delegate;
+	private final boolean virtual;
+	// Bounds the tasks in flight on virtual threads, which have no queue to fill up; null otherwise
+	private final Semaphore permits;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	private LaneExecutor(String name, ExecutorService delegate, boolean virtual, int maxInFlight) {
+		this.name = name;
+		this.delegate = delegate;
+		this.virtual = virtual;
+		this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+	}
+
+	public static LaneExecutor create(String name, String model, int threads, int queueCapacity) {
+		if (!MODEL_POOLED.equalsIgnoreCase(model)) {
+			ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+			if (virtualExecutor != null) {
+				return new LaneExecutor(name, virtualExecutor, true, Math.max(1, threads) + Math.max(1, queueCapacity));
+			}
+			if (MODEL_VIRTUAL.equalsIgnoreCase(model)) {
+				CompanionLog.warn("Virtual threads are not available, using a bounded pool for " + name);
+			}
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(Math.max(1, queueCapacity)), daemonThreads(name));
+		pool.allowCoreThreadTimeOut(true);
+		return new LaneExecutor(name, pool, false, 0);
+	}
+
+	// For the HttpServer's own executor, which must never reject: the JDK server leaves a rejected
+	// connection open without a response. Its tasks only read the request headers and hand the
+	// exchange to a bounded lane (McpHttpHandler.onLane), so its threads are short-lived.
+	public static LaneExecutor createUnbounded(String name, String model) {
+		if (!MODEL_POOLED.equalsIgnoreCase(model)) {
+			ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+			if (virtualExecutor != null) {
+				return new LaneExecutor(name, virtualExecutor, true, 0);
+			}
+		}
+		return new LaneExecutor(name, new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+				new SynchronousQueue<>(), daemonThreads(name)), false, 0);
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	// Looked up reflectively because the bundle targets JavaSE-17
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (permits != null && !permits.tryAcquire()) {
+			rejected.increment();
+			throw new RejectedExecutionException(name + " is full");
+		}
+		queued.incrementAndGet();
+		try {
+			delegate.execute(() -> {
+				queued.decrementAndGet();
+				active.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					active.decrementAndGet();
+					completed.increment();
+					if (permits != null) {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			rejected.increment();
+			if (permits != null) {
+				permits.release();
+			}
+			throw e;
+		}
+	}
+
+	public void shutdownNow() {
+		delegate.shutdownNow();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString() {
+		return name + "[" + (virtual ? "virtual" : "pooled") + ", active=" + getActiveCount() + ", queued="
+				+ getQueueDepth() + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+	}
+}
@@ -0,0 +1,110 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Durations in nanoseconds, counted in log-linear buckets as in HdrHistogram: every power of two is
+// split into 16 equal buckets, so a reported percentile is at most 1/16 above the real value.
+// Recording is one atomic increment and never allocates. Durations above about 36 minutes land in
+// the last bucket. A snapshot minus an earlier one gives the histogram of the time in between.
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	public static class Snapshot {
+		private final long[] counts;
+		public final long count;
+		public final long sumNanos;
+
+		Snapshot(long[] counts, long sumNanos) {
+			this.counts = counts;
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			this.count = total;
+			this.sumNanos = sumNanos;
+		}
+
+		public Snapshot minus(Snapshot earlier) {
+			if (earlier == null) {
+				return this;
+			}
+			long[] window = new long[counts.length];
+			for (int i = 0; i < window.length; i++) {
+				window[i] = counts[i] - earlier.counts[i];
+			}
+			return new Snapshot(window, sumNanos - earlier.sumNanos);
+		}
+
+		// Upper bound of the bucket holding the given quantile, 0 when empty
+		public long percentile(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return upperBound(i);
+				}
+			}
+			return upperBound(counts.length - 1);
+		}
+
+		public long max() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		public long mean() {
+			return count == 0 ? 0 : sumNanos / count;
+		}
+	}
+
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(Math.max(0, nanos)));
+		sum.add(nanos);
+	}
+
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, sum.sum());
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+	}
+}
@@ -0,0 +1,51 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+// A file the CLI reads while the IDE may be rewriting it, such as the discovery file. Content is
+// written to a temporary file in the same directory and moved over the target, so readers see
+// either the old or the new version, and writing identical content again is skipped.
+public class ManagedFile {
+
+	private final Path path;
+	private byte[] written;
+
+	public ManagedFile(Path path) {
+		this.path = path;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	// Returns false when the file already had this content
+	public synchronized boolean update(byte[] content) throws IOException {
+		if (written != null && Arrays.equals(written, content) && Files.exists(path)) {
+			return false;
+		}
+		Files.createDirectories(path.getParent());
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temp, content);
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		written = content;
+		return true;
+	}
+
+	public synchronized void delete() throws IOException {
+		written = null;
+		Files.deleteIfExists(path);
+	}
+}
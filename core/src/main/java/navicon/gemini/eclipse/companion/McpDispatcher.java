@@ -0,0 +1,212 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// Routes parsed JSON-RPC requests to method handlers and tools and turns the outcome into a
+// JsonRpcResponse or JsonRpcError; notifications produce no response. initialize is not handled
+// here because it opens the SSE stream on the HTTP exchange itself. Tool calls in progress are
+// tracked by session and request id so notifications/cancelled can flag them. Every dispatch is
+// timed per method and every tool call per tool; a JSON-RPC error response counts as an error.
+// Requests are also JFR events when a recording enables them.
+public class McpDispatcher {
+
+	public static final int INVALID_REQUEST = -32600;
+	public static final int METHOD_NOT_FOUND = -32601;
+
+	public interface MethodHandler {
+		// Returns the result object of the response; ignored for notifications
+		Object handle(McpRequest request, String sessionId) throws ToolException, IOException;
+	}
+
+	private final Map<String, MethodHandler> methods = new ConcurrentHashMap<>();
+	private final Map<String, ToolCall> inFlight = new ConcurrentHashMap<>();
+	private final ToolRegistry toolRegistry;
+	private final Executor batchExecutor;
+	private final ServerMetrics metrics;
+
+	public McpDispatcher(ToolRegistry toolRegistry, Executor batchExecutor, ServerMetrics metrics) {
+		this.toolRegistry = toolRegistry;
+		this.batchExecutor = batchExecutor;
+		this.metrics = metrics;
+		registerMethod("notifications/initialized", (request, sessionId) -> null);
+		registerMethod("tools/list", (request, sessionId) -> toolRegistry.getToolsListResult());
+		registerMethod("notifications/cancelled", this::handleCancelled);
+	}
+
+	public void registerMethod(String method, MethodHandler handler) {
+		methods.put(method, handler);
+	}
+
+	public Object dispatch(McpRequest request, String sessionId) {
+		CompanionEvents.Request event = new CompanionEvents.Request();
+		event.begin();
+		long start = System.nanoTime();
+		Object response;
+		if ("tools/call".equals(request.method)) {
+			response = callTool(request, sessionId);
+		} else {
+			MethodHandler handler = request.method == null ? null : methods.get(request.method);
+			if (handler == null) {
+				// Not timed, so a misbehaving client cannot add metrics without bound
+				commit(event, request, sessionId, true);
+				return request.isNotification() ? null
+						: new JsonRpcError(request.id, METHOD_NOT_FOUND, "Method not found: " + request.method);
+			}
+			try {
+				response = new JsonRpcResponse(request.id, handler.handle(request, sessionId));
+			} catch (ToolException e) {
+				response = new JsonRpcError(request.id, e.getCode(), e.getMessage());
+			} catch (IOException | RuntimeException e) {
+				metrics.reportError(request.method, e);
+				response = new JsonRpcError(request.id, ToolException.INTERNAL_ERROR, "Internal error: " + e);
+			}
+		}
+		metrics.method(request.method).record(System.nanoTime() - start, response instanceof JsonRpcError);
+		commit(event, request, sessionId, response instanceof JsonRpcError);
+		return request.isNotification() ? null : response;
+	}
+
+	static void commit(CompanionEvents.Request event, McpRequest request, String sessionId, boolean error) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.method = request.method;
+			event.id = request.id == null ? null : request.id.toString();
+			event.tool = request.toolName;
+			event.sessionId = sessionId;
+			event.size = request.size;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	private Object callTool(McpRequest request, String sessionId) {
+		JsonNode id = request.id;
+		if (request.toolName == null) {
+			return new JsonRpcError(id, ToolException.INVALID_PARAMS, "Missing tool name");
+		}
+		McpTool tool = toolRegistry.get(request.toolName);
+		if (tool == null) {
+			return new JsonRpcError(id, METHOD_NOT_FOUND, "Unknown tool: " + request.toolName);
+		}
+		ToolCall call = new ToolCall(id, sessionId, request.arguments);
+		String key = id == null ? null : inFlightKey(sessionId, id);
+		if (key != null) {
+			inFlight.put(key, call);
+		}
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Object response = new JsonRpcResponse(id, tool.call(call));
+			failed = false;
+			return response;
+		} catch (ToolException e) {
+			return new JsonRpcError(id, e.getCode(), e.getMessage());
+		} catch (RuntimeException e) {
+			metrics.reportError(request.toolName, e);
+			return new JsonRpcError(id, ToolException.INTERNAL_ERROR, "Tool " + request.toolName + " failed: " + e);
+		} finally {
+			metrics.tool(tool.getName()).record(System.nanoTime() - start, failed);
+			if (key != null) {
+				inFlight.remove(key, call);
+			}
+		}
+	}
+
+	private Object handleCancelled(McpRequest request, String sessionId) {
+		JsonNode requestId = request.params == null ? null : request.params.get("requestId");
+		if (requestId != null) {
+			ToolCall call = inFlight.get(inFlightKey(sessionId, requestId));
+			if (call != null) {
+				call.cancel();
+			}
+		}
+		return null;
+	}
+
+	// Request ids are only unique per session; "1" and 1 are different ids
+	private static String inFlightKey(String sessionId, JsonNode id) {
+		return sessionId + " " + id;
+	}
+
+	// Entries are McpRequests, or JsonRpcErrors for batch members that were not request objects.
+	// Parallel-safe requests run concurrently on the batch executor, the others run one after
+	// another on the calling thread in batch order. Responses keep the order of the batch and
+	// notifications are left out, so the result may be empty.
+	public List<Object> dispatchBatch(List<Object> entries, String sessionId) {
+		if (entries.isEmpty()) {
+			return Collections.singletonList(new JsonRpcError(null, INVALID_REQUEST, "Invalid Request"));
+		}
+		List<FutureTask<Object>> parallel = new ArrayList<>();
+		Object[] responses = new Object[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			Object entry = entries.get(i);
+			if (entry instanceof McpRequest && isParallelSafe((McpRequest) entry)) {
+				McpRequest request = (McpRequest) entry;
+				FutureTask<Object> task = new FutureTask<>(() -> dispatch(request, sessionId));
+				responses[i] = task;
+				parallel.add(task);
+				try {
+					batchExecutor.execute(task);
+				} catch (RejectedExecutionException e) {
+					// Runs on this thread below
+				}
+			}
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			Object entry = entries.get(i);
+			if (entry instanceof McpRequest && responses[i] == null) {
+				responses[i] = dispatch((McpRequest) entry, sessionId);
+			} else if (entry instanceof JsonRpcError) {
+				responses[i] = entry;
+			}
+		}
+		// Help with whatever no pool thread has picked up yet, so a batch never deadlocks waiting for
+		// threads of the lane it is running on
+		for (FutureTask<Object> task : parallel) {
+			task.run();
+		}
+		List<Object> result = new ArrayList<>(entries.size());
+		for (Object response : responses) {
+			if (response instanceof FutureTask) {
+				response = await((FutureTask<?>) response);
+			}
+			if (response != null) {
+				result.add(response);
+			}
+		}
+		return result;
+	}
+
+	private boolean isParallelSafe(McpRequest request) {
+		if ("tools/list".equals(request.method)) {
+			return true;
+		}
+		if ("tools/call".equals(request.method)) {
+			McpTool tool = toolRegistry.get(request.toolName);
+			return tool != null && tool.isParallelSafe();
+		}
+		return false;
+	}
+
+	private static Object await(FutureTask<?> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+}
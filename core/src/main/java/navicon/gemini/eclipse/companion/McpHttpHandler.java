@@ -0,0 +1,331 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+// The MCP streamable HTTP endpoint and the metrics endpoint, for any transport that produces
+// HttpExchanges: POST carries requests, batches and initialize (answered with the SSE stream), GET
+// resumes a stream and DELETE ends a session. What the IDE adds, like the initial context of a new
+// session, comes in through the sessionOpened callback. Both endpoints require the discovery file's
+// token as a Bearer token: tools read files and getServerStats exposes the same data as /metrics.
+public class McpHttpHandler {
+
+	private final McpRequestParser requestParser;
+	private final McpDispatcher dispatcher;
+	private final SseSessionRegistry sessions;
+	private final JsonCodec codec;
+	private final ObjectMapper objectMapper;
+	private final ServerMetrics metrics;
+	private final String authToken;
+	private final Runnable sessionOpened;
+
+	public McpHttpHandler(McpRequestParser requestParser, McpDispatcher dispatcher, SseSessionRegistry sessions,
+			JsonCodec codec, ServerMetrics metrics, String authToken, Runnable sessionOpened) {
+		this.requestParser = requestParser;
+		this.dispatcher = dispatcher;
+		this.sessions = sessions;
+		this.codec = codec;
+		this.objectMapper = codec.getObjectMapper();
+		this.metrics = metrics;
+		this.authToken = authToken;
+		this.sessionOpened = sessionOpened;
+	}
+
+	// Runs the handler on the lane, which bounds the work in flight. An exchange the lane rejects is
+	// answered with 503 right away; the HttpServer itself would leave it open without a response.
+	public HttpHandler onLane(Executor lane, HttpHandler handler) {
+		return exchange -> {
+			try {
+				lane.execute(() -> {
+					try {
+						handler.handle(exchange);
+					} catch (IOException | RuntimeException e) {
+						// What the HttpServer does when a handler throws
+						exchange.close();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				metrics.counter("http.overloaded").increment();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				exchange.sendResponseHeaders(503, -1);
+				exchange.close();
+			}
+		};
+	}
+
+	public void handleMcp(HttpExchange exchange) throws IOException {
+		if (!isAuthorized(exchange)) {
+			sendUnauthorized(exchange);
+			return;
+		}
+		if ("DELETE".equalsIgnoreCase(exchange.getRequestMethod())) {
+			handleSessionDelete(exchange);
+			return;
+		}
+		if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+			handleStreamResume(exchange);
+			return;
+		}
+		if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(405, -1);
+			return;
+		}
+
+		String sessionId = exchange.getRequestHeaders().getFirst(SseSessionRegistry.SESSION_HEADER);
+		McpRequest request;
+		List<Object> batch = null;
+		try (JsonParser parser = requestParser.createParser(exchange.getRequestBody())) {
+			JsonToken first = parser.nextToken();
+			if (first == JsonToken.START_ARRAY) {
+				batch = readBatch(parser);
+				request = null;
+			} else if (first == JsonToken.START_OBJECT) {
+				request = requestParser.readRequest(parser);
+			} else {
+				sendJsonRpcError(exchange, null, McpDispatcher.INVALID_REQUEST, "Invalid Request");
+				return;
+			}
+		} catch (McpRequestParser.RequestTooLargeException e) {
+			sendJsonRpcError(exchange, null, McpDispatcher.INVALID_REQUEST, e.getMessage());
+			return;
+		} catch (Exception e) {
+			sendJsonRpcError(exchange, null, -32700, "Parse error");
+			return;
+		}
+
+		if (batch != null) {
+			handleBatch(exchange, batch, sessionId);
+		} else if ("initialize".equals(request.method)) {
+			CompanionEvents.Request event = new CompanionEvents.Request();
+			event.begin();
+			long start = System.nanoTime();
+			handleInitializeRequest(exchange, request.id, request.params, sessionId);
+			metrics.method("initialize").recordSince(start);
+			McpDispatcher.commit(event, request, sessionId, false);
+		} else {
+			Object response = dispatcher.dispatch(request, sessionId);
+			if (response == null) {
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			} else {
+				sendJson(exchange, response instanceof JsonRpcError ? 400 : 200, response);
+			}
+		}
+	}
+
+	// Batch members that are not objects become Invalid Request errors in their slot
+	private List<Object> readBatch(JsonParser parser) throws IOException {
+		List<Object> entries = new ArrayList<>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new IOException("Unterminated batch");
+			}
+			if (token == JsonToken.START_OBJECT) {
+				entries.add(requestParser.readRequest(parser));
+			} else {
+				parser.skipChildren();
+				entries.add(new JsonRpcError(null, McpDispatcher.INVALID_REQUEST, "Invalid Request"));
+			}
+		}
+		return entries;
+	}
+
+	private void handleBatch(HttpExchange exchange, List<Object> batch, String sessionId) throws IOException {
+		for (int i = 0; i < batch.size(); i++) {
+			Object entry = batch.get(i);
+			if (entry instanceof McpRequest && "initialize".equals(((McpRequest) entry).method)) {
+				// initialize answers with an SSE stream and cannot share a response with other requests
+				batch.set(i, new JsonRpcError(((McpRequest) entry).id, McpDispatcher.INVALID_REQUEST,
+						"initialize cannot be batched"));
+			}
+		}
+		List<Object> responses = dispatcher.dispatchBatch(batch, sessionId);
+		if (responses.isEmpty()) {
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		} else {
+			sendJsonResponse(exchange, responses);
+		}
+	}
+
+	// An initialize carrying the id of a session that can still be resumed reattaches to it: missed
+	// events are replayed instead of starting over with a new session and a full context
+	private void handleInitializeRequest(HttpExchange exchange, JsonNode id, JsonNode params,
+			String requestedSessionId) throws IOException {
+		boolean resumable = sessions.get(requestedSessionId) != null;
+		String sessionId = resumable ? requestedSessionId : SseSessionRegistry.newSessionId();
+		sendSseHeaders(exchange, sessionId);
+		SseSession session = null;
+		if (resumable) {
+			session = sessions.resume(sessionId, exchange,
+					exchange.getRequestHeaders().getFirst(SseSessionRegistry.LAST_EVENT_ID_HEADER));
+		}
+		boolean resumed = session != null;
+		if (!resumed) {
+			session = sessions.open(exchange, sessionId, ContextDeltaEncoder.acceptsDeltas(params));
+		}
+
+		ObjectNode response = objectMapper.createObjectNode();
+		response.put("jsonrpc", "2.0");
+		response.set("id", id);
+		ObjectNode result = objectMapper.createObjectNode();
+		result.put("protocolVersion", "2025-06-18");
+		ObjectNode capabilities = objectMapper.createObjectNode();
+		ObjectNode tools = objectMapper.createObjectNode();
+		tools.put("listChanged", true);
+		capabilities.set("tools", tools);
+		// Offered to every client, used only for those that announce it as well
+		capabilities.putObject("experimental").put(ContextDeltaEncoder.DELTA_CAPABILITY, true);
+		result.set("capabilities", capabilities);
+		ObjectNode serverInfo = objectMapper.createObjectNode();
+		serverInfo.put("name", "eclipse-companion");
+		serverInfo.put("version", "1.0.0");
+		result.set("serverInfo", serverInfo);
+		response.set("result", result);
+
+		session.sendMessage(response);
+		if (!resumed) {
+			sessionOpened.run();
+		}
+	}
+
+	// The MCP streamable HTTP way to resume: GET with Mcp-Session-Id and Last-Event-ID
+	private void handleStreamResume(HttpExchange exchange) throws IOException {
+		String sessionId = exchange.getRequestHeaders().getFirst(SseSessionRegistry.SESSION_HEADER);
+		if (sessions.get(sessionId) == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		sendSseHeaders(exchange, sessionId);
+		if (sessions.resume(sessionId, exchange,
+				exchange.getRequestHeaders().getFirst(SseSessionRegistry.LAST_EVENT_ID_HEADER)) == null) {
+			// Closed between the lookup and the reattach
+			exchange.close();
+		}
+	}
+
+	private void sendSseHeaders(HttpExchange exchange, String sessionId) throws IOException {
+		exchange.getResponseHeaders().add(SseSessionRegistry.SESSION_HEADER, sessionId);
+		exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+		exchange.getResponseHeaders().add("Connection", "keep-alive");
+		exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+		exchange.getResponseHeaders().add("X-Accel-Buffering", "no");
+		exchange.sendResponseHeaders(200, 0);
+	}
+
+	// Explicit session termination as in the MCP streamable HTTP transport
+	private void handleSessionDelete(HttpExchange exchange) throws IOException {
+		SseSession session = sessions.get(exchange.getRequestHeaders().getFirst(SseSessionRegistry.SESSION_HEADER));
+		if (session == null) {
+			exchange.sendResponseHeaders(404, -1);
+		} else {
+			session.close();
+			exchange.sendResponseHeaders(204, -1);
+		}
+		exchange.close();
+	}
+
+	// --- Metrics ---
+
+	// Prometheus text by default, or the getServerStats snapshot with ?format=json; ?reset=true starts a
+	// new window after the snapshot. Requires the discovery file's token as a Bearer token.
+	public void handleMetrics(HttpExchange exchange) throws IOException {
+		if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(405, -1);
+			exchange.close();
+			return;
+		}
+		if (!isAuthorized(exchange)) {
+			sendUnauthorized(exchange);
+			return;
+		}
+		String query = exchange.getRequestURI().getRawQuery();
+		ServerMetrics.Snapshot snapshot = metrics.snapshot();
+		if (hasQueryParameter(query, "reset", "true")) {
+			metrics.reset();
+		}
+		if (hasQueryParameter(query, "format", "json")) {
+			sendJson(exchange, 200, snapshot);
+			return;
+		}
+		byte[] body = ServerMetrics.toPrometheus(snapshot).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	private boolean isAuthorized(HttpExchange exchange) {
+		String header = exchange.getRequestHeaders().getFirst("Authorization");
+		if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+			return false;
+		}
+		// Constant time, so the token cannot be guessed byte by byte from response times
+		return MessageDigest.isEqual(header.substring(7).trim().getBytes(StandardCharsets.UTF_8),
+				authToken.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void sendUnauthorized(HttpExchange exchange) throws IOException {
+		metrics.counter("http.unauthorized").increment();
+		exchange.getResponseHeaders().add("WWW-Authenticate", "Bearer");
+		exchange.sendResponseHeaders(401, -1);
+		exchange.close();
+	}
+
+	private static boolean hasQueryParameter(String query, String name, String value) {
+		if (query == null) {
+			return false;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.equals(name + "=" + value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// --- JSON Responses ---
+
+	private void sendJsonResponse(HttpExchange exchange, Object response) throws IOException {
+		sendJson(exchange, 200, response);
+	}
+
+	private void sendJsonRpcError(HttpExchange exchange, JsonNode id, int code, String message) throws IOException {
+		sendJson(exchange, 400, new JsonRpcError(id, code, message));
+	}
+
+	// Serializes into a pooled buffer so the Content-Length is known without an intermediate array
+	private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+		FrameBuffer buffer = codec.borrowBuffer();
+		try {
+			long start = System.nanoTime();
+			codec.writeJson(body, buffer);
+			metrics.timer("http.serialize").recordSince(start);
+			metrics.counter("http.bytesWritten").add(buffer.size());
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+			exchange.sendResponseHeaders(status, buffer.size());
+			try (OutputStream os = exchange.getResponseBody()) {
+				buffer.writeTo(os);
+			}
+		} finally {
+			codec.releaseBuffer(buffer);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// A JSON-RPC request as read by McpRequestParser. For tools/call the tool name and arguments are
+// lifted out of params while parsing, so params itself is only kept for the other methods.
+public class McpRequest {
+	public String method;
+	// Null for notifications
+	public JsonNode id;
+	public JsonNode params;
+	public String toolName;
+	public ToolArguments arguments;
+	// Bytes of the request object in the body, -1 when unknown
+	public long size = -1;
+
+	public boolean isNotification() {
+		return id == null;
+	}
+}
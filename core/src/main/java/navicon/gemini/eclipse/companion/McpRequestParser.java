@@ -0,0 +1,162 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Reads JSON-RPC requests straight from the request body with a streaming JsonParser. Nothing is
+// buffered up front and for tools/call no tree is built: string arguments go from the parser's
+// text buffer directly into ToolArguments.
+//
+// Memory bound per request: at most maxRequestBytes of body are read before the request is
+// rejected. While a string argument is parsed Jackson holds it in its char buffer and then once as
+// the resulting String, so the peak for a request whose largest argument has n characters is about
+// 4n bytes plus a few KB of parser buffers, e.g. ~20 MB for a 5 MB openDiff newContent.
+public class McpRequestParser {
+
+	public static class RequestTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public RequestTooLargeException(long limit) {
+			super("Request exceeds " + limit + " bytes");
+		}
+	}
+
+	private final JsonFactory jsonFactory;
+	private final long maxRequestBytes;
+
+	// The string limit is raised on a factory of its own so the shared ObjectMapper keeps Jackson's
+	// defaults for everything else it parses; trees are still built with the ObjectMapper
+	public McpRequestParser(ObjectMapper objectMapper, long maxRequestBytes) {
+		this.maxRequestBytes = maxRequestBytes;
+		int maxStringLength = (int) Math.min(Integer.MAX_VALUE, maxRequestBytes);
+		this.jsonFactory = JsonFactory.builder()
+				.streamReadConstraints(StreamReadConstraints.builder().maxStringLength(maxStringLength).build())
+				.build();
+		jsonFactory.setCodec(objectMapper);
+	}
+
+	public JsonParser createParser(InputStream body) throws IOException {
+		return jsonFactory.createParser(new LimitedInputStream(body, maxRequestBytes));
+	}
+
+	// Parses a single request object; the parser must be positioned on its START_OBJECT
+	public McpRequest readRequest(JsonParser parser) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			throw new IllegalArgumentException("Expected a JSON-RPC request object");
+		}
+		McpRequest request = new McpRequest();
+		long start = parser.currentTokenLocation().getByteOffset();
+		JsonNode deferredParams = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			JsonToken value = parser.nextToken();
+			switch (field) {
+			case "method":
+				request.method = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+				break;
+			case "id":
+				request.id = value == JsonToken.VALUE_NULL ? null : parser.readValueAsTree();
+				break;
+			case "params":
+				if ("tools/call".equals(request.method) && value == JsonToken.START_OBJECT) {
+					readToolCallParams(parser, request);
+				} else {
+					// Method still unknown or not a tool call: params are small, or strings are shared when
+					// the tree is converted into ToolArguments later
+					deferredParams = parser.readValueAsTree();
+				}
+				break;
+			default:
+				parser.skipChildren();
+				break;
+			}
+		}
+		long end = parser.currentLocation().getByteOffset();
+		if (start >= 0 && end >= start) {
+			request.size = end - start;
+		}
+		if (deferredParams != null) {
+			if ("tools/call".equals(request.method)) {
+				JsonNode name = deferredParams.get("name");
+				request.toolName = name != null && name.isTextual() ? name.textValue() : null;
+				request.arguments = ToolArguments.fromTree(deferredParams.get("arguments"));
+			} else {
+				request.params = deferredParams;
+			}
+		}
+		return request;
+	}
+
+	private void readToolCallParams(JsonParser parser, McpRequest request) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			JsonToken value = parser.nextToken();
+			if ("name".equals(field) && value == JsonToken.VALUE_STRING) {
+				request.toolName = parser.getText();
+			} else if ("arguments".equals(field) && value == JsonToken.START_OBJECT) {
+				request.arguments = readArguments(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (request.arguments == null) {
+			request.arguments = new ToolArguments();
+		}
+	}
+
+	private ToolArguments readArguments(JsonParser parser) throws IOException {
+		ToolArguments arguments = new ToolArguments();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			if (parser.nextToken() == JsonToken.VALUE_STRING) {
+				arguments.putString(name, parser.getText());
+			} else {
+				arguments.putNode(name, parser.readValueAsTree());
+			}
+		}
+		return arguments;
+	}
+
+	private static class LimitedInputStream extends FilterInputStream {
+		private final long limit;
+		private long count;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		private void count(long n) throws IOException {
+			count += n;
+			if (count > limit) {
+				throw new RequestTooLargeException(limit);
+			}
+		}
+	}
+}
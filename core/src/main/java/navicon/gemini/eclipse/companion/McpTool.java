@@ -0,0 +1,23 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// A tool offered through tools/list and invoked through tools/call. Implementations are registered
+// with the ToolRegistry and may be called concurrently from several request threads.
+public interface McpTool {
+
+	String getName();
+
+	String getDescription();
+
+	// JSON schema of the arguments object
+	JsonNode getInputSchema();
+
+	ToolResult call(ToolCall call) throws ToolException;
+
+	// Whether calls may run concurrently with other requests of the same JSON-RPC batch. Tools whose
+	// effects must happen in request order, like opening diff views, return false.
+	default boolean isParallelSafe() {
+		return true;
+	}
+}
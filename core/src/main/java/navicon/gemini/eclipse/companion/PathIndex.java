@@ -0,0 +1,425 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// In-memory index of workspace files for glob and fuzzy lookups. A file is keyed by its workspace
+// path without the leading slash ("project/src/Foo.java") and reports its location on disk. Entries
+// live in parallel arrays that a query scans in one pass; each has a 64-bit mask of the characters
+// in its lower-cased key, so a query skips every path missing one of its characters before looking
+// at the string. Removal swaps the last entry into the freed slot.
+// Queries take the read lock, updates the write lock.
+public class PathIndex {
+
+	public static class Page {
+		public final List<String> paths;
+		public final int total;
+
+		Page(List<String> paths, int total) {
+			this.paths = paths;
+			this.total = total;
+		}
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Integer> slots = new HashMap<>();
+	private String[] keys = new String[1024];
+	private String[] lowerKeys = new String[1024];
+	private String[] locations = new String[1024];
+	private long[] masks = new long[1024];
+	// Index of the first character of the file name within the key
+	private int[] nameStarts = new int[1024];
+	private int size;
+
+	public void add(String key, String location) {
+		lock.writeLock().lock();
+		try {
+			Integer slot = slots.get(key);
+			int i = slot != null ? slot : size;
+			if (slot == null) {
+				ensureCapacity(size + 1);
+				slots.put(key, i);
+				size++;
+			}
+			String lower = key.toLowerCase(Locale.ROOT);
+			keys[i] = key;
+			lowerKeys[i] = lower;
+			locations[i] = location;
+			masks[i] = charMask(lower);
+			nameStarts[i] = key.lastIndexOf('/') + 1;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean remove(String key) {
+		lock.writeLock().lock();
+		try {
+			Integer slot = slots.remove(key);
+			if (slot == null) {
+				return false;
+			}
+			removeSlot(slot);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Removes a folder or project with everything below it
+	public int removePrefix(String prefix) {
+		String folder = prefix.endsWith("/") ? prefix : prefix + "/";
+		lock.writeLock().lock();
+		try {
+			int removed = 0;
+			for (int i = size - 1; i >= 0; i--) {
+				if (keys[i].startsWith(folder)) {
+					slots.remove(keys[i]);
+					removeSlot(i);
+					removed++;
+				}
+			}
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			slots.clear();
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(lowerKeys, 0, size, null);
+			Arrays.fill(locations, 0, size, null);
+			size = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean contains(String key) {
+		lock.readLock().lock();
+		try {
+			return slots.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// A glob without a slash matches file names, otherwise whole keys. Supports *, **, ?, [...] and
+	// {a,b}. Results are ordered by key so pages are stable.
+	public Page glob(String glob, int offset, int limit) {
+		boolean byName = glob.indexOf('/') < 0;
+		Matcher matcher = Pattern.compile(globToRegex(glob), Pattern.CASE_INSENSITIVE).matcher("");
+		// Characters outside wildcards, [...] and {...} must occur in every match, and so must each
+		// literal run; both are much cheaper to check than the regex
+		String lowerGlob = glob.toLowerCase(Locale.ROOT);
+		List<String> literals = literalRuns(lowerGlob);
+		long requiredMask = charMask(String.join("", literals));
+		// A glob that starts or ends with a literal pins it to the start of the name or key, or to its end
+		String prefix = !literals.isEmpty() && lowerGlob.startsWith(literals.get(0)) ? literals.get(0) : "";
+		String suffix = !literals.isEmpty() && lowerGlob.endsWith(literals.get(literals.size() - 1))
+				? literals.get(literals.size() - 1)
+				: "";
+		lock.readLock().lock();
+		try {
+			TopHits hits = new TopHits(offset, limit, (x, y) -> keys[x.slot].compareTo(keys[y.slot]));
+			for (int i = 0; i < size; i++) {
+				String lower = lowerKeys[i];
+				if ((masks[i] & requiredMask) != requiredMask || !lower.endsWith(suffix)
+						|| !lower.startsWith(prefix, byName ? nameStarts[i] : 0) || !containsAll(lower, literals)) {
+					continue;
+				}
+				matcher.reset(keys[i]);
+				if (byName) {
+					matcher.region(nameStarts[i], keys[i].length());
+				}
+				if (matcher.matches()) {
+					hits.offer(i, 0);
+				}
+			}
+			return hits.page(offset, locations);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Case-insensitive subsequence match, best first: matches inside the file name beat matches
+	// spread over the path, consecutive characters and characters at word starts score higher, and
+	// shorter paths win ties.
+	public Page fuzzy(String query, int offset, int limit) {
+		String lowerQuery = query.toLowerCase(Locale.ROOT).replace('\\', '/');
+		long queryMask = charMask(lowerQuery);
+		lock.readLock().lock();
+		try {
+			TopHits hits = new TopHits(offset, limit, Comparator.<Hit> comparingInt(h -> -h.score)
+					.thenComparingInt(h -> keys[h.slot].length()).thenComparing(h -> keys[h.slot]));
+			for (int i = 0; i < size; i++) {
+				if ((masks[i] & queryMask) != queryMask) {
+					continue;
+				}
+				int score = fuzzyScore(lowerKeys[i], nameStarts[i], lowerQuery);
+				if (score > Integer.MIN_VALUE) {
+					hits.offer(i, score);
+				}
+			}
+			return hits.page(offset, locations);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static final class Hit {
+		final int slot;
+		final int score;
+
+		Hit(int slot, int score) {
+			this.slot = slot;
+			this.score = score;
+		}
+	}
+
+	// Keeps only the best offset + limit matches in a heap with the worst on top, so a query with
+	// many matches costs O(matches * log(offset + limit)) rather than a sort of all of them
+	private static final class TopHits {
+		private final int capacity;
+		private final Comparator<Hit> order;
+		private final PriorityQueue<Hit> heap;
+		private int total;
+
+		TopHits(int offset, int limit, Comparator<Hit> order) {
+			// Saturates instead of overflowing for an offset near Integer.MAX_VALUE
+			this.capacity = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+			this.order = order;
+			this.heap = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1024)), order.reversed());
+		}
+
+		void offer(int slot, int score) {
+			total++;
+			if (capacity == 0) {
+				return;
+			}
+			Hit hit = new Hit(slot, score);
+			if (heap.size() < capacity) {
+				heap.add(hit);
+			} else if (order.compare(hit, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(hit);
+			}
+		}
+
+		Page page(int offset, String[] locations) {
+			List<Hit> best = new ArrayList<>(heap);
+			best.sort(order);
+			int from = Math.min(Math.max(0, offset), best.size());
+			List<String> paths = new ArrayList<>(best.size() - from);
+			for (int i = from; i < best.size(); i++) {
+				paths.add(locations[best.get(i).slot]);
+			}
+			return new Page(Collections.unmodifiableList(paths), total);
+		}
+	}
+
+	private static boolean containsAll(String lower, List<String> literals) {
+		for (int i = 0; i < literals.size(); i++) {
+			if (lower.indexOf(literals.get(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int fuzzyScore(String key, int nameStart, String query) {
+		if (query.isEmpty()) {
+			return 0;
+		}
+		int inName = matchScore(key, nameStart, query);
+		if (inName > Integer.MIN_VALUE) {
+			return inName + 100;
+		}
+		return matchScore(key, 0, query);
+	}
+
+	// Greedy left-to-right match of the query as a subsequence of key[from..]
+	private static int matchScore(String key, int from, String query) {
+		int score = 0;
+		int previous = -2;
+		int k = from;
+		for (int q = 0; q < query.length(); q++) {
+			char c = query.charAt(q);
+			while (k < key.length() && key.charAt(k) != c) {
+				k++;
+			}
+			if (k == key.length()) {
+				return Integer.MIN_VALUE;
+			}
+			score += 1;
+			if (k == previous + 1) {
+				score += 5;
+			}
+			if (k == 0 || isSeparator(key.charAt(k - 1))) {
+				score += 8;
+			}
+			previous = k++;
+		}
+		return score - key.length() / 16;
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == '/' || c == '.' || c == '_' || c == '-' || c == ' ';
+	}
+
+	// Bit per letter and digit, one shared bit for everything else
+	static long charMask(String lower) {
+		long mask = 0;
+		for (int i = 0; i < lower.length(); i++) {
+			char c = lower.charAt(i);
+			if (c >= 'a' && c <= 'z') {
+				mask |= 1L << (c - 'a');
+			} else if (c >= '0' && c <= '9') {
+				mask |= 1L << (26 + c - '0');
+			} else if (c != '/') {
+				mask |= 1L << 63;
+			}
+		}
+		return mask;
+	}
+
+	static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					i++;
+					if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+						// "**/" also matches no folder at all
+						i++;
+						regex.append("(?:[^/]*/)*");
+					} else {
+						regex.append(".*");
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				int close = glob.indexOf(']', i + 1);
+				if (close < 0) {
+					regex.append("\\[");
+				} else {
+					String set = glob.substring(i + 1, close);
+					regex.append('[');
+					if (set.startsWith("!")) {
+						regex.append('^');
+						set = set.substring(1);
+					}
+					regex.append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+					i = close;
+				}
+				break;
+			case '{':
+				inGroup = true;
+				regex.append("(?:");
+				break;
+			case '}':
+				if (inGroup) {
+					inGroup = false;
+					regex.append(')');
+				} else {
+					regex.append("\\}");
+				}
+				break;
+			case ',':
+				regex.append(inGroup ? "|" : ",");
+				break;
+			default:
+				if ("\\.^$+()|".indexOf(c) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(c);
+				break;
+			}
+		}
+		return regex.toString();
+	}
+
+	// The runs of plain characters in a glob, leaving out wildcards and [...] and {...} groups
+	static List<String> literalRuns(String glob) {
+		List<String> runs = new ArrayList<>();
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '[' || c == '{') {
+				depth++;
+			} else if ((c == ']' || c == '}') && depth > 0) {
+				depth--;
+			} else if (depth == 0 && c != '*' && c != '?') {
+				run.append(c);
+				continue;
+			}
+			if (run.length() > 0) {
+				runs.add(run.toString());
+				run.setLength(0);
+			}
+		}
+		if (run.length() > 0) {
+			runs.add(run.toString());
+		}
+		return runs;
+	}
+
+	private void removeSlot(int i) {
+		int last = size - 1;
+		if (i != last) {
+			keys[i] = keys[last];
+			lowerKeys[i] = lowerKeys[last];
+			locations[i] = locations[last];
+			masks[i] = masks[last];
+			nameStarts[i] = nameStarts[last];
+			slots.put(keys[i], i);
+		}
+		keys[last] = null;
+		lowerKeys[last] = null;
+		locations[last] = null;
+		size = last;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= keys.length) {
+			return;
+		}
+		int newLength = Math.max(capacity, keys.length * 2);
+		keys = Arrays.copyOf(keys, newLength);
+		lowerKeys = Arrays.copyOf(lowerKeys, newLength);
+		locations = Arrays.copyOf(locations, newLength);
+		masks = Arrays.copyOf(masks, newLength);
+		nameStarts = Arrays.copyOf(nameStarts, newLength);
+	}
+}
@@ -0,0 +1,31 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+// Pre-serialized JSON embedded as a value. SerializedString keeps the UTF-8 bytes, so a UTF-8
+// generator copies them into its output buffer without encoding again.
+public final class RawJson extends JsonSerializable.Base {
+
+	private final SerializedString json;
+
+	public RawJson(String json) {
+		this.json = new SerializedString(json);
+	}
+
+	@Override
+	public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+		gen.writeRawValue(json);
+	}
+
+	@Override
+	public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+			throws IOException {
+		serialize(gen, serializers);
+	}
+}
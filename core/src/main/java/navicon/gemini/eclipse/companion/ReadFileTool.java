@@ -0,0 +1,116 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Reads one or several files as the IDE sees them, including unsaved editor changes. A file whose
+// hash matches knownHash comes back without content, so the CLI can revalidate what it already has.
+// All files of a call share one byte budget.
+public class ReadFileTool implements McpTool {
+
+	public static final int MAX_FILES = 100;
+
+	private final FileContentReader reader;
+	private final ObjectMapper objectMapper;
+	private final JsonNode schema;
+
+	public static class Result {
+		public List<FileContentReader.FileContent> files;
+	}
+
+	public ReadFileTool(FileContentReader reader, ObjectMapper objectMapper) {
+		this.reader = reader;
+		this.objectMapper = objectMapper;
+		ObjectNode files = JsonNodeFactory.instance.objectNode();
+		files.put("type", "array");
+		files.put("description", "Several files to read in one call, each with the same fields; use instead of filePath");
+		files.set("items", fileSchema().build());
+		this.schema = fileSchema().property("files", files).build();
+	}
+
+	private static SchemaBuilder fileSchema() {
+		return SchemaBuilder.object()
+				.property("filePath", "string", "Absolute path of the file")
+				.property("offset", "integer", "First byte to read")
+				.property("length", "integer", "Number of bytes to read; defaults to the rest of the file")
+				.property("startLine", "integer", "First line to read, 0-based; use instead of offset")
+				.property("endLine", "integer", "Last line to read, 0-based and inclusive; defaults to the last line")
+				.property("knownHash", "string", "SHA-256 of the content the caller has; content is skipped if it matches");
+	}
+
+	@Override
+	public String getName() {
+		return "readFile";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Reads workspace files or files open in an editor, or byte or line ranges of them, serving unsaved "
+				+ "editor content when there is some";
+	}
+
+	@Override
+	public JsonNode getInputSchema() {
+		return schema;
+	}
+
+	@Override
+	public ToolResult call(ToolCall call) throws ToolException {
+		ToolArguments args = call.getArguments();
+		List<FileContentReader.Request> requests = new ArrayList<>();
+		JsonNode files = args.getNode("files");
+		if (files != null && !files.isNull()) {
+			if (!files.isArray() || files.size() == 0) {
+				throw ToolException.invalidParams("files must be a non-empty array");
+			}
+			if (files.size() > MAX_FILES) {
+				throw ToolException.invalidParams("At most " + MAX_FILES + " files per call");
+			}
+			for (JsonNode file : files) {
+				requests.add(toRequest(ToolArguments.fromTree(file)));
+			}
+		} else {
+			requests.add(toRequest(args));
+		}
+
+		long budget = CompanionSettings.readFileMaxBytes();
+		Result result = new Result();
+		result.files = new ArrayList<>(requests.size());
+		for (FileContentReader.Request request : requests) {
+			call.throwIfCancelled();
+			FileContentReader.FileContent content = reader.read(request, budget);
+			if (content.length != null) {
+				budget -= content.length;
+			}
+			result.files.add(content);
+		}
+		try {
+			return ToolResult.text(objectMapper.writeValueAsString(result));
+		} catch (JsonProcessingException e) {
+			throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+
+	private static FileContentReader.Request toRequest(ToolArguments args) throws ToolException {
+		FileContentReader.Request request = new FileContentReader.Request();
+		request.filePath = args.getString("filePath");
+		if (request.filePath == null || request.filePath.isEmpty()) {
+			throw ToolException.invalidParams("filePath or files is required");
+		}
+		if (args.has("startLine") && args.has("offset")) {
+			throw ToolException.invalidParams("Use either offset or startLine for " + request.filePath);
+		}
+		request.offset = args.has("offset") ? args.getLong("offset", 0) : null;
+		request.length = args.has("length") ? args.getLong("length", 0) : null;
+		request.startLine = args.has("startLine") ? args.getInt("startLine", 0) : null;
+		request.endLine = args.has("endLine") ? args.getInt("endLine", 0) : null;
+		request.knownHash = args.getString("knownHash");
+		return request;
+	}
+}
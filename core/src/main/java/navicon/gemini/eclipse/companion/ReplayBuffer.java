@@ -0,0 +1,71 @@
+package navicon.gemini.eclipse.companion;
+
+// The most recent SSE frames of one session, kept so a client that reconnects with Last-Event-ID
+// gets exactly the events it missed. Event ids are consecutive, so the buffer only stores the id of
+// its oldest frame. The oldest frames are evicted once either the event or the byte bound is hit,
+// but the newest frame is always kept. Only used by the session's drain task.
+public class ReplayBuffer {
+
+	private final byte[][] frames;
+	private final long maxBytes;
+	private int head;
+	private int count;
+	private long bytes;
+	// Id of frames[head]; with an empty buffer the id the next frame will get
+	private long firstId = 1;
+
+	public ReplayBuffer(int maxEvents, long maxBytes) {
+		this.frames = new byte[Math.max(0, maxEvents)][];
+		this.maxBytes = maxBytes;
+	}
+
+	public boolean isEnabled() {
+		return frames.length > 0;
+	}
+
+	// frame may be null when the buffer is disabled
+	public void add(long id, byte[] frame) {
+		if (frames.length == 0) {
+			firstId = id + 1;
+			return;
+		}
+		if (count == frames.length) {
+			evictOldest();
+		}
+		if (count == 0) {
+			firstId = id;
+		}
+		frames[(head + count) % frames.length] = frame;
+		count++;
+		bytes += frame.length;
+		while (bytes > maxBytes && count > 1) {
+			evictOldest();
+		}
+	}
+
+	// True when every event after lastSeenId up to the newest one is still buffered
+	public boolean covers(long lastSeenId) {
+		return lastSeenId >= firstId - 1 && lastSeenId <= lastId();
+	}
+
+	public long lastId() {
+		return firstId + count - 1;
+	}
+
+	// The frame of an event between covers(lastSeenId) + 1 and lastId()
+	public byte[] get(long id) {
+		return frames[(int) ((head + (id - firstId)) % frames.length)];
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	private void evictOldest() {
+		bytes -= frames[head].length;
+		frames[head] = null;
+		head = (head + 1) % frames.length;
+		count--;
+		firstId++;
+	}
+}
@@ -0,0 +1,63 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Builds the JSON schema of a tool's arguments object
+public class SchemaBuilder {
+
+	private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+	private final ObjectNode schema = NODES.objectNode();
+	private final ObjectNode properties;
+	private ArrayNode required;
+
+	private SchemaBuilder() {
+		schema.put("type", "object");
+		properties = schema.putObject("properties");
+	}
+
+	public static SchemaBuilder object() {
+		return new SchemaBuilder();
+	}
+
+	public SchemaBuilder property(String name, String type, String description) {
+		ObjectNode property = properties.putObject(name);
+		property.put("type", type);
+		if (description != null) {
+			property.put("description", description);
+		}
+		return this;
+	}
+
+	public SchemaBuilder arrayProperty(String name, String itemType, String description) {
+		ObjectNode property = properties.putObject(name);
+		property.put("type", "array");
+		property.putObject("items").put("type", itemType);
+		if (description != null) {
+			property.put("description", description);
+		}
+		return this;
+	}
+
+	public SchemaBuilder property(String name, JsonNode propertySchema) {
+		properties.set(name, propertySchema);
+		return this;
+	}
+
+	public SchemaBuilder required(String... names) {
+		if (required == null) {
+			required = schema.putArray("required");
+		}
+		for (String name : names) {
+			required.add(name);
+		}
+		return this;
+	}
+
+	public ObjectNode build() {
+		return schema;
+	}
+}
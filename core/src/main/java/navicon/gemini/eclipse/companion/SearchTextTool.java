@@ -0,0 +1,221 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Full-text search over the workspace. The trigram index narrows the files down to those that can
+// contain the query's required literals, and only those are read and matched. Files the index had
+// no room for are always read. Stops at maxResults, the search timeout, or when the client cancels.
+public class SearchTextTool implements McpTool {
+
+	public static final int DEFAULT_MAX_RESULTS = 100;
+	public static final int MAX_RESULTS = 1000;
+	private static final int MAX_LINE_CHARS = 300;
+
+	// Where file contents come from: open editors with unsaved changes first, then disk
+	public interface Source {
+		// Files the index does not hold, by workspace path to file system location
+		Map<String, String> unindexedFiles();
+
+		// null skips the file, e.g. because it is binary or too large
+		CharSequence read(String key, String location) throws IOException;
+	}
+
+	public static class Match {
+		public String path;
+		// 1-based, like the positions editors show
+		public int line;
+		public int column;
+		public String text;
+	}
+
+	public static class Result {
+		public List<Match> matches;
+		// More matches exist than were returned
+		public boolean truncated;
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public boolean timedOut;
+		public int candidates;
+		public int filesSearched;
+		// False while the initial index build is still running and matches may be missing
+		public boolean complete;
+	}
+
+	private final TrigramIndex index;
+	private final Source source;
+	private final BooleanSupplier indexComplete;
+	private final ObjectMapper objectMapper;
+	private final JsonNode schema = SchemaBuilder.object()
+			.property("query", "string", "Text to search for, or a Java regular expression when regex is true")
+			.property("regex", "boolean", "Treat query as a regular expression, false by default")
+			.property("caseSensitive", "boolean", "Match case exactly, false by default")
+			.property("maxResults", "integer", "Maximum number of matches, " + DEFAULT_MAX_RESULTS + " by default")
+			.required("query")
+			.build();
+
+	public SearchTextTool(TrigramIndex index, Source source, BooleanSupplier indexComplete,
+			ObjectMapper objectMapper) {
+		this.index = index;
+		this.source = source;
+		this.indexComplete = indexComplete;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String getName() {
+		return "searchText";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Searches the text of workspace files, including unsaved editor content, and returns matching lines";
+	}
+
+	@Override
+	public JsonNode getInputSchema() {
+		return schema;
+	}
+
+	@Override
+	public ToolResult call(ToolCall call) throws ToolException {
+		ToolArguments args = call.getArguments();
+		String query = call.requireString("query");
+		if (query.isEmpty()) {
+			throw ToolException.invalidParams("query must not be empty");
+		}
+		boolean regex = args.getBoolean("regex", false);
+		boolean caseSensitive = args.getBoolean("caseSensitive", false);
+		int maxResults = Math.min(MAX_RESULTS, Math.max(1, args.getInt("maxResults", DEFAULT_MAX_RESULTS)));
+
+		int flags = Pattern.MULTILINE | (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(regex ? query : Pattern.quote(query), flags);
+		} catch (PatternSyntaxException e) {
+			throw ToolException.invalidParams("Invalid regex: " + e.getDescription());
+		}
+		List<String> literals = regex ? TrigramIndex.requiredLiterals(query) : List.of(query);
+
+		boolean complete = indexComplete.getAsBoolean();
+		List<TrigramIndex.Document> candidates = index.candidates(literals);
+		if (candidates == null) {
+			candidates = index.allDocuments();
+		}
+		Map<String, String> unindexed = source.unindexedFiles();
+
+		Result result = new Result();
+		result.matches = new ArrayList<>();
+		result.candidates = candidates.size() + unindexed.size();
+		long deadline = System.nanoTime() + CompanionSettings.searchTimeoutMs() * 1_000_000;
+		Set<String> seen = new HashSet<>();
+		try {
+			for (TrigramIndex.Document document : candidates) {
+				if (!search(call, document.key, document.location, pattern, maxResults, deadline, result)) {
+					break;
+				}
+				seen.add(document.key);
+			}
+			if (!result.truncated && !result.timedOut) {
+				for (Map.Entry<String, String> file : unindexed.entrySet()) {
+					if (!seen.contains(file.getKey()) && !search(call, file.getKey(), file.getValue(), pattern,
+							maxResults, deadline, result)) {
+						break;
+					}
+				}
+			}
+		} catch (StackOverflowError e) {
+			// Deeply nested alternations in java.util.regex recurse per character
+			throw ToolException.invalidParams("Regex too complex for the searched text");
+		}
+		result.complete = complete;
+		try {
+			return ToolResult.text(objectMapper.writeValueAsString(result));
+		} catch (JsonProcessingException e) {
+			throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+
+	// Returns false once the search has to stop
+	private boolean search(ToolCall call, String key, String location, Pattern pattern, int maxResults,
+			long deadline, Result result) throws ToolException {
+		call.throwIfCancelled();
+		if (System.nanoTime() - deadline > 0) {
+			result.timedOut = true;
+			return false;
+		}
+		CharSequence text;
+		try {
+			text = source.read(key, location);
+		} catch (IOException e) {
+			// Deleted or unreadable since it was indexed
+			return true;
+		}
+		if (text == null) {
+			return true;
+		}
+		result.filesSearched++;
+		Matcher matcher = pattern.matcher(text);
+		int line = 1;
+		int lineStart = 0;
+		int scanned = 0;
+		int lastLine = -1;
+		while (matcher.find()) {
+			int start = matcher.start();
+			for (; scanned < start; scanned++) {
+				if (text.charAt(scanned) == '\n') {
+					line++;
+					lineStart = scanned + 1;
+				}
+			}
+			if (line == lastLine) {
+				// One match per line; the line text already shows the others
+				continue;
+			}
+			if (result.matches.size() == maxResults) {
+				result.truncated = true;
+				return false;
+			}
+			lastLine = line;
+			Match match = new Match();
+			match.path = key;
+			match.line = line;
+			match.column = start - lineStart + 1;
+			match.text = lineText(text, lineStart, start);
+			result.matches.add(match);
+		}
+		return true;
+	}
+
+	// The line around a match, cut to MAX_LINE_CHARS while keeping the match start visible
+	private static String lineText(CharSequence text, int lineStart, int matchStart) {
+		int lineEnd = matchStart;
+		while (lineEnd < text.length() && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+			lineEnd++;
+		}
+		int from = lineStart;
+		if (matchStart - from > MAX_LINE_CHARS / 2 && lineEnd - from > MAX_LINE_CHARS) {
+			from = Math.max(lineStart, Math.min(matchStart - MAX_LINE_CHARS / 2, lineEnd - MAX_LINE_CHARS));
+		}
+		int to = Math.min(lineEnd, from + MAX_LINE_CHARS);
+		if (from > lineStart && Character.isLowSurrogate(text.charAt(from))) {
+			from++;
+		}
+		if (to < lineEnd && Character.isHighSurrogate(text.charAt(to - 1))) {
+			to--;
+		}
+		return text.subSequence(from, to).toString();
+	}
+}
@@ -0,0 +1,275 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Latency and throughput of the server's hot paths: a timer per JSON-RPC method, per tool and per
+// internal step (context capture on the UI thread, frame serialization, SSE writes), plus counters.
+// Hot paths only touch LongAdders and histogram buckets. Components that already count for
+// themselves, like the heartbeat or the executors, register their getters instead. reset() starts a
+// new window; totals since startup are kept, and a snapshot reports both.
+public class ServerMetrics {
+
+	private static final int RECENT_ERRORS = 20;
+
+	public static class Timer {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+
+		public void record(long nanos, boolean error) {
+			histogram.record(nanos);
+			if (error) {
+				errors.increment();
+			}
+		}
+
+		// Times from startNanos, a System.nanoTime() taken before the work, until now
+		public void recordSince(long startNanos) {
+			histogram.record(System.nanoTime() - startNanos);
+		}
+	}
+
+	public static class TimerStats {
+		public long count;
+		public long errors;
+		public double totalMs;
+		public double meanMs;
+		public double p50Ms;
+		public double p90Ms;
+		public double p99Ms;
+		public double maxMs;
+	}
+
+	public static class Section {
+		public long durationMs;
+		public Map<String, Long> counters = new TreeMap<>();
+		public Map<String, TimerStats> methods = new TreeMap<>();
+		public Map<String, TimerStats> tools = new TreeMap<>();
+		public Map<String, TimerStats> timers = new TreeMap<>();
+	}
+
+	public static class ErrorEntry {
+		public long timeMillis;
+		public String where;
+		public String error;
+	}
+
+	public static class Snapshot {
+		public long uptimeMs;
+		public Map<String, Long> gauges = new TreeMap<>();
+		public Section total;
+		public Section window;
+		public List<ErrorEntry> recentErrors;
+	}
+
+	// Counter and histogram values at the start of the current window
+	private static class Baseline {
+		final long startNanos;
+		final Map<String, Long> counters;
+		final Map<String, LatencyHistogram.Snapshot> timers;
+		final Map<String, Long> errors;
+
+		Baseline(long startNanos, Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> timers,
+				Map<String, Long> errors) {
+			this.startNanos = startNanos;
+			this.counters = counters;
+			this.timers = timers;
+			this.errors = errors;
+		}
+	}
+
+	private final long startNanos = System.nanoTime();
+	private final Map<String, Timer> methods = new ConcurrentHashMap<>();
+	private final Map<String, Timer> tools = new ConcurrentHashMap<>();
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> counterSources = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+	private final ArrayDeque<ErrorEntry> recentErrors = new ArrayDeque<>();
+	private volatile Baseline baseline;
+
+	public ServerMetrics() {
+		baseline = new Baseline(startNanos, Map.of(), Map.of(), Map.of());
+	}
+
+	public Timer method(String name) {
+		return methods.computeIfAbsent(name, k -> new Timer());
+	}
+
+	public Timer tool(String name) {
+		return tools.computeIfAbsent(name, k -> new Timer());
+	}
+
+	public Timer timer(String name) {
+		return timers.computeIfAbsent(name, k -> new Timer());
+	}
+
+	public LongAdder counter(String name) {
+		return counters.computeIfAbsent(name, k -> new LongAdder());
+	}
+
+	// A monotonic count kept by a component, windowed like the counters above
+	public void registerCounter(String name, LongSupplier source) {
+		counterSources.put(name, source);
+	}
+
+	// A current value such as a queue depth; not windowed
+	public void registerGauge(String name, LongSupplier source) {
+		gauges.put(name, source);
+	}
+
+	// Counts the error and keeps it among the recent ones; the caller still logs it
+	public void recordError(String where, Throwable error) {
+		counter("errors").increment();
+		ErrorEntry entry = new ErrorEntry();
+		entry.timeMillis = System.currentTimeMillis();
+		entry.where = where;
+		entry.error = String.valueOf(error);
+		synchronized (recentErrors) {
+			if (recentErrors.size() == RECENT_ERRORS) {
+				recentErrors.removeFirst();
+			}
+			recentErrors.addLast(entry);
+		}
+	}
+
+	// For failures outside a request: recordError, and the error goes to the log
+	public void reportError(String where, Throwable error) {
+		recordError(where, error);
+		CompanionLog.error("Gemini Companion: " + where + " failed", error);
+	}
+
+	// Starts a new window at the current values
+	public synchronized void reset() {
+		Map<String, LatencyHistogram.Snapshot> histograms = new HashMap<>();
+		Map<String, Long> errors = new HashMap<>();
+		collectTimers("method ", methods, histograms, errors);
+		collectTimers("tool ", tools, histograms, errors);
+		collectTimers("timer ", timers, histograms, errors);
+		baseline = new Baseline(System.nanoTime(), counterValues(), histograms, errors);
+	}
+
+	public Snapshot snapshot() {
+		long now = System.nanoTime();
+		Baseline start = baseline;
+		Snapshot snapshot = new Snapshot();
+		snapshot.uptimeMs = (now - startNanos) / 1_000_000;
+		gauges.forEach((name, source) -> snapshot.gauges.put(name, source.getAsLong()));
+		snapshot.total = new Section();
+		snapshot.total.durationMs = snapshot.uptimeMs;
+		snapshot.window = new Section();
+		snapshot.window.durationMs = (now - start.startNanos) / 1_000_000;
+		counterValues().forEach((name, value) -> {
+			snapshot.total.counters.put(name, value);
+			snapshot.window.counters.put(name, value - start.counters.getOrDefault(name, 0L));
+		});
+		addTimers("method ", methods, start, snapshot.total.methods, snapshot.window.methods);
+		addTimers("tool ", tools, start, snapshot.total.tools, snapshot.window.tools);
+		addTimers("timer ", timers, start, snapshot.total.timers, snapshot.window.timers);
+		synchronized (recentErrors) {
+			snapshot.recentErrors = new ArrayList<>(recentErrors);
+		}
+		return snapshot;
+	}
+
+	private Map<String, Long> counterValues() {
+		Map<String, Long> values = new TreeMap<>();
+		counters.forEach((name, counter) -> values.put(name, counter.sum()));
+		counterSources.forEach((name, source) -> values.put(name, source.getAsLong()));
+		return values;
+	}
+
+	private static void collectTimers(String prefix, Map<String, Timer> source,
+			Map<String, LatencyHistogram.Snapshot> histograms, Map<String, Long> errors) {
+		source.forEach((name, timer) -> {
+			histograms.put(prefix + name, timer.histogram.snapshot());
+			errors.put(prefix + name, timer.errors.sum());
+		});
+	}
+
+	private static void addTimers(String prefix, Map<String, Timer> source, Baseline start,
+			Map<String, TimerStats> total, Map<String, TimerStats> window) {
+		source.forEach((name, timer) -> {
+			LatencyHistogram.Snapshot histogram = timer.histogram.snapshot();
+			long errors = timer.errors.sum();
+			total.put(name, stats(histogram, errors));
+			LatencyHistogram.Snapshot inWindow = histogram.minus(start.timers.get(prefix + name));
+			if (inWindow.count > 0) {
+				window.put(name, stats(inWindow, errors - start.errors.getOrDefault(prefix + name, 0L)));
+			}
+		});
+	}
+
+	private static TimerStats stats(LatencyHistogram.Snapshot histogram, long errors) {
+		TimerStats stats = new TimerStats();
+		stats.count = histogram.count;
+		stats.errors = errors;
+		stats.totalMs = millis(histogram.sumNanos);
+		stats.meanMs = millis(histogram.mean());
+		stats.p50Ms = millis(histogram.percentile(0.5));
+		stats.p90Ms = millis(histogram.percentile(0.9));
+		stats.p99Ms = millis(histogram.percentile(0.99));
+		stats.maxMs = millis(histogram.max());
+		return stats;
+	}
+
+	// Three decimals, i.e. microsecond resolution
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	// --- Prometheus text format ---
+
+	// Totals since startup, the way Prometheus expects counters; it computes rates and windows itself
+	public static String toPrometheus(Snapshot snapshot) {
+		StringBuilder out = new StringBuilder();
+		out.append("# TYPE gemini_companion_uptime_seconds gauge\n");
+		out.append("gemini_companion_uptime_seconds ").append(snapshot.uptimeMs / 1000.0).append('\n');
+		out.append("# TYPE gemini_companion_gauge gauge\n");
+		snapshot.gauges.forEach((name, value) -> sample(out, "gemini_companion_gauge", name, value));
+		out.append("# TYPE gemini_companion_events_total counter\n");
+		snapshot.total.counters
+				.forEach((name, value) -> sample(out, "gemini_companion_events_total", name, value));
+		out.append("# TYPE gemini_companion_latency_seconds summary\n");
+		out.append("# TYPE gemini_companion_errors_total counter\n");
+		summaries(out, "method", snapshot.total.methods);
+		summaries(out, "tool", snapshot.total.tools);
+		summaries(out, "timer", snapshot.total.timers);
+		return out.toString();
+	}
+
+	private static void summaries(StringBuilder out, String kind, Map<String, TimerStats> timers) {
+		timers.forEach((name, stats) -> {
+			String labels = "kind=\"" + kind + "\",name=\"" + escape(name) + "\"";
+			quantile(out, labels, "0.5", stats.p50Ms);
+			quantile(out, labels, "0.9", stats.p90Ms);
+			quantile(out, labels, "0.99", stats.p99Ms);
+			out.append("gemini_companion_latency_seconds_sum{").append(labels).append("} ")
+					.append(stats.totalMs / 1000).append('\n');
+			out.append("gemini_companion_latency_seconds_count{").append(labels).append("} ").append(stats.count)
+					.append('\n');
+			out.append("gemini_companion_errors_total{").append(labels).append("} ").append(stats.errors)
+					.append('\n');
+		});
+	}
+
+	private static void quantile(StringBuilder out, String labels, String quantile, double millis) {
+		out.append("gemini_companion_latency_seconds{").append(labels).append(",quantile=\"").append(quantile)
+				.append("\"} ").append(millis / 1000).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String metric, String name, long value) {
+		out.append(metric).append("{name=\"").append(escape(name)).append("\"} ").append(value).append('\n');
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,42 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+
+// An SSE frame fanned out to one or more sessions. With several recipients it is serialized once,
+// lazily by the first writer that needs it, and the bytes are shared; with a single recipient it is
+// serialized straight into that session's buffer without an intermediate array.
+public final class SharedFrame {
+
+	private final Object message;
+	private final boolean shared;
+	private volatile byte[] bytes;
+
+	public SharedFrame(Object message, boolean shared) {
+		this.message = message;
+		this.shared = shared;
+	}
+
+	// The notification's method, null for other messages
+	public String getMethod() {
+		return message instanceof JsonRpcNotification ? ((JsonRpcNotification) message).method : null;
+	}
+
+	// Returns the shared bytes, or null after serializing the frame into the caller's buffer
+	public byte[] encode(JsonCodec codec, FrameBuffer buffer) throws IOException {
+		if (!shared) {
+			codec.writeSseFrame(message, buffer);
+			return null;
+		}
+		byte[] result = bytes;
+		if (result == null) {
+			synchronized (this) {
+				result = bytes;
+				if (result == null) {
+					result = codec.sseFrameBytes(message);
+					bytes = result;
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,502 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+
+// One SSE stream to a CLI, identified by the Mcp-Session-Id handed out on initialize. Callers
+// only enqueue; serialization and the blocking socket writes run on the writer executor, one drain
+// task per session at a time, so a stalled reader never blocks the UI thread. The queue is bounded:
+// a newer context snapshot replaces a queued one, and when the queue is full droppable messages
+// (context updates, keep-alives) are discarded first. Other notifications such as ide/diffAccepted
+// are never dropped, even beyond the bound.
+//
+// Every event carries an increasing "id:" and is kept in a replay buffer. When the stream breaks the
+// session is detached rather than closed: events keep being numbered and buffered, and a client that
+// reconnects with the session id and Last-Event-ID gets only the events it missed. If some of them
+// were already evicted it gets one full ide/contextUpdate instead. Detached sessions are closed by
+// the heartbeat once the resume timeout has passed.
+//
+// Bytes and events written, drops, and the time spent serializing and sending each event go to the
+// server-wide metrics; each written event is also a JFR SseWrite event when a recording enables it.
+public class SseSession {
+
+	private static final byte[] KEEP_ALIVE = ": keep-alive\n\n".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ID_PREFIX = "id: ".getBytes(StandardCharsets.UTF_8);
+
+	private enum Kind {
+		ATTACH, MESSAGE, FRAME, CONTEXT, KEEP_ALIVE
+	}
+
+	private static class Outbound {
+		final Kind kind;
+		final Object payload;
+		final boolean droppable;
+		final long enqueuedNanos = System.nanoTime();
+
+		Outbound(Kind kind, Object payload, boolean droppable) {
+			this.kind = kind;
+			this.payload = payload;
+			this.droppable = droppable;
+		}
+	}
+
+	private static class Attach {
+		final HttpExchange exchange;
+		final long lastEventId;
+
+		Attach(HttpExchange exchange, long lastEventId) {
+			this.exchange = exchange;
+			this.lastEventId = lastEventId;
+		}
+	}
+
+	private final String id;
+	private final JsonCodec codec;
+	// Owned by the drain task, which runs for at most one thread at a time
+	private final FrameBuffer buffer = new FrameBuffer();
+	private final ReplayBuffer replay;
+	private final byte[] idLine = new byte[32];
+	private long lastEventId;
+	// Method and size of the event writeEvent last wrote, for the JFR event
+	private String lastMethod;
+	private long lastFrameBytes;
+	private final Executor writerExecutor;
+	private final int queueCapacity;
+	private final ContextDeltaEncoder contextEncoder;
+	private final ContextFrameCache contextFrames;
+	private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder droppedTotal;
+	private final LongAdder bytesWritten;
+	private final LongAdder eventsWritten;
+	private final LongAdder contextUpdatesSent;
+	private final LongAdder contextUpdatesBuffered;
+	private final ServerMetrics.Timer serializeTimer;
+	private final ServerMetrics.Timer sendTimer;
+	private boolean draining;
+	// The stream currently attached, both null while detached; changed under the queue lock
+	private volatile HttpExchange exchange;
+	private volatile OutputStream out;
+	private volatile long detachedSinceNanos;
+	private volatile Runnable closeListener;
+	private volatile long lastWriteNanos = System.nanoTime();
+	private volatile long writeStartedNanos;
+
+	public SseSession(String id, HttpExchange exchange, JsonCodec codec, Executor writerExecutor,
+			int queueCapacity, ContextFrameCache contextFrames, ReplayBuffer replay, boolean contextDeltas,
+			ServerMetrics metrics) {
+		this.id = id;
+		this.contextEncoder = new ContextDeltaEncoder(contextDeltas);
+		this.exchange = exchange;
+		this.out = exchange.getResponseBody();
+		this.codec = codec;
+		this.writerExecutor = writerExecutor;
+		this.queueCapacity = Math.max(1, queueCapacity);
+		this.contextFrames = contextFrames;
+		this.replay = replay;
+		this.droppedTotal = metrics.counter("sse.messagesDropped");
+		this.bytesWritten = metrics.counter("sse.bytesWritten");
+		this.eventsWritten = metrics.counter("sse.eventsWritten");
+		this.contextUpdatesSent = metrics.counter("context.updatesSent");
+		this.contextUpdatesBuffered = metrics.counter("context.updatesBuffered");
+		this.serializeTimer = metrics.timer("sse.serialize");
+		this.sendTimer = metrics.timer("sse.send");
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setCloseListener(Runnable closeListener) {
+		this.closeListener = closeListener;
+	}
+
+	// Sends a complete JSON-RPC message, e.g. the initialize response. Never dropped.
+	public void sendMessage(Object message) {
+		enqueue(new Outbound(Kind.MESSAGE, message, false));
+	}
+
+	public void sendNotification(String method, Object params, boolean droppable) {
+		sendFrame(new SharedFrame(new JsonRpcNotification(method, params), false), droppable);
+	}
+
+	public void sendFrame(SharedFrame frame, boolean droppable) {
+		enqueue(new Outbound(Kind.FRAME, frame, droppable));
+	}
+
+	// The snapshot is encoded against what this session last received when it is written, so a
+	// snapshot replacing a stale queued one still produces a correct delta
+	public void sendContext(IdeContext context) {
+		enqueue(new Outbound(Kind.CONTEXT, context, true));
+	}
+
+	public void sendKeepAlive() {
+		enqueue(new Outbound(Kind.KEEP_ALIVE, null, true));
+	}
+
+	public void requestContextResync() {
+		contextEncoder.requestResync();
+	}
+
+	// Moves the session onto a new stream whose SSE headers have been sent. Events after lastEventId
+	// (-1 when the client sent none) are replayed before anything still queued. Returns false when
+	// the session is already closed; the caller then owns the exchange.
+	public boolean attach(HttpExchange newExchange, long lastEventId) {
+		HttpExchange previous;
+		boolean startDrain = false;
+		synchronized (queue) {
+			if (closed.get()) {
+				return false;
+			}
+			previous = exchange;
+			exchange = null;
+			out = null;
+			detachedSinceNanos = 0;
+			for (Iterator<Outbound> it = queue.iterator(); it.hasNext();) {
+				Outbound queued = it.next();
+				if (queued.kind == Kind.ATTACH) {
+					// A reconnect that was superseded before the writer got to it
+					it.remove();
+					closeLater(((Attach) queued.payload).exchange);
+				}
+			}
+			queue.addFirst(new Outbound(Kind.ATTACH, new Attach(newExchange, lastEventId), false));
+			if (!draining) {
+				draining = true;
+				startDrain = true;
+			}
+		}
+		if (previous != null) {
+			closeLater(previous);
+		}
+		if (startDrain) {
+			startDrain();
+		}
+		return true;
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	public boolean isDetached() {
+		return detachedSinceNanos != 0;
+	}
+
+	public long getDetachedNanos(long now) {
+		long since = detachedSinceNanos;
+		return since == 0 ? 0 : now - since;
+	}
+
+	// Time since the last frame, keep-alives included, went out on the stream
+	public long getIdleNanos(long now) {
+		return now - lastWriteNanos;
+	}
+
+	// True while a single write has been blocked for longer than the timeout, i.e. the peer stopped reading
+	public boolean isWriteStalled(long now, long timeoutNanos) {
+		long started = writeStartedNanos;
+		return started != 0 && now - started > timeoutNanos;
+	}
+
+	public void close() {
+		if (release()) {
+			HttpExchange current = exchange;
+			if (current != null) {
+				current.close();
+			}
+		}
+	}
+
+	// Detaches the session right away but closes the exchange on the writer executor, because
+	// closing an exchange whose peer stopped reading can block as long as the stalled write
+	public void abort() {
+		HttpExchange current = exchange;
+		if (current != null && detach(current)) {
+			closeLater(current);
+		}
+	}
+
+	private boolean release() {
+		if (!closed.compareAndSet(false, true)) {
+			return false;
+		}
+		synchronized (queue) {
+			for (Outbound queued : queue) {
+				if (queued.kind == Kind.ATTACH) {
+					((Attach) queued.payload).exchange.close();
+				}
+			}
+			queue.clear();
+		}
+		Runnable listener = closeListener;
+		if (listener != null) {
+			listener.run();
+		}
+		return true;
+	}
+
+	// Only the stream that failed is detached, never one a reconnect has attached since
+	private boolean detach(HttpExchange failed) {
+		synchronized (queue) {
+			if (exchange != failed) {
+				return false;
+			}
+			exchange = null;
+			out = null;
+			detachedSinceNanos = System.nanoTime();
+			return true;
+		}
+	}
+
+	private void closeLater(HttpExchange stale) {
+		try {
+			writerExecutor.execute(stale::close);
+		} catch (RejectedExecutionException e) {
+			stale.close();
+		}
+	}
+
+	private void enqueue(Outbound message) {
+		if (closed.get()) {
+			return;
+		}
+		boolean startDrain = false;
+		synchronized (queue) {
+			if ((message.kind == Kind.CONTEXT || message.kind == Kind.KEEP_ALIVE) && replaceQueued(message)) {
+				return;
+			}
+			if (queue.size() >= queueCapacity && !dropOldestDroppable() && message.droppable) {
+				countDropped();
+				return;
+			}
+			queue.add(message);
+			if (!draining) {
+				draining = true;
+				startDrain = true;
+			}
+		}
+		if (startDrain) {
+			startDrain();
+		}
+	}
+
+	private void countDropped() {
+		dropped.increment();
+		droppedTotal.increment();
+	}
+
+	private void startDrain() {
+		try {
+			writerExecutor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			close();
+		}
+	}
+
+	// A queued context update or keep-alive of the same kind is stale once a newer one arrives
+	private boolean replaceQueued(Outbound message) {
+		for (Iterator<Outbound> it = queue.iterator(); it.hasNext();) {
+			Outbound queued = it.next();
+			if (queued.kind == message.kind) {
+				if (message.kind == Kind.KEEP_ALIVE) {
+					return true;
+				}
+				it.remove();
+				countDropped();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private boolean dropOldestDroppable() {
+		for (Iterator<Outbound> it = queue.iterator(); it.hasNext();) {
+			if (it.next().droppable) {
+				it.remove();
+				countDropped();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void drain() {
+		while (true) {
+			Outbound message;
+			synchronized (queue) {
+				message = queue.poll();
+				if (message == null || closed.get()) {
+					draining = false;
+					return;
+				}
+			}
+			HttpExchange target = message.kind == Kind.ATTACH ? ((Attach) message.payload).exchange : exchange;
+			try {
+				if (message.kind == Kind.ATTACH) {
+					attachNow((Attach) message.payload);
+				} else {
+					write(message);
+				}
+			} catch (IOException | RuntimeException e) {
+				if (target != null && detach(target)) {
+					closeLater(target);
+				}
+			} finally {
+				writeStartedNanos = 0;
+				buffer.reset();
+			}
+		}
+	}
+
+	private void attachNow(Attach attach) throws IOException {
+		OutputStream stream = attach.exchange.getResponseBody();
+		synchronized (queue) {
+			if (closed.get()) {
+				attach.exchange.close();
+				return;
+			}
+			exchange = attach.exchange;
+			out = stream;
+		}
+		writeStartedNanos = System.nanoTime();
+		if (attach.lastEventId >= 0 && replay.covers(attach.lastEventId)) {
+			for (long eventId = attach.lastEventId + 1; eventId <= lastEventId; eventId++) {
+				writeIdLine(stream, eventId);
+				byte[] frame = replay.get(eventId);
+				stream.write(frame);
+				bytesWritten.add(frame.length);
+				eventsWritten.increment();
+			}
+		} else {
+			// Part of the history is gone; bring the client up to date with the context it should have
+			IdeContext latest = contextEncoder.getLastSent();
+			contextEncoder.requestResync();
+			if (latest != null) {
+				writeEvent(stream, new Outbound(Kind.CONTEXT, latest, true));
+			}
+		}
+		stream.flush();
+		lastWriteNanos = System.nanoTime();
+	}
+
+	private void write(Outbound message) throws IOException {
+		OutputStream stream = out;
+		if (message.kind == Kind.KEEP_ALIVE) {
+			if (stream != null) {
+				writeStartedNanos = System.nanoTime();
+				stream.write(KEEP_ALIVE);
+				stream.flush();
+				lastWriteNanos = System.nanoTime();
+				bytesWritten.add(KEEP_ALIVE.length);
+			}
+			return;
+		}
+		CompanionEvents.SseWrite event = new CompanionEvents.SseWrite();
+		event.begin();
+		long started = System.nanoTime();
+		writeStartedNanos = started;
+		if (writeEvent(stream, message) && stream != null) {
+			stream.flush();
+			lastWriteNanos = System.nanoTime();
+			sendTimer.record(lastWriteNanos - started, false);
+			event.end();
+			if (event.shouldCommit()) {
+				event.method = lastMethod;
+				event.sessionId = id;
+				event.eventId = lastEventId;
+				event.bytes = lastFrameBytes;
+				event.queueWait = started - message.enqueuedNanos;
+				event.commit();
+			}
+		}
+	}
+
+	// Numbers and buffers the event, and writes it unless the session is detached (stream null).
+	// Returns false when there was nothing to send.
+	private boolean writeEvent(OutputStream stream, Outbound message) throws IOException {
+		long started = System.nanoTime();
+		byte[] frame;
+		switch (message.kind) {
+		case CONTEXT:
+			IdeContext context = (IdeContext) message.payload;
+			ContextDeltaEncoder.Update update = contextEncoder.encode(context);
+			if (update == null) {
+				return false;
+			}
+			lastMethod = update.method;
+			JsonRpcNotification notification = new JsonRpcNotification(update.method, update.params);
+			if (contextFrames.isSharing()) {
+				frame = contextFrames.frameFor(update.baseline, context, () -> codec.sseFrameBytes(notification));
+			} else {
+				codec.writeSseFrame(notification, buffer);
+				frame = null;
+			}
+			break;
+		case FRAME:
+			lastMethod = ((SharedFrame) message.payload).getMethod();
+			frame = ((SharedFrame) message.payload).encode(codec, buffer);
+			break;
+		default:
+			lastMethod = null;
+			codec.writeSseFrame(message.payload, buffer);
+			frame = null;
+			break;
+		}
+		serializeTimer.recordSince(started);
+		long eventId = ++lastEventId;
+		if (frame == null && replay.isEnabled()) {
+			frame = buffer.toByteArray();
+		}
+		replay.add(eventId, frame);
+		if (stream == null) {
+			if (message.kind == Kind.CONTEXT) {
+				// Reaches the client only if it resumes before the replay buffer evicts the event
+				contextUpdatesBuffered.increment();
+			}
+		} else {
+			writeIdLine(stream, eventId);
+			if (frame != null) {
+				stream.write(frame);
+				lastFrameBytes = frame.length;
+			} else {
+				buffer.writeTo(stream);
+				lastFrameBytes = buffer.size();
+			}
+			bytesWritten.add(lastFrameBytes);
+			eventsWritten.increment();
+			if (message.kind == Kind.CONTEXT) {
+				contextUpdatesSent.increment();
+			}
+		}
+		return true;
+	}
+
+	// "id: <n>\n" without going through a String
+	private void writeIdLine(OutputStream stream, long eventId) throws IOException {
+		int pos = idLine.length;
+		idLine[--pos] = '\n';
+		do {
+			idLine[--pos] = (byte) ('0' + eventId % 10);
+			eventId /= 10;
+		} while (eventId > 0);
+		pos -= ID_PREFIX.length;
+		System.arraycopy(ID_PREFIX, 0, idLine, pos, ID_PREFIX.length);
+		stream.write(idLine, pos, idLine.length - pos);
+		bytesWritten.add(idLine.length - pos);
+	}
+}
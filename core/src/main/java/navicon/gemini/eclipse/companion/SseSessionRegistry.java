@@ -0,0 +1,116 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import com.sun.net.httpserver.HttpExchange;
+
+// All CLI sessions keyed by their Mcp-Session-Id, including detached ones waiting to be resumed. A
+// session removes itself when it is closed, whether by the client, the resume timeout or server
+// shutdown; the removal is conditional on the mapping still pointing at that session, so teardown
+// never races with a newer registration.
+public class SseSessionRegistry {
+
+	public static final String SESSION_HEADER = "Mcp-Session-Id";
+	public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+	private final ConcurrentHashMap<String, SseSession> sessions = new ConcurrentHashMap<>();
+	private final ContextFrameCache contextFrames = new ContextFrameCache();
+	private final JsonCodec codec;
+	private final Executor writerExecutor;
+	private final int queueCapacity;
+	private final int replayEvents;
+	private final long replayBytes;
+	private final ServerMetrics metrics;
+
+	public SseSessionRegistry(JsonCodec codec, Executor writerExecutor, int queueCapacity, int replayEvents,
+			long replayBytes, ServerMetrics metrics) {
+		this.codec = codec;
+		this.writerExecutor = writerExecutor;
+		this.queueCapacity = queueCapacity;
+		this.replayEvents = replayEvents;
+		this.replayBytes = replayBytes;
+		this.metrics = metrics;
+	}
+
+	// The exchange must already have its SSE response headers sent. Context changes go out as
+	// ide/contextDelta only when contextDeltas is set, see ContextDeltaEncoder.
+	public SseSession open(HttpExchange exchange, String sessionId, boolean contextDeltas) {
+		SseSession session = new SseSession(sessionId, exchange, codec, writerExecutor, queueCapacity,
+				contextFrames, new ReplayBuffer(replayEvents, replayBytes), contextDeltas, metrics);
+		session.setCloseListener(() -> {
+			sessions.remove(sessionId, session);
+			contextFrames.setSharing(sessions.size() > 1);
+		});
+		sessions.put(sessionId, session);
+		contextFrames.setSharing(sessions.size() > 1);
+		return session;
+	}
+
+	// Reattaches a known session to a new stream whose SSE headers have been sent. Returns null when
+	// the session is unknown or closed, in which case the caller still owns the exchange.
+	public SseSession resume(String sessionId, HttpExchange exchange, String lastEventIdHeader) {
+		SseSession session = get(sessionId);
+		if (session == null || !session.attach(exchange, parseEventId(lastEventIdHeader))) {
+			return null;
+		}
+		return session;
+	}
+
+	static long parseEventId(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Math.max(-1, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public static String newSessionId() {
+		return UUID.randomUUID().toString();
+	}
+
+	public SseSession get(String sessionId) {
+		return sessionId == null ? null : sessions.get(sessionId);
+	}
+
+	public Collection<SseSession> all() {
+		return sessions.values();
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public boolean isEmpty() {
+		return sessions.isEmpty();
+	}
+
+	public void broadcastContext(IdeContext context) {
+		for (SseSession session : sessions.values()) {
+			session.sendContext(context);
+		}
+	}
+
+	// Serialized once by whichever writer gets to it first; the bytes are shared by all sessions
+	public void broadcastNotification(String method, Object params) {
+		if (sessions.isEmpty()) {
+			return;
+		}
+		SharedFrame frame = new SharedFrame(new JsonRpcNotification(method, params), sessions.size() > 1);
+		for (SseSession session : sessions.values()) {
+			session.sendFrame(frame, false);
+		}
+	}
+
+	public void closeAll() {
+		for (SseSession session : new ArrayList<>(sessions.values())) {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Applies and produces line-based patches, so an edit to a large file travels as the changed lines
+// rather than the whole file. Lines keep their terminators, which makes joining them give back the
+// exact text. Patches are matched leniently on line endings, and LF lines a patch adds to a CRLF
+// file get CRLF. Diffs are computed with Myers' algorithm on the lines between the common prefix and
+// suffix; if the two sides differ too much for that to stay cheap, the middle becomes one hunk.
+public final class TextPatch {
+
+	public static final int CONTEXT_LINES = 3;
+	// A hunk is looked for this many lines away from the position its header gives
+	private static final int MAX_FUZZ = 1000;
+	private static final int MAX_EDIT_DISTANCE = 2000;
+	private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+	private static final String NO_NEWLINE = "\\ No newline at end of file";
+
+	// One replacement of a hunk list: lineCount lines from startLine (0-based) become newText
+	public static class Hunk {
+		public int startLine;
+		public int lineCount;
+		public String newText;
+		// Expected current text of the replaced lines; checked when present
+		public String oldText;
+	}
+
+	public static class PatchException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public PatchException(String message) {
+			super(message);
+		}
+	}
+
+	private static class DiffHunk {
+		int oldStart;
+		final List<String> oldLines = new ArrayList<>();
+		final List<String> newLines = new ArrayList<>();
+		// For each new line the index of the same context line in oldLines, -1 for added lines
+		final List<Integer> contextIndex = new ArrayList<>();
+	}
+
+	private TextPatch() {
+	}
+
+	// --- Applying ---
+
+	public static String applyUnifiedDiff(String original, String diff) throws PatchException {
+		List<DiffHunk> hunks = parse(diff);
+		List<String> lines = splitLines(original);
+		String delimiter = delimiter(lines);
+		StringBuilder result = new StringBuilder(original.length() + diff.length());
+		int copied = 0;
+		for (DiffHunk hunk : hunks) {
+			int at = find(lines, hunk.oldLines, hunk.oldStart, copied);
+			if (at < 0) {
+				throw new PatchException("Hunk at line " + (hunk.oldStart + 1) + " does not match the current content");
+			}
+			append(result, lines, copied, at);
+			for (int i = 0; i < hunk.newLines.size(); i++) {
+				int context = hunk.contextIndex.get(i);
+				// Context lines stay exactly as they are in the file
+				result.append(context >= 0 ? lines.get(at + context) : withDelimiter(hunk.newLines.get(i), delimiter));
+			}
+			copied = at + hunk.oldLines.size();
+		}
+		append(result, lines, copied, lines.size());
+		return result.toString();
+	}
+
+	public static String applyHunks(String original, List<Hunk> hunks) throws PatchException {
+		List<Hunk> sorted = new ArrayList<>(hunks);
+		sorted.sort((a, b) -> Integer.compare(a.startLine, b.startLine));
+		List<String> lines = splitLines(original);
+		String delimiter = delimiter(lines);
+		StringBuilder result = new StringBuilder(original.length());
+		int copied = 0;
+		for (Hunk hunk : sorted) {
+			int end = hunk.startLine + hunk.lineCount;
+			if (hunk.startLine < copied || hunk.lineCount < 0 || end > lines.size()) {
+				throw new PatchException("Hunk at line " + hunk.startLine + " overlaps another or lies outside the file");
+			}
+			if (hunk.oldText != null && !sameLines(splitLines(hunk.oldText), lines.subList(hunk.startLine, end))) {
+				throw new PatchException("oldText of the hunk at line " + hunk.startLine + " does not match");
+			}
+			append(result, lines, copied, hunk.startLine);
+			String newText = hunk.newText == null ? "" : hunk.newText;
+			for (String line : splitLines(newText)) {
+				result.append(withDelimiter(line, delimiter));
+			}
+			// Replaced lines are whole lines, so the replacement ends with a line break unless it ends the file
+			if (!newText.isEmpty() && !endsWithLineBreak(newText) && end < lines.size()) {
+				result.append(delimiter);
+			}
+			copied = end;
+		}
+		append(result, lines, copied, lines.size());
+		return result.toString();
+	}
+
+	private static List<DiffHunk> parse(String diff) throws PatchException {
+		List<DiffHunk> hunks = new ArrayList<>();
+		String[] lines = diff.split("\n", -1);
+		int files = 0;
+		for (int i = 0; i < lines.length;) {
+			String line = lines[i];
+			if (line.startsWith("+++ ")) {
+				if (++files > 1) {
+					throw new PatchException("The patch changes more than one file");
+				}
+			}
+			Matcher header = HUNK_HEADER.matcher(line);
+			if (!header.find()) {
+				i++;
+				continue;
+			}
+			DiffHunk hunk = new DiffHunk();
+			int oldStart = Integer.parseInt(header.group(1));
+			int oldCount = header.group(2) == null ? 1 : Integer.parseInt(header.group(2));
+			int newCount = header.group(4) == null ? 1 : Integer.parseInt(header.group(4));
+			// A hunk that only inserts names the line it follows
+			hunk.oldStart = oldCount == 0 ? oldStart : oldStart - 1;
+			i++;
+			char lastKind = 0;
+			while (i < lines.length && (hunk.oldLines.size() < oldCount || hunk.newLines.size() < newCount
+					|| lines[i].startsWith("\\"))) {
+				String body = lines[i++];
+				if (body.startsWith("\\")) {
+					// No newline at end of file: the previous line has no terminator
+					if (lastKind == ' ' || lastKind == '-') {
+						stripLast(hunk.oldLines);
+					}
+					if (lastKind == ' ' || lastKind == '+') {
+						stripLast(hunk.newLines);
+					}
+					lastKind = 0;
+					continue;
+				}
+				char kind = body.isEmpty() ? ' ' : body.charAt(0);
+				String text = (body.isEmpty() ? "" : body.substring(1)) + "\n";
+				switch (kind) {
+				case ' ':
+					hunk.contextIndex.add(hunk.oldLines.size());
+					hunk.oldLines.add(text);
+					hunk.newLines.add(text);
+					break;
+				case '-':
+					hunk.oldLines.add(text);
+					break;
+				case '+':
+					hunk.contextIndex.add(-1);
+					hunk.newLines.add(text);
+					break;
+				default:
+					throw new PatchException("Unexpected line in hunk: " + body);
+				}
+				lastKind = kind;
+			}
+			if (hunk.oldLines.size() != oldCount || hunk.newLines.size() != newCount) {
+				throw new PatchException("Hunk at line " + oldStart + " is shorter than its header says");
+			}
+			hunks.add(hunk);
+		}
+		if (hunks.isEmpty()) {
+			throw new PatchException("The patch has no hunks");
+		}
+		return hunks;
+	}
+
+	private static void stripLast(List<String> lines) {
+		int last = lines.size() - 1;
+		lines.set(last, stripLineBreak(lines.get(last)));
+	}
+
+	// The hunk's lines as close to expected as possible, but not before from
+	private static int find(List<String> lines, List<String> expected, int expectedAt, int from) {
+		for (int fuzz = 0; fuzz <= MAX_FUZZ; fuzz++) {
+			int before = expectedAt - fuzz;
+			if (before >= from && matches(lines, expected, before)) {
+				return before;
+			}
+			int after = expectedAt + fuzz;
+			if (fuzz > 0 && after >= from && matches(lines, expected, after)) {
+				return after;
+			}
+			if (before < from && after + expected.size() > lines.size()) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(List<String> lines, List<String> expected, int at) {
+		if (at + expected.size() > lines.size()) {
+			return false;
+		}
+		return sameLines(expected, lines.subList(at, at + expected.size()));
+	}
+
+	private static boolean sameLines(List<String> a, List<String> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (!stripLineBreak(a.get(i)).equals(stripLineBreak(b.get(i)))
+					|| endsWithLineBreak(a.get(i)) != endsWithLineBreak(b.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --- Diffing ---
+
+	public static String unifiedDiff(String oldText, String newText, String path) {
+		List<String> a = splitLines(oldText);
+		List<String> b = splitLines(newText);
+		int prefix = 0;
+		while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < a.size() - prefix && suffix < b.size() - prefix
+				&& a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+			suffix++;
+		}
+		if (prefix == a.size() && prefix == b.size()) {
+			return "";
+		}
+		// changed[i] marks lines of a that are removed, and of b that are added
+		boolean[] removed = new boolean[a.size()];
+		boolean[] added = new boolean[b.size()];
+		if (!myers(a, b, prefix, a.size() - suffix, prefix, b.size() - suffix, removed, added)) {
+			Arrays.fill(removed, prefix, a.size() - suffix, true);
+			Arrays.fill(added, prefix, b.size() - suffix, true);
+		}
+		return format(a, b, removed, added, path);
+	}
+
+	// Marks the lines outside a shortest edit script; false if it needs more than MAX_EDIT_DISTANCE edits
+	private static boolean myers(List<String> a, List<String> b, int aStart, int aEnd, int bStart, int bEnd,
+			boolean[] removed, boolean[] added) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int[] x = new int[n];
+		int[] y = new int[m];
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < n; i++) {
+			x[i] = ids.computeIfAbsent(a.get(aStart + i), k -> ids.size());
+		}
+		for (int i = 0; i < m; i++) {
+			y[i] = ids.computeIfAbsent(b.get(bStart + i), k -> ids.size());
+		}
+		int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+		// v[k] of every step d, stored as v[-d..d] only
+		List<int[]> trace = new ArrayList<>();
+		int[] v = new int[] { 0, 0, 0 };
+		int found = -1;
+		for (int d = 0; d <= max && found < 0; d++) {
+			int[] next = new int[2 * d + 3];
+			for (int k = -d; k <= d; k += 2) {
+				int xi;
+				if (k == -d || (k != d && get(v, d - 1, k - 1) < get(v, d - 1, k + 1))) {
+					xi = get(v, d - 1, k + 1);
+				} else {
+					xi = get(v, d - 1, k - 1) + 1;
+				}
+				int yi = xi - k;
+				while (xi < n && yi < m && x[xi] == y[yi]) {
+					xi++;
+					yi++;
+				}
+				next[k + d + 1] = xi;
+				if (xi >= n && yi >= m) {
+					found = d;
+				}
+			}
+			trace.add(next);
+			v = next;
+		}
+		if (found < 0) {
+			return false;
+		}
+		int xi = n;
+		int yi = m;
+		for (int d = found; d > 0; d--) {
+			int[] previous = trace.get(d - 1);
+			int k = xi - yi;
+			int prevK = (k == -d || (k != d && get(previous, d - 1, k - 1) < get(previous, d - 1, k + 1))) ? k + 1
+					: k - 1;
+			int prevX = get(previous, d - 1, prevK);
+			int prevY = prevX - prevK;
+			while (xi > prevX && yi > prevY) {
+				xi--;
+				yi--;
+			}
+			if (prevK == k + 1) {
+				added[bStart + prevY] = true;
+			} else {
+				removed[aStart + prevX] = true;
+			}
+			xi = prevX;
+			yi = prevY;
+		}
+		return true;
+	}
+
+	// v of step d holds k from -d-1 to d+1, out of range reads as 0 like the classic v[1] = 0 start
+	private static int get(int[] v, int d, int k) {
+		int index = k + d + 1;
+		return index >= 0 && index < v.length ? v[index] : 0;
+	}
+
+	private static String format(List<String> a, List<String> b, boolean[] removed, boolean[] added, String path) {
+		StringBuilder out = new StringBuilder();
+		out.append("--- a/").append(path).append('\n');
+		out.append("+++ b/").append(path).append('\n');
+		int i = 0;
+		int j = 0;
+		while (i < a.size() || j < b.size()) {
+			// Skip to the next change, keeping both sides aligned
+			while (i < a.size() && j < b.size() && !removed[i] && !added[j]) {
+				i++;
+				j++;
+			}
+			if (i >= a.size() && j >= b.size()) {
+				break;
+			}
+			int hunkA = Math.max(0, i - CONTEXT_LINES);
+			int hunkB = Math.max(0, j - CONTEXT_LINES);
+			int endA = i;
+			int endB = j;
+			// Extend over changes separated by at most 2 * CONTEXT_LINES unchanged lines
+			while (true) {
+				while (endA < a.size() && removed[endA]) {
+					endA++;
+				}
+				while (endB < b.size() && added[endB]) {
+					endB++;
+				}
+				int same = 0;
+				while (endA + same < a.size() && endB + same < b.size() && !removed[endA + same]
+						&& !added[endB + same]) {
+					same++;
+				}
+				boolean more = endA + same < a.size() || endB + same < b.size();
+				if (more && same <= 2 * CONTEXT_LINES) {
+					endA += same;
+					endB += same;
+				} else {
+					endA += Math.min(same, CONTEXT_LINES);
+					endB += Math.min(same, CONTEXT_LINES);
+					break;
+				}
+			}
+			out.append("@@ -").append(range(hunkA, endA - hunkA)).append(" +").append(range(hunkB, endB - hunkB))
+					.append(" @@\n");
+			int ia = hunkA;
+			int jb = hunkB;
+			while (ia < endA || jb < endB) {
+				if (ia < endA && removed[ia]) {
+					line(out, '-', a.get(ia++));
+				} else if (jb < endB && added[jb]) {
+					line(out, '+', b.get(jb++));
+				} else {
+					line(out, ' ', a.get(ia++));
+					jb++;
+				}
+			}
+			i = endA;
+			j = endB;
+		}
+		return out.toString();
+	}
+
+	private static String range(int start, int count) {
+		// An empty range names the line before it
+		return (count == 0 ? start : start + 1) + "," + count;
+	}
+
+	// Like diff -u, only the \n is the patch's line break; a \r before it stays part of the line
+	private static void line(StringBuilder out, char kind, String line) {
+		out.append(kind).append(line.endsWith("\n") ? line.substring(0, line.length() - 1) : line).append('\n');
+		if (!line.endsWith("\n")) {
+			out.append(NO_NEWLINE).append('\n');
+		}
+	}
+
+	// --- Lines ---
+
+	// Lines with their terminators; \r\n, \n and a lone \r end a line
+	static List<String> splitLines(String text) {
+		List<String> lines = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r') {
+				if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+					i++;
+				}
+				lines.add(text.substring(start, i + 1));
+				start = i + 1;
+			}
+		}
+		if (start < text.length()) {
+			lines.add(text.substring(start));
+		}
+		return lines;
+	}
+
+	private static String delimiter(List<String> lines) {
+		for (String line : lines) {
+			if (line.endsWith("\r\n")) {
+				return "\r\n";
+			}
+			if (line.endsWith("\n")) {
+				return "\n";
+			}
+			if (line.endsWith("\r")) {
+				return "\r";
+			}
+		}
+		return "\n";
+	}
+
+	// Lines from a patch made with plain \n get the \r\n of the file they go into
+	private static String withDelimiter(String line, String delimiter) {
+		if (delimiter.equals("\r\n") && line.endsWith("\n") && !line.endsWith("\r\n")) {
+			return line.substring(0, line.length() - 1) + delimiter;
+		}
+		return line;
+	}
+
+	private static boolean endsWithLineBreak(String line) {
+		return line.endsWith("\n") || line.endsWith("\r");
+	}
+
+	private static String stripLineBreak(String line) {
+		if (line.endsWith("\r\n")) {
+			return line.substring(0, line.length() - 2);
+		}
+		return endsWithLineBreak(line) ? line.substring(0, line.length() - 1) : line;
+	}
+
+	private static void append(StringBuilder out, List<String> lines, int from, int to) {
+		for (int i = from; i < to; i++) {
+			out.append(lines.get(i));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// Arguments of a tools/call. String arguments are kept as the String the parser produced, so a
+// multi-megabyte newContent exists exactly once on the heap; other values are small JSON trees.
+public class ToolArguments {
+
+	private final Map<String, Object> values = new HashMap<>();
+
+	void putString(String name, String value) {
+		values.put(name, value);
+	}
+
+	void putNode(String name, JsonNode value) {
+		values.put(name, value);
+	}
+
+	static ToolArguments fromTree(JsonNode node) {
+		ToolArguments arguments = new ToolArguments();
+		if (node != null && node.isObject()) {
+			for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext();) {
+				Map.Entry<String, JsonNode> field = it.next();
+				if (field.getValue().isTextual()) {
+					arguments.putString(field.getKey(), field.getValue().textValue());
+				} else {
+					arguments.putNode(field.getKey(), field.getValue());
+				}
+			}
+		}
+		return arguments;
+	}
+
+	public boolean has(String name) {
+		Object value = values.get(name);
+		return value != null && !(value instanceof JsonNode && ((JsonNode) value).isNull());
+	}
+
+	public String getString(String name) {
+		Object value = values.get(name);
+		if (value instanceof String) {
+			return (String) value;
+		}
+		if (value instanceof JsonNode && ((JsonNode) value).isValueNode() && !((JsonNode) value).isNull()) {
+			return ((JsonNode) value).asText();
+		}
+		return null;
+	}
+
+	public JsonNode getNode(String name) {
+		Object value = values.get(name);
+		return value instanceof JsonNode ? (JsonNode) value : null;
+	}
+
+	public int getInt(String name, int defaultValue) {
+		Object value = values.get(name);
+		if (value instanceof JsonNode && ((JsonNode) value).canConvertToInt()) {
+			return ((JsonNode) value).intValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	public long getLong(String name, long defaultValue) {
+		Object value = values.get(name);
+		if (value instanceof JsonNode && ((JsonNode) value).canConvertToLong()) {
+			return ((JsonNode) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		Object value = values.get(name);
+		if (value instanceof JsonNode && ((JsonNode) value).isBoolean()) {
+			return ((JsonNode) value).booleanValue();
+		}
+		if (value instanceof String) {
+			return Boolean.parseBoolean((String) value);
+		}
+		return defaultValue;
+	}
+}
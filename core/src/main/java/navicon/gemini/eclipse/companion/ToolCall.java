@@ -0,0 +1,53 @@
+package navicon.gemini.eclipse.companion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// One invocation of a tool
+public class ToolCall {
+	private final JsonNode id;
+	private final String sessionId;
+	private final ToolArguments arguments;
+	private volatile boolean cancelled;
+
+	public ToolCall(JsonNode id, String sessionId, ToolArguments arguments) {
+		this.id = id;
+		this.sessionId = sessionId;
+		this.arguments = arguments != null ? arguments : new ToolArguments();
+	}
+
+	public JsonNode getId() {
+		return id;
+	}
+
+	// Mcp-Session-Id of the calling CLI, null if it did not send one
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public ToolArguments getArguments() {
+		return arguments;
+	}
+
+	// Set when the client sends notifications/cancelled for this request; long-running tools poll it
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void throwIfCancelled() throws ToolException {
+		if (cancelled) {
+			throw ToolException.cancelled();
+		}
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	public String requireString(String name) throws ToolException {
+		String value = arguments.getString(name);
+		if (value == null) {
+			throw ToolException.invalidParams("Missing required argument: " + name);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,30 @@
+package navicon.gemini.eclipse.companion;
+
+// Reported to the caller as a JSON-RPC error with the given code
+public class ToolException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int INVALID_PARAMS = -32602;
+	public static final int INTERNAL_ERROR = -32603;
+	public static final int REQUEST_CANCELLED = -32800;
+
+	private final int code;
+
+	public ToolException(int code, String message) {
+		super(message);
+		this.code = code;
+	}
+
+	public static ToolException invalidParams(String message) {
+		return new ToolException(INVALID_PARAMS, message);
+	}
+
+	public static ToolException cancelled() {
+		return new ToolException(REQUEST_CANCELLED, "Request cancelled");
+	}
+
+	public int getCode() {
+		return code;
+	}
+}
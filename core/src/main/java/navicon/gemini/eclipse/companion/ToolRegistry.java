@@ -0,0 +1,98 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// The tools offered to the CLI. Lookup by name is a hash lookup, and the tools/list result is
+// serialized once per change of the tool set instead of once per request. Listeners hear about
+// every change so the server can send notifications/tools/list_changed.
+public class ToolRegistry {
+
+	private final ObjectMapper objectMapper;
+	private final Map<String, McpTool> tools = new ConcurrentHashMap<>();
+	// Registration order, which is also the order of tools/list
+	private final List<McpTool> ordered = new CopyOnWriteArrayList<>();
+	private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+	private volatile RawJson toolsListResult;
+
+	public ToolRegistry(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public void addChangeListener(Runnable listener) {
+		changeListeners.add(listener);
+	}
+
+	public void register(McpTool tool) {
+		synchronized (this) {
+			McpTool previous = tools.put(tool.getName(), tool);
+			if (previous != null) {
+				ordered.set(ordered.indexOf(previous), tool);
+			} else {
+				ordered.add(tool);
+			}
+			toolsListResult = null;
+		}
+		fireChanged();
+	}
+
+	public void unregister(String name) {
+		synchronized (this) {
+			McpTool removed = tools.remove(name);
+			if (removed == null) {
+				return;
+			}
+			ordered.remove(removed);
+			toolsListResult = null;
+		}
+		fireChanged();
+	}
+
+	public McpTool get(String name) {
+		return name == null ? null : tools.get(name);
+	}
+
+	public List<McpTool> getTools() {
+		return new ArrayList<>(ordered);
+	}
+
+	public RawJson getToolsListResult() throws JsonProcessingException {
+		RawJson result = toolsListResult;
+		if (result == null) {
+			synchronized (this) {
+				result = toolsListResult;
+				if (result == null) {
+					result = new RawJson(objectMapper.writeValueAsString(buildToolsList()));
+					toolsListResult = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private ObjectNode buildToolsList() {
+		ObjectNode result = objectMapper.createObjectNode();
+		ArrayNode list = result.putArray("tools");
+		for (McpTool tool : ordered) {
+			ObjectNode entry = list.addObject();
+			entry.put("name", tool.getName());
+			entry.put("description", tool.getDescription());
+			entry.set("inputSchema", tool.getInputSchema());
+		}
+		return result;
+	}
+
+	private void fireChanged() {
+		for (Runnable listener : changeListeners) {
+			listener.run();
+		}
+	}
+}
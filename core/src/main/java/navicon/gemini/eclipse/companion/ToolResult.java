@@ -0,0 +1,26 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.Collections;
+import java.util.List;
+
+// Result of a tools/call: MCP content blocks, here always a single text block
+public class ToolResult {
+	public final List<TextContent> content;
+
+	public ToolResult(List<TextContent> content) {
+		this.content = content;
+	}
+
+	public static ToolResult text(String text) {
+		return new ToolResult(Collections.singletonList(new TextContent(text)));
+	}
+
+	public static class TextContent {
+		public final String type = "text";
+		public final String text;
+
+		public TextContent(String text) {
+			this.text = text;
+		}
+	}
+}
@@ -0,0 +1,616 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// Maps every case-folded three-character sequence of a file's text to the files containing it, so a
+// search only reads files that contain all trigrams of its required literals. Files get ascending
+// document ids; a posting list is a plain int[] of ids, appended in order and therefore sorted, and
+// trigrams are found through an open-addressing table of packed longs. Re-indexing or removing a
+// file only marks its old id dead; once a quarter of the ids are dead the postings are rewritten
+// without them. put() refuses new files once the estimated size reaches the memory budget, and the
+// caller has to scan those files itself.
+public class TrigramIndex {
+
+	public static class Stats {
+		public int files;
+		public int deadFiles;
+		public int trigrams;
+		public long postings;
+		public long estimatedBytes;
+		public long maxBytes;
+	}
+
+	public static class Document {
+		public final String key;
+		public final String location;
+
+		Document(String key, String location) {
+			this.key = key;
+			this.location = location;
+		}
+	}
+
+	private static final int MIN_COMPACT_DEAD = 1024;
+	// (?x) makes whitespace insignificant, which the literal extraction does not model
+	private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z-]*x");
+	// Rough per-object costs for the budget: array headers, table slots, document bookkeeping
+	private static final int POSTING_OVERHEAD = 24;
+	private static final int DOCUMENT_OVERHEAD = 96;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final long maxBytes;
+
+	private final Map<String, Integer> docByKey = new HashMap<>();
+	private String[] docKeys = new String[256];
+	private String[] docLocations = new String[256];
+	private final BitSet dead = new BitSet();
+	private int docCount;
+	private int deadCount;
+
+	private long[] tableKeys = new long[1 << 12];
+	// Posting index + 1, 0 for an empty slot
+	private int[] tableValues = new int[1 << 12];
+	private int[][] postings = new int[256][];
+	private int[] postingSizes = new int[256];
+	private int trigramCount;
+	private long postingCount;
+	private long estimatedBytes;
+
+	public TrigramIndex(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.estimatedBytes = tableBytes();
+	}
+
+	// Returns false, leaving the file out, when it would take the index over its memory budget
+	public boolean put(String key, String location, CharSequence text) {
+		long[] trigrams = trigrams(text);
+		lock.writeLock().lock();
+		try {
+			removeLocked(key);
+			long cost = (long) trigrams.length * Integer.BYTES + DOCUMENT_OVERHEAD + 2L * key.length()
+					+ 2L * location.length();
+			if (estimatedBytes + cost > maxBytes) {
+				return false;
+			}
+			int doc = docCount++;
+			if (doc == docKeys.length) {
+				docKeys = Arrays.copyOf(docKeys, doc * 2);
+				docLocations = Arrays.copyOf(docLocations, doc * 2);
+			}
+			docKeys[doc] = key;
+			docLocations[doc] = location;
+			docByKey.put(key, doc);
+			estimatedBytes += DOCUMENT_OVERHEAD + 2L * key.length() + 2L * location.length();
+			for (long trigram : trigrams) {
+				append(postingFor(trigram), doc);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(String key) {
+		lock.writeLock().lock();
+		try {
+			removeLocked(key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void removePrefix(String prefix) {
+		String folder = prefix.endsWith("/") ? prefix : prefix + "/";
+		lock.writeLock().lock();
+		try {
+			for (String key : new ArrayList<>(docByKey.keySet())) {
+				if (key.startsWith(folder)) {
+					removeLocked(key);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Documents containing every trigram of every literal. Null when the literals have no trigram
+	// at all, i.e. the index cannot narrow the search and every document is a candidate.
+	public List<Document> candidates(List<String> literals) {
+		List<Long> trigrams = new ArrayList<>();
+		for (String literal : literals) {
+			for (long trigram : trigrams(literal)) {
+				trigrams.add(trigram);
+			}
+		}
+		lock.readLock().lock();
+		try {
+			if (trigrams.isEmpty()) {
+				return null;
+			}
+			int[][] lists = new int[trigrams.size()][];
+			int[] sizes = new int[trigrams.size()];
+			for (int i = 0; i < lists.length; i++) {
+				int posting = lookup(trigrams.get(i));
+				if (posting < 0) {
+					return new ArrayList<>();
+				}
+				lists[i] = postings[posting];
+				sizes[i] = postingSizes[posting];
+			}
+			int[] result = intersect(lists, sizes);
+			List<Document> documents = new ArrayList<>(result.length);
+			for (int doc : result) {
+				if (!dead.get(doc)) {
+					documents.add(new Document(docKeys[doc], docLocations[doc]));
+				}
+			}
+			return documents;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<Document> allDocuments() {
+		lock.readLock().lock();
+		try {
+			List<Document> documents = new ArrayList<>(docByKey.size());
+			for (int doc = 0; doc < docCount; doc++) {
+				if (!dead.get(doc)) {
+					documents.add(new Document(docKeys[doc], docLocations[doc]));
+				}
+			}
+			return documents;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Stats getStats() {
+		lock.readLock().lock();
+		try {
+			Stats stats = new Stats();
+			stats.files = docByKey.size();
+			stats.deadFiles = deadCount;
+			stats.trigrams = trigramCount;
+			stats.postings = postingCount;
+			stats.estimatedBytes = estimatedBytes;
+			stats.maxBytes = maxBytes;
+			return stats;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// --- Trigram extraction ---
+
+	// The distinct case-folded trigrams of the text, sorted
+	static long[] trigrams(CharSequence text) {
+		int length = text.length();
+		if (length < 3) {
+			return new long[0];
+		}
+		LongSet set = new LongSet(Math.min(length, 1 << 16));
+		char c1 = Character.toLowerCase(text.charAt(0));
+		char c2 = Character.toLowerCase(text.charAt(1));
+		for (int i = 2; i < length; i++) {
+			char c3 = Character.toLowerCase(text.charAt(i));
+			set.add(pack(c1, c2, c3));
+			c1 = c2;
+			c2 = c3;
+		}
+		long[] result = set.toArray();
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static long pack(char c1, char c2, char c3) {
+		return ((long) c1 << 32) | ((long) c2 << 16) | c3;
+	}
+
+	// Literal runs every match of the regex has to contain, for pruning with the index. Conservative:
+	// an alternation anywhere gives up, and groups, classes and optional characters end a run.
+	public static List<String> requiredLiterals(String regex) {
+		List<String> runs = new ArrayList<>();
+		if (hasAlternation(regex) || COMMENTS_FLAG.matcher(regex).find()) {
+			return runs;
+		}
+		StringBuilder run = new StringBuilder();
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			int next = i + 1;
+			boolean literal;
+			char value = c;
+			if (c == '\\' && next < regex.length()) {
+				value = regex.charAt(next);
+				literal = !Character.isLetterOrDigit(value);
+				i = literal ? next : skipEscape(regex, next);
+			} else if (c == '[') {
+				i = skipClass(regex, i);
+				literal = false;
+			} else if (c == '(') {
+				i = skipGroup(regex, i);
+				literal = false;
+			} else {
+				literal = ".^$*+?{}|)]".indexOf(c) < 0;
+			}
+			char quantifier = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+			boolean optional = quantifier == '*' || quantifier == '?' || quantifier == '{';
+			if (literal && !optional) {
+				run.append(value);
+			}
+			if (!literal || optional || quantifier == '+') {
+				// A repeated character is still required once, but what follows it is not adjacent
+				if (literal && quantifier == '+') {
+					run.append(value);
+				}
+				addRun(runs, run);
+			}
+			if (quantifier == '{') {
+				int close = regex.indexOf('}', i + 1);
+				i = close < 0 ? regex.length() : close;
+			} else if (quantifier == '*' || quantifier == '?' || quantifier == '+') {
+				i++;
+			}
+			// Lazy and possessive suffixes
+			if (i + 1 < regex.length() && (optional || quantifier == '+')
+					&& (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) {
+				i++;
+			}
+		}
+		addRun(runs, run);
+		return runs;
+	}
+
+	private static void addRun(List<String> runs, StringBuilder run) {
+		if (run.length() >= 3) {
+			runs.add(run.toString());
+		}
+		run.setLength(0);
+	}
+
+	// Index of the last character of the escape whose letter is at the index, so that operands such as
+	// the digits of \x41 or the name of \k<name> are not taken for literals
+	private static int skipEscape(String regex, int letter) {
+		int i = letter + 1;
+		switch (regex.charAt(letter)) {
+		case 'x':
+			return i < regex.length() && regex.charAt(i) == '{' ? skipTo(regex, i, '}') : skipMax(regex, i, 2, 16);
+		case 'u':
+			return skipMax(regex, i, 4, 16);
+		case '0':
+			return skipMax(regex, i, 3, 8);
+		case 'c':
+			return Math.min(i, regex.length() - 1);
+		case 'k':
+			return i < regex.length() && regex.charAt(i) == '<' ? skipTo(regex, i, '>') : letter;
+		case 'p':
+		case 'P':
+			return i < regex.length() && regex.charAt(i) == '{' ? skipTo(regex, i, '}')
+					: Math.min(i, regex.length() - 1);
+		case 'N':
+			return i < regex.length() && regex.charAt(i) == '{' ? skipTo(regex, i, '}') : letter;
+		default:
+			return letter;
+		}
+	}
+
+	private static int skipTo(String regex, int from, char close) {
+		int end = regex.indexOf(close, from);
+		return end < 0 ? regex.length() - 1 : end;
+	}
+
+	// Last of at most max digits in the radix starting at the index
+	private static int skipMax(String regex, int from, int max, int radix) {
+		int i = from;
+		while (i < regex.length() && i - from < max && Character.digit(regex.charAt(i), radix) >= 0) {
+			i++;
+		}
+		return i - 1;
+	}
+
+	private static boolean hasAlternation(String regex) {
+		boolean inClass = false;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '|' && !inClass) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int skipClass(String regex, int open) {
+		int i = open + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			i++;
+		}
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == ']') {
+				return i;
+			}
+		}
+		return regex.length();
+	}
+
+	private static int skipGroup(String regex, int open) {
+		int depth = 0;
+		for (int i = open; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = skipClass(regex, i);
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return i;
+			}
+		}
+		return regex.length();
+	}
+
+	// --- Postings ---
+
+	private void removeLocked(String key) {
+		Integer doc = docByKey.remove(key);
+		if (doc == null) {
+			return;
+		}
+		dead.set(doc);
+		deadCount++;
+		estimatedBytes -= DOCUMENT_OVERHEAD + 2L * key.length() + 2L * docLocations[doc].length();
+		docKeys[doc] = null;
+		docLocations[doc] = null;
+		if (deadCount >= MIN_COMPACT_DEAD && deadCount * 4 >= docCount) {
+			compact();
+		}
+	}
+
+	// Renumbers the live documents densely and drops dead ids from every posting list
+	private void compact() {
+		int[] remap = new int[docCount];
+		int live = 0;
+		for (int doc = 0; doc < docCount; doc++) {
+			if (dead.get(doc)) {
+				remap[doc] = -1;
+			} else {
+				remap[doc] = live;
+				docKeys[live] = docKeys[doc];
+				docLocations[live] = docLocations[doc];
+				docByKey.put(docKeys[live], live);
+				live++;
+			}
+		}
+		Arrays.fill(docKeys, live, docCount, null);
+		Arrays.fill(docLocations, live, docCount, null);
+		postingCount = 0;
+		long postingBytes = 0;
+		for (int p = 0; p < trigramCount; p++) {
+			int[] list = postings[p];
+			int size = 0;
+			for (int j = 0; j < postingSizes[p]; j++) {
+				int doc = remap[list[j]];
+				if (doc >= 0) {
+					list[size++] = doc;
+				}
+			}
+			if (size < list.length / 2) {
+				list = Arrays.copyOf(list, Math.max(2, size));
+				postings[p] = list;
+			}
+			postingSizes[p] = size;
+			postingCount += size;
+			postingBytes += POSTING_OVERHEAD + (long) list.length * Integer.BYTES;
+		}
+		estimatedBytes = postingBytes + tableBytes() + documentBytes(live);
+		docCount = live;
+		dead.clear();
+		deadCount = 0;
+	}
+
+	private long documentBytes(int live) {
+		long bytes = 0;
+		for (int doc = 0; doc < live; doc++) {
+			bytes += DOCUMENT_OVERHEAD + 2L * docKeys[doc].length() + 2L * docLocations[doc].length();
+		}
+		return bytes;
+	}
+
+	private long tableBytes() {
+		return (long) tableKeys.length * (Long.BYTES + Integer.BYTES);
+	}
+
+	private void append(int posting, int doc) {
+		int[] list = postings[posting];
+		int size = postingSizes[posting];
+		if (size == list.length) {
+			int[] grown = Arrays.copyOf(list, size + (size >> 1) + 2);
+			estimatedBytes += (long) (grown.length - list.length) * Integer.BYTES;
+			postings[posting] = list = grown;
+		}
+		list[size] = doc;
+		postingSizes[posting] = size + 1;
+		postingCount++;
+	}
+
+	private int lookup(long trigram) {
+		int mask = tableKeys.length - 1;
+		for (int slot = hash(trigram) & mask;; slot = (slot + 1) & mask) {
+			int value = tableValues[slot];
+			if (value == 0) {
+				return -1;
+			}
+			if (tableKeys[slot] == trigram) {
+				return value - 1;
+			}
+		}
+	}
+
+	private int postingFor(long trigram) {
+		int mask = tableKeys.length - 1;
+		int slot = hash(trigram) & mask;
+		for (; tableValues[slot] != 0; slot = (slot + 1) & mask) {
+			if (tableKeys[slot] == trigram) {
+				return tableValues[slot] - 1;
+			}
+		}
+		int posting = trigramCount++;
+		if (posting == postings.length) {
+			postings = Arrays.copyOf(postings, posting * 2);
+			postingSizes = Arrays.copyOf(postingSizes, posting * 2);
+		}
+		postings[posting] = new int[2];
+		estimatedBytes += POSTING_OVERHEAD + 2 * Integer.BYTES;
+		tableKeys[slot] = trigram;
+		tableValues[slot] = posting + 1;
+		if (trigramCount * 2 > tableKeys.length) {
+			growTable();
+		}
+		return posting;
+	}
+
+	private void growTable() {
+		long[] oldKeys = tableKeys;
+		int[] oldValues = tableValues;
+		estimatedBytes -= tableBytes();
+		tableKeys = new long[oldKeys.length * 2];
+		tableValues = new int[oldKeys.length * 2];
+		estimatedBytes += tableBytes();
+		int mask = tableKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != 0) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (tableValues[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				tableKeys[slot] = oldKeys[i];
+				tableValues[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	// Sorted-list intersection, smallest list first
+	private static int[] intersect(int[][] lists, int[] sizes) {
+		Integer[] order = new Integer[lists.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(sizes[a], sizes[b]));
+		int[] result = Arrays.copyOf(lists[order[0]], sizes[order[0]]);
+		int resultSize = result.length;
+		for (int k = 1; k < order.length && resultSize > 0; k++) {
+			int[] list = lists[order[k]];
+			int size = sizes[order[k]];
+			int kept = 0;
+			int j = 0;
+			for (int i = 0; i < resultSize; i++) {
+				int doc = result[i];
+				j = gallop(list, j, size, doc);
+				if (j < size && list[j] == doc) {
+					result[kept++] = doc;
+				}
+			}
+			resultSize = kept;
+		}
+		return Arrays.copyOf(result, resultSize);
+	}
+
+	// First index at or after from whose value is >= target
+	private static int gallop(int[] list, int from, int size, int target) {
+		int step = 1;
+		int hi = from;
+		while (hi < size && list[hi] < target) {
+			from = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		int lo = from;
+		hi = Math.min(hi, size);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (list[mid] < target) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// Open-addressing set of longs for collecting a file's trigrams without boxing
+	private static final class LongSet {
+		private long[] keys;
+		private boolean[] used;
+		private int size;
+
+		LongSet(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+			keys = new long[capacity];
+			used = new boolean[capacity];
+		}
+
+		void add(long value) {
+			int mask = keys.length - 1;
+			int slot = hash(value) & mask;
+			while (used[slot]) {
+				if (keys[slot] == value) {
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			used[slot] = true;
+			keys[slot] = value;
+			if (++size * 2 > keys.length) {
+				rehash();
+			}
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			boolean[] oldUsed = used;
+			keys = new long[oldKeys.length * 2];
+			used = new boolean[oldKeys.length * 2];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldUsed[i]) {
+					add(oldKeys[i]);
+				}
+			}
+		}
+
+		long[] toArray() {
+			long[] result = new long[size];
+			int n = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (used[i]) {
+					result[n++] = keys[i];
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+// An HTTP/1.1 exchange read from a Unix domain socket connection, so the handlers written for the
+// JDK HttpServer serve the socket transport unchanged. Follows the HttpServer conventions for
+// sendResponseHeaders: a length of 0 means a chunked body of any length, -1 means no body.
+class UnixHttpExchange extends HttpExchange {
+
+	private static final InetSocketAddress UNIX_ADDRESS = InetSocketAddress.createUnresolved("localhost", 0);
+
+	private final UnixSocketTransport.Connection connection;
+	private final String method;
+	private final URI uri;
+	private final String protocol;
+	private final Headers requestHeaders;
+	private final Headers responseHeaders = new Headers();
+	private final Map<String, Object> attributes = new HashMap<>();
+	private final ResponseStream responseStream = new ResponseStream();
+	private InputStream requestBody;
+	private OutputStream responseBody = responseStream;
+	private int responseCode = -1;
+	private boolean closed;
+
+	UnixHttpExchange(UnixSocketTransport.Connection connection, String method, URI uri, String protocol,
+			Headers requestHeaders, InputStream requestBody) {
+		this.connection = connection;
+		this.method = method;
+		this.uri = uri;
+		this.protocol = protocol;
+		this.requestHeaders = requestHeaders;
+		this.requestBody = requestBody;
+	}
+
+	@Override
+	public Headers getRequestHeaders() {
+		return requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders() {
+		return responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI() {
+		return uri;
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return method;
+	}
+
+	@Override
+	public HttpContext getHttpContext() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		boolean reusable = responseCode != -1;
+		try {
+			requestBody.close();
+			responseStream.finish();
+		} catch (IOException e) {
+			reusable = false;
+		}
+		connection.exchangeCompleted(reusable && !"close".equalsIgnoreCase(requestHeaders.getFirst("Connection")));
+	}
+
+	@Override
+	public InputStream getRequestBody() {
+		return requestBody;
+	}
+
+	@Override
+	public OutputStream getResponseBody() {
+		return responseBody;
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+		if (responseCode != -1) {
+			throw new IOException("Response headers already sent");
+		}
+		responseCode = rCode;
+		StringBuilder head = new StringBuilder(256);
+		head.append("HTTP/1.1 ").append(rCode).append(' ').append(reasonPhrase(rCode)).append("\r\n");
+		OutputStream body;
+		if (responseLength > 0) {
+			responseHeaders.set("Content-Length", Long.toString(responseLength));
+			body = new FixedLengthOutputStream(connection.getOutput(), responseLength);
+		} else if (responseLength == 0) {
+			responseHeaders.set("Transfer-Encoding", "chunked");
+			body = new ChunkedOutputStream(connection.getOutput());
+		} else {
+			responseHeaders.set("Content-Length", "0");
+			body = null;
+		}
+		for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+			for (String value : header.getValue()) {
+				head.append(header.getKey()).append(": ").append(value).append("\r\n");
+			}
+		}
+		head.append("\r\n");
+		connection.getOutput().write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		connection.getOutput().flush();
+		responseStream.target = body;
+		if (body == null) {
+			// Nothing more to send, the exchange is complete
+			close();
+		}
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return UNIX_ADDRESS;
+	}
+
+	@Override
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return UNIX_ADDRESS;
+	}
+
+	@Override
+	public String getProtocol() {
+		return protocol;
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+		attributes.put(name, value);
+	}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o) {
+		if (i != null) {
+			requestBody = i;
+		}
+		if (o != null) {
+			responseBody = o;
+		}
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal() {
+		return null;
+	}
+
+	private static String reasonPhrase(int code) {
+		switch (code) {
+		case 200:
+			return "OK";
+		case 202:
+			return "Accepted";
+		case 204:
+			return "No Content";
+		case 400:
+			return "Bad Request";
+		case 401:
+			return "Unauthorized";
+		case 404:
+			return "Not Found";
+		case 405:
+			return "Method Not Allowed";
+		case 413:
+			return "Payload Too Large";
+		default:
+			return code >= 500 ? "Server Error" : "Status";
+		}
+	}
+
+	// Forwards to the body stream chosen by sendResponseHeaders; closing it completes the exchange
+	private class ResponseStream extends OutputStream {
+		private OutputStream target;
+		private boolean finished;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (target == null || finished) {
+				throw new IOException("No response body can be written");
+			}
+			target.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (target != null && !finished) {
+				target.flush();
+			}
+		}
+
+		@Override
+		public void close() {
+			UnixHttpExchange.this.close();
+		}
+
+		void finish() throws IOException {
+			if (!finished) {
+				finished = true;
+				if (target != null) {
+					target.close();
+				}
+			}
+		}
+	}
+
+	private static class FixedLengthOutputStream extends OutputStream {
+		private final OutputStream out;
+		private long remaining;
+
+		FixedLengthOutputStream(OutputStream out, long length) {
+			this.out = out;
+			this.remaining = length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len > remaining) {
+				throw new IOException("Response body exceeds Content-Length");
+			}
+			out.write(b, off, len);
+			remaining -= len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+			if (remaining > 0) {
+				throw new IOException("Response body shorter than Content-Length");
+			}
+		}
+	}
+
+	private static class ChunkedOutputStream extends OutputStream {
+		private static final byte[] CRLF = { '\r', '\n' };
+		private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+		private final OutputStream out;
+
+		ChunkedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+			out.write(CRLF);
+			out.write(b, off, len);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.write(LAST_CHUNK);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,565 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+
+// Serves the same HTTP handlers as the TCP HttpServer over a Unix domain socket (JDK 16+). Idle
+// keep-alive connections wait in a selector; once a request arrives the connection switches to
+// blocking mode and is parsed and handled on the request executor. When the exchange completes,
+// including an SSE stream that ends later on the writer thread, the connection goes back to the
+// selector, so neither an idle connection nor an open stream holds a thread. The selector thread
+// closes connections that sit idle or stall in a read for longer than the timeout. Access is limited
+// by the socket's directory, which only its owner may enter, created before the socket is bound.
+public class UnixSocketTransport {
+
+	private static final int MAX_HEADER_BYTES = 64 * 1024;
+	private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+	private final Path socketPath;
+	private final Executor executor;
+	private final long maxRequestBytes;
+	private final long timeoutNanos;
+	private final ServerMetrics metrics;
+	private final Map<String, HttpHandler> handlers = new ConcurrentHashMap<>();
+	private final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+	// Connections handed to the executor, checked for stalled reads
+	private final Set<Connection> busyConnections = ConcurrentHashMap.newKeySet();
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private Thread selectorThread;
+	private volatile boolean running;
+
+	public UnixSocketTransport(Path socketPath, Executor executor, long maxRequestBytes, long timeoutMs,
+			ServerMetrics metrics) {
+		this.socketPath = socketPath;
+		this.metrics = metrics;
+		this.executor = executor;
+		this.maxRequestBytes = maxRequestBytes;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, timeoutMs));
+	}
+
+	public void createContext(String path, HttpHandler handler) {
+		handlers.put(path, handler);
+	}
+
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	public void start() throws IOException {
+		createPrivateDirectory(socketPath.getParent());
+		Files.deleteIfExists(socketPath);
+		serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+		try {
+			Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX file system, the directory permissions apply
+		}
+		serverChannel.configureBlocking(false);
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		selectorThread = new Thread(this::selectLoop, "Gemini-UDS-Selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				metrics.reportError("unixSocket.stop", e);
+			}
+		}
+		if (serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				metrics.reportError("unixSocket.stop", e);
+			}
+		}
+		try {
+			Files.deleteIfExists(socketPath);
+			Files.deleteIfExists(socketPath.getParent());
+		} catch (DirectoryNotEmptyException e) {
+			// Someone else's file, left alone
+		} catch (IOException e) {
+			metrics.reportError("unixSocket.stop", e);
+		}
+	}
+
+	// Created with owner-only permissions from the start, so there is no moment in which others could
+	// reach the socket. An existing directory is reused only if it is ours and not a symbolic link.
+	private static void createPrivateDirectory(Path directory) throws IOException {
+		Files.createDirectories(directory.getParent());
+		try {
+			Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+			return;
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX file system; the user's temp directory is private there
+			Files.createDirectories(directory);
+			return;
+		} catch (FileAlreadyExistsException e) {
+			// Left over from an earlier run with the same pid and port
+		}
+		UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+		UserPrincipal self = directory.getFileSystem().getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) || !owner.equals(self)) {
+			throw new IOException("Not a private directory for the socket: " + directory);
+		}
+		Files.setPosixFilePermissions(directory, OWNER_ONLY);
+	}
+
+	private void selectLoop() {
+		try {
+			long nextSweep = System.nanoTime() + timeoutNanos / 2;
+			while (running) {
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos / 2)));
+				long now = System.nanoTime();
+				if (now - nextSweep >= 0) {
+					closeTimedOut(now);
+					nextSweep = now + timeoutNanos / 2;
+				}
+				Connection idle;
+				while ((idle = idleConnections.poll()) != null) {
+					idle.register();
+				}
+				List<Connection> readable = new ArrayList<>();
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel = serverChannel.accept();
+						if (channel != null) {
+							new Connection(channel).register();
+						}
+					} else if (key.isReadable()) {
+						key.cancel();
+						readable.add((Connection) key.attachment());
+					}
+				}
+				if (!readable.isEmpty()) {
+					// Flush the cancelled keys so the channels can switch to blocking mode. Anything that became
+					// ready meanwhile is selected again by the next select, readiness is level-triggered.
+					selector.selectNow();
+					selector.selectedKeys().clear();
+					readable.forEach(Connection::dispatch);
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (running) {
+				metrics.reportError("unixSocket.select", e);
+			}
+		}
+	}
+
+	// Runs on the selector thread. Closing the channel makes a read blocked in it fail, which ends
+	// the exchange on its executor thread.
+	private void closeTimedOut(long now) {
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof Connection && now - ((Connection) attachment).idleSince > timeoutNanos) {
+				key.cancel();
+				((Connection) attachment).close();
+			}
+		}
+		for (Connection connection : busyConnections) {
+			long readingSince = connection.input.readingSince;
+			if (readingSince != 0 && now - readingSince > timeoutNanos) {
+				connection.close();
+			}
+		}
+	}
+
+	class Connection {
+		private final SocketChannel channel;
+		private final ConnectionInput input;
+		private final OutputStream output;
+		// When the connection last went back to the selector
+		private volatile long idleSince = System.nanoTime();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			this.input = new ConnectionInput(channel);
+			this.output = new ConnectionOutput(channel);
+		}
+
+		OutputStream getOutput() {
+			return output;
+		}
+
+		void register() {
+			busyConnections.remove(this);
+			idleSince = System.nanoTime();
+			try {
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, this);
+			} catch (IOException | RuntimeException e) {
+				close();
+			}
+		}
+
+		void dispatch() {
+			busyConnections.add(this);
+			try {
+				channel.configureBlocking(true);
+				executor.execute(this::serve);
+			} catch (IOException | RejectedExecutionException e) {
+				close();
+			}
+		}
+
+		private void serve() {
+			UnixHttpExchange exchange;
+			try {
+				exchange = readRequest();
+			} catch (IOException | RuntimeException e) {
+				close();
+				return;
+			}
+			if (exchange == null) {
+				close();
+				return;
+			}
+			HttpHandler handler = findHandler(exchange.getRequestURI().getPath());
+			try {
+				if (handler == null) {
+					exchange.sendResponseHeaders(404, -1);
+				} else {
+					handler.handle(exchange);
+				}
+			} catch (IOException | RuntimeException e) {
+				exchange.close();
+				close();
+			}
+		}
+
+		// Called once the handler or the SSE writer has closed the exchange
+		void exchangeCompleted(boolean reusable) {
+			if (!reusable || !running) {
+				close();
+			} else if (input.buffered() > 0) {
+				// A pipelined request is already buffered
+				try {
+					executor.execute(this::serve);
+				} catch (RejectedExecutionException e) {
+					close();
+				}
+			} else {
+				idleConnections.add(this);
+				selector.wakeup();
+			}
+		}
+
+		void close() {
+			busyConnections.remove(this);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Already gone
+			}
+		}
+
+		private UnixHttpExchange readRequest() throws IOException {
+			String requestLine = input.readLine();
+			if (requestLine == null) {
+				return null;
+			}
+			String[] parts = requestLine.split(" ");
+			if (parts.length != 3) {
+				throw new IOException("Malformed request line: " + requestLine);
+			}
+			Headers headers = new Headers();
+			String line;
+			while ((line = input.readLine()) != null && !line.isEmpty()) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+				}
+			}
+			URI uri;
+			try {
+				uri = new URI(parts[1]);
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+			InputStream body;
+			String contentLength = headers.getFirst("Content-Length");
+			if ("chunked".equalsIgnoreCase(headers.getFirst("Transfer-Encoding"))) {
+				body = new ChunkedInputStream(input);
+			} else if (contentLength != null) {
+				long length = Long.parseLong(contentLength.trim());
+				if (length > maxRequestBytes) {
+					throw new IOException("Request body too large");
+				}
+				body = new FixedLengthInputStream(input, length);
+			} else {
+				body = InputStream.nullInputStream();
+			}
+			return new UnixHttpExchange(this, parts[0], uri, parts[2], headers, body);
+		}
+	}
+
+	private HttpHandler findHandler(String path) {
+		HttpHandler best = null;
+		int bestLength = -1;
+		for (Map.Entry<String, HttpHandler> entry : handlers.entrySet()) {
+			String context = entry.getKey();
+			if (path != null && path.startsWith(context) && context.length() > bestLength) {
+				best = entry.getValue();
+				bestLength = context.length();
+			}
+		}
+		return best;
+	}
+
+	// Buffered blocking reads straight from the channel
+	private static class ConnectionInput extends InputStream {
+		private final SocketChannel channel;
+		private final byte[] buf = new byte[16 * 1024];
+		private int pos;
+		private int limit;
+		// Start of the blocking read in progress, 0 when there is none
+		volatile long readingSince;
+
+		ConnectionInput(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		int buffered() {
+			return limit - pos;
+		}
+
+		private boolean fill() throws IOException {
+			pos = 0;
+			limit = 0;
+			readingSince = System.nanoTime();
+			int n;
+			try {
+				n = channel.read(ByteBuffer.wrap(buf));
+			} finally {
+				readingSince = 0;
+			}
+			if (n <= 0) {
+				return false;
+			}
+			limit = n;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (pos >= limit && !fill()) {
+				return -1;
+			}
+			return buf[pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (pos >= limit && !fill()) {
+				return -1;
+			}
+			int n = Math.min(len, limit - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		// Reads a CRLF terminated header line, null at end of stream
+		String readLine() throws IOException {
+			StringBuilder line = new StringBuilder(64);
+			int total = 0;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == '\n') {
+					int length = line.length();
+					if (length > 0 && line.charAt(length - 1) == '\r') {
+						line.setLength(length - 1);
+					}
+					return line.toString();
+				}
+				if (++total > MAX_HEADER_BYTES) {
+					throw new IOException("Header line too long");
+				}
+				line.append((char) c);
+			}
+			return line.length() == 0 ? null : line.toString();
+		}
+	}
+
+	private static class ConnectionOutput extends OutputStream {
+		private final SocketChannel channel;
+
+		ConnectionOutput(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static class FixedLengthInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Request body truncated");
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException("Request body truncated");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		// Drains the unread rest of the body so the next request starts at the right byte
+		@Override
+		public void close() throws IOException {
+			while (remaining > 0 && skip(remaining) > 0) {
+				// keep skipping
+			}
+		}
+	}
+
+	private static class ChunkedInputStream extends InputStream {
+		private final ConnectionInput in;
+		private long chunkRemaining;
+		private boolean eof;
+
+		ChunkedInputStream(ConnectionInput in) {
+			this.in = in;
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (eof) {
+				return false;
+			}
+			if (chunkRemaining == 0) {
+				String sizeLine = in.readLine();
+				if (sizeLine != null && sizeLine.isEmpty()) {
+					// CRLF that terminated the previous chunk
+					sizeLine = in.readLine();
+				}
+				if (sizeLine == null) {
+					throw new EOFException("Chunked body truncated");
+				}
+				int extension = sizeLine.indexOf(';');
+				chunkRemaining = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(),
+						16);
+				if (chunkRemaining == 0) {
+					String trailer;
+					while ((trailer = in.readLine()) != null && !trailer.isEmpty()) {
+						// Trailers are ignored
+					}
+					eof = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (n < 0) {
+				throw new EOFException("Chunked body truncated");
+			}
+			chunkRemaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			byte[] skip = new byte[4096];
+			while (read(skip, 0, skip.length) >= 0) {
+				// drain
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.IdeContext.CursorPosition;
+import navicon.gemini.eclipse.companion.IdeContext.OpenFile;
+
+public class ContextDeltaEncoderTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static OpenFile openFile(String path, long timestamp, boolean active) {
+		OpenFile file = new OpenFile();
+		file.filePath = path;
+		file.timestamp = timestamp;
+		file.active = active;
+		return file;
+	}
+
+	private static IdeContext context(String activeFile, OpenFile... openFiles) {
+		IdeContext context = new IdeContext();
+		context.workspacePath = "/ws";
+		context.activeFile = activeFile;
+		context.openFiles = List.of(openFiles);
+		return context;
+	}
+
+	@Test
+	public void firstSnapshotIsSentInFull() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		IdeContext context = context("/ws/a.txt", openFile("/ws/a.txt", 1, true));
+		ContextDeltaEncoder.Update update = encoder.encode(context);
+		assertEquals(ContextDeltaEncoder.FULL_METHOD, update.method);
+		assertSame(context, update.params);
+		assertNull(update.baseline);
+	}
+
+	@Test
+	public void identicalSnapshotIsSkipped() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		encoder.encode(context("/ws/a.txt", openFile("/ws/a.txt", 1, true), openFile("/ws/b.txt", 2, false)));
+		assertNull(encoder.encode(
+				context("/ws/a.txt", openFile("/ws/a.txt", 1, true), openFile("/ws/b.txt", 2, false))));
+	}
+
+	@Test
+	public void deltaHoldsUpsertedAndRemovedFiles() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		IdeContext before = context("/ws/a.txt", openFile("/ws/a.txt", 1, true), openFile("/ws/b.txt", 2, false));
+		encoder.encode(before);
+
+		// a.txt is deactivated, b.txt closed and c.txt opened and activated
+		ContextDeltaEncoder.Update update = encoder.encode(
+				context("/ws/c.txt", openFile("/ws/a.txt", 1, false), openFile("/ws/c.txt", 3, true)));
+		assertEquals(ContextDeltaEncoder.DELTA_METHOD, update.method);
+		assertSame(before, update.baseline);
+
+		JsonNode delta = (JsonNode) update.params;
+		assertEquals("/ws/c.txt", delta.get("activeFile").asText());
+		assertFalse(delta.has("workspacePath"));
+		JsonNode upserted = delta.path("openFiles").path("upserted");
+		assertEquals(2, upserted.size());
+		assertEquals("/ws/a.txt", upserted.get(0).get("filePath").asText());
+		assertFalse(upserted.get(0).get("active").asBoolean());
+		assertEquals("/ws/c.txt", upserted.get(1).get("filePath").asText());
+		assertEquals(3, upserted.get(1).get("timestamp").asLong());
+		assertTrue(upserted.get(1).get("active").asBoolean());
+		JsonNode removed = delta.path("openFiles").path("removed");
+		assertEquals(1, removed.size());
+		assertEquals("/ws/b.txt", removed.get(0).asText());
+	}
+
+	@Test
+	public void unchangedOpenFilesAreLeftOut() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		encoder.encode(context("/ws/a.txt", openFile("/ws/a.txt", 1, true)));
+		IdeContext moved = context("/ws/a.txt", openFile("/ws/a.txt", 1, true));
+		moved.cursorPosition = new CursorPosition();
+		moved.cursorPosition.line = 4;
+		moved.cursorPosition.character = 2;
+
+		JsonNode delta = (JsonNode) encoder.encode(moved).params;
+		assertFalse(delta.has("openFiles"));
+		assertEquals(4, delta.path("cursorPosition").get("line").asInt());
+	}
+
+	@Test
+	public void clearedFieldIsSentAsNull() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		IdeContext selected = context("/ws/a.txt", openFile("/ws/a.txt", 1, true));
+		selected.selectedText = "abc";
+		encoder.encode(selected);
+
+		JsonNode delta = (JsonNode) encoder.encode(context("/ws/a.txt", openFile("/ws/a.txt", 1, true))).params;
+		assertTrue(delta.has("selectedText"));
+		assertTrue(delta.get("selectedText").isNull());
+	}
+
+	@Test
+	public void resyncSendsTheFullContextAgain() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(true);
+		IdeContext context = context("/ws/a.txt", openFile("/ws/a.txt", 1, true));
+		encoder.encode(context);
+		encoder.requestResync();
+		assertNull(encoder.getLastSent());
+
+		ContextDeltaEncoder.Update update = encoder.encode(context("/ws/a.txt", openFile("/ws/a.txt", 1, true)));
+		assertEquals(ContextDeltaEncoder.FULL_METHOD, update.method);
+		assertNull(update.baseline);
+	}
+
+	@Test
+	public void clientsWithoutDeltasGetFullUpdates() {
+		ContextDeltaEncoder encoder = new ContextDeltaEncoder(false);
+		encoder.encode(context("/ws/a.txt", openFile("/ws/a.txt", 1, true)));
+		IdeContext next = context("/ws/b.txt", openFile("/ws/a.txt", 1, false), openFile("/ws/b.txt", 2, true));
+
+		ContextDeltaEncoder.Update update = encoder.encode(next);
+		assertEquals(ContextDeltaEncoder.FULL_METHOD, update.method);
+		assertSame(next, update.params);
+		assertNull(encoder.encode(
+				context("/ws/b.txt", openFile("/ws/a.txt", 1, false), openFile("/ws/b.txt", 2, true))));
+	}
+
+	@Test
+	public void deltaCapabilityIsReadFromInitializeParams() throws Exception {
+		assertTrue(ContextDeltaEncoder.acceptsDeltas(
+				MAPPER.readTree("{\"capabilities\":{\"experimental\":{\"ide/contextDelta\":true}}}")));
+		assertFalse(ContextDeltaEncoder.acceptsDeltas(MAPPER.readTree("{\"capabilities\":{}}")));
+		assertFalse(ContextDeltaEncoder.acceptsDeltas(null));
+	}
+}
@@ -0,0 +1,52 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class DiagnosticsStoreTest {
+
+	@Test
+	public void removalNeedsOnlyTheMarkerId() {
+		DiagnosticsStore store = new DiagnosticsStore();
+		store.load(List.of(diagnostic("/ws/p/A.java", 1, DiagnosticsStore.ERROR)));
+		store.put(diagnostic("/ws/p/B.java", 2, DiagnosticsStore.WARNING));
+		store.drain(100);
+
+		store.remove(1);
+		store.remove(2);
+
+		DiagnosticsStore.Delta delta = store.drain(100);
+		assertEquals(2, delta.removed.size());
+		assertEquals("/ws/p/A.java", delta.removed.get(0).path);
+		assertEquals("/ws/p/B.java", delta.removed.get(1).path);
+		assertEquals(0, delta.errors);
+		assertEquals(0, delta.warnings);
+		assertTrue(store.get(null, DiagnosticsStore.INFO).isEmpty());
+	}
+
+	@Test
+	public void markerStoredUnderANewPathLeavesTheOldOne() {
+		DiagnosticsStore store = new DiagnosticsStore();
+		store.put(diagnostic("/ws/p/A.java", 1, DiagnosticsStore.ERROR));
+		store.drain(100);
+		store.put(diagnostic("/p/A.java", 1, DiagnosticsStore.ERROR));
+
+		assertEquals(1, store.getErrorCount());
+		assertEquals(List.of("/p/A.java"), store.get(null, DiagnosticsStore.INFO).stream().map(d -> d.path).toList());
+		store.remove(1);
+		assertEquals(0, store.getErrorCount());
+	}
+
+	private static DiagnosticsStore.Diagnostic diagnostic(String path, long id, String severity) {
+		DiagnosticsStore.Diagnostic diagnostic = new DiagnosticsStore.Diagnostic();
+		diagnostic.path = path;
+		diagnostic.id = id;
+		diagnostic.severity = severity;
+		diagnostic.message = "problem";
+		return diagnostic;
+	}
+}
@@ -0,0 +1,61 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class LaneExecutorTest {
+
+	@Test
+	public void virtualLaneRejectsBeyondItsBound() throws InterruptedException {
+		LaneExecutor lane = LaneExecutor.create("test", LaneExecutor.MODEL_VIRTUAL, 2, 2);
+		if (!lane.isVirtual()) {
+			lane.shutdownNow();
+		}
+		// Needs a JDK with virtual threads (21+)
+		assumeTrue(lane.isVirtual());
+		rejectsBeyondItsBound(lane);
+	}
+
+	@Test
+	public void pooledLaneRejectsBeyondItsBound() throws InterruptedException {
+		rejectsBeyondItsBound(LaneExecutor.create("test", LaneExecutor.MODEL_POOLED, 2, 2));
+	}
+
+	// Two threads and a queue of two admit four tasks, whichever model runs them
+	private static void rejectsBeyondItsBound(LaneExecutor lane) throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(4);
+		try {
+			for (int i = 0; i < 4; i++) {
+				lane.execute(() -> {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					done.countDown();
+				});
+			}
+			assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> {
+			}));
+			assertEquals(1, lane.getRejectedCount());
+
+			release.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			// The permits of finished tasks are free again
+			CountDownLatch again = new CountDownLatch(1);
+			lane.execute(again::countDown);
+			assertTrue(again.await(5, TimeUnit.SECONDS));
+		} finally {
+			lane.shutdownNow();
+		}
+	}
+}
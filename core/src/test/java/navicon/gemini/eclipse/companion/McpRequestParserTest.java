@@ -0,0 +1,46 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class McpRequestParserTest {
+
+	@Test
+	public void longStringsAreReadWithoutChangingTheSharedMapper() throws IOException {
+		ObjectMapper objectMapper = new ObjectMapper();
+		McpRequestParser parser = new McpRequestParser(objectMapper, 64L * 1024 * 1024);
+		int length = StreamReadConstraints.DEFAULT_MAX_STRING_LEN + 1;
+		String body = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/call\",\"params\":{\"name\":\"openDiff\","
+				+ "\"arguments\":{\"filePath\":\"/p/A.java\",\"newContent\":\"" + "x".repeat(length) + "\"}}}";
+
+		McpRequest request = read(parser, body);
+		assertEquals("openDiff", request.toolName);
+		assertEquals(length, request.arguments.getString("newContent").length());
+		assertEquals(StreamReadConstraints.DEFAULT_MAX_STRING_LEN,
+				objectMapper.getFactory().streamReadConstraints().getMaxStringLength());
+	}
+
+	@Test
+	public void bodiesOverTheLimitAreRejected() {
+		McpRequestParser parser = new McpRequestParser(new ObjectMapper(), 64);
+		String body = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"ping\",\"params\":{\"pad\":\"" + "x".repeat(100) + "\"}}";
+		assertThrows(McpRequestParser.RequestTooLargeException.class, () -> read(parser, body));
+	}
+
+	private static McpRequest read(McpRequestParser parser, String body) throws IOException {
+		try (JsonParser json = parser.createParser(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)))) {
+			json.nextToken();
+			return parser.readRequest(json);
+		}
+	}
+}
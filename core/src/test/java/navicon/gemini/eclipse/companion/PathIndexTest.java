@@ -0,0 +1,36 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class PathIndexTest {
+
+	@Test
+	public void offsetPastTheEndGivesAnEmptyPage() {
+		PathIndex index = new PathIndex();
+		index.add("/p/src/Main.java", "src/Main.java");
+		index.add("/p/src/Util.java", "src/Util.java");
+
+		PathIndex.Page glob = index.glob("*.java", Integer.MAX_VALUE, 100);
+		assertEquals(List.of(), glob.paths);
+		assertEquals(2, glob.total);
+
+		PathIndex.Page fuzzy = index.fuzzy("main", Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+		assertEquals(List.of(), fuzzy.paths);
+		assertEquals(1, fuzzy.total);
+	}
+
+	@Test
+	public void pagesFollowEachOther() {
+		PathIndex index = new PathIndex();
+		index.add("/p/a.txt", "a.txt");
+		index.add("/p/b.txt", "b.txt");
+		index.add("/p/c.txt", "c.txt");
+
+		assertEquals(List.of("a.txt", "b.txt"), index.glob("*.txt", 0, 2).paths);
+		assertEquals(List.of("c.txt"), index.glob("*.txt", 2, 2).paths);
+	}
+}
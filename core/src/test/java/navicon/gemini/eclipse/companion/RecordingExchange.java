@@ -0,0 +1,137 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+// An SSE stream that keeps what is written and can be broken to make the next write fail like a dropped connection
+final class RecordingExchange extends HttpExchange {
+
+	private final Headers requestHeaders = new Headers();
+	private final Headers responseHeaders = new Headers();
+	private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+	private volatile boolean broken;
+	private volatile boolean closed;
+	private final OutputStream body = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			check();
+			written.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			check();
+			written.write(b, off, len);
+		}
+
+		private void check() throws IOException {
+			if (broken) {
+				throw new IOException("Broken pipe");
+			}
+		}
+	};
+
+	void breakStream() {
+		broken = true;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	String getWritten() {
+		return written.toString(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Headers getRequestHeaders() {
+		return requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders() {
+		return responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI() {
+		return URI.create("/mcp");
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return "GET";
+	}
+
+	@Override
+	public HttpContext getHttpContext() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public InputStream getRequestBody() {
+		return InputStream.nullInputStream();
+	}
+
+	@Override
+	public OutputStream getResponseBody() {
+		return body;
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) {
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return InetSocketAddress.createUnresolved("localhost", 0);
+	}
+
+	@Override
+	public int getResponseCode() {
+		return 200;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return InetSocketAddress.createUnresolved("localhost", 0);
+	}
+
+	@Override
+	public String getProtocol() {
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return null;
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+	}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o) {
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal() {
+		return null;
+	}
+}
@@ -0,0 +1,65 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplayBufferTest {
+
+	private static byte[] frame(int size) {
+		return new byte[size];
+	}
+
+	@Test
+	public void oldestEventsAreEvictedByCount() {
+		ReplayBuffer replay = new ReplayBuffer(3, 1 << 20);
+		for (long id = 1; id <= 5; id++) {
+			replay.add(id, new byte[] { (byte) id });
+		}
+		assertEquals(5, replay.lastId());
+		assertEquals(3, replay.getBytes());
+		// Events 3 to 5 are left, so only a client that saw at least event 2 can be replayed
+		assertFalse(replay.covers(1));
+		assertTrue(replay.covers(2));
+		assertTrue(replay.covers(5));
+		assertFalse(replay.covers(6));
+		assertArrayEquals(new byte[] { 3 }, replay.get(3));
+		assertArrayEquals(new byte[] { 5 }, replay.get(5));
+	}
+
+	@Test
+	public void oldestEventsAreEvictedByBytes() {
+		ReplayBuffer replay = new ReplayBuffer(100, 10);
+		replay.add(1, frame(4));
+		replay.add(2, frame(4));
+		replay.add(3, frame(4));
+		assertEquals(8, replay.getBytes());
+		assertFalse(replay.covers(0));
+		assertTrue(replay.covers(1));
+	}
+
+	@Test
+	public void newestEventIsKeptBeyondTheByteBound() {
+		ReplayBuffer replay = new ReplayBuffer(100, 10);
+		replay.add(1, frame(4));
+		replay.add(2, frame(50));
+		assertEquals(50, replay.getBytes());
+		assertEquals(2, replay.lastId());
+		assertTrue(replay.covers(1));
+		assertFalse(replay.covers(0));
+	}
+
+	@Test
+	public void disabledBufferCoversOnlyTheLatestEvent() {
+		ReplayBuffer replay = new ReplayBuffer(0, 1 << 20);
+		assertFalse(replay.isEnabled());
+		replay.add(1, null);
+		replay.add(2, null);
+		assertEquals(2, replay.lastId());
+		assertTrue(replay.covers(2));
+		assertFalse(replay.covers(1));
+	}
+}
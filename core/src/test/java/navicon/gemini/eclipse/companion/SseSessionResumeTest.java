@@ -0,0 +1,118 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.IdeContext.OpenFile;
+
+// Drains run on the calling thread, so every send has been written or buffered when it returns
+public class SseSessionResumeTest {
+
+	private static SseSessionRegistry registry(int replayEvents) {
+		return new SseSessionRegistry(new JsonCodec(new ObjectMapper()), Runnable::run, 16, replayEvents, 1 << 20,
+				new ServerMetrics());
+	}
+
+	private static IdeContext context(String activeFile) {
+		OpenFile file = new OpenFile();
+		file.filePath = activeFile;
+		file.timestamp = 1;
+		file.active = true;
+		IdeContext context = new IdeContext();
+		context.workspacePath = "/ws";
+		context.activeFile = activeFile;
+		context.openFiles = List.of(file);
+		return context;
+	}
+
+	private static void send(SseSession session, int n) {
+		session.sendNotification("test/event" + n, Map.of("n", n), false);
+	}
+
+	@Test
+	public void resumeReplaysOnlyTheMissedEvents() {
+		SseSessionRegistry sessions = registry(8);
+		RecordingExchange first = new RecordingExchange();
+		SseSession session = sessions.open(first, "s1", false);
+		send(session, 1);
+		send(session, 2);
+
+		// The write of event 3 fails; it is buffered along with event 4 sent while detached
+		first.breakStream();
+		send(session, 3);
+		assertTrue(session.isDetached());
+		assertTrue(first.isClosed());
+		send(session, 4);
+
+		RecordingExchange second = new RecordingExchange();
+		assertSame(session, sessions.resume("s1", second, "2"));
+		assertFalse(session.isDetached());
+		String replayed = second.getWritten();
+		assertFalse(replayed.contains("test/event2"), replayed);
+		assertTrue(replayed.startsWith("id: 3\n"), replayed);
+		assertTrue(replayed.contains("test/event3"), replayed);
+		assertTrue(replayed.contains("id: 4\n"), replayed);
+		assertTrue(replayed.indexOf("test/event3") < replayed.indexOf("test/event4"), replayed);
+
+		send(session, 5);
+		assertTrue(second.getWritten().contains("id: 5\n"), second.getWritten());
+	}
+
+	@Test
+	public void resumeFromAnEvictedEventSendsTheFullContext() {
+		SseSessionRegistry sessions = registry(2);
+		RecordingExchange first = new RecordingExchange();
+		SseSession session = sessions.open(first, "s1", true);
+		session.sendContext(context("/ws/a.txt"));
+
+		first.breakStream();
+		session.sendContext(context("/ws/b.txt"));
+		send(session, 3);
+		send(session, 4);
+
+		// Events 2 and 3 are gone, so the client gets the context it should hold instead
+		RecordingExchange second = new RecordingExchange();
+		assertSame(session, sessions.resume("s1", second, "1"));
+		String written = second.getWritten();
+		assertTrue(written.startsWith("id: 5\n"), written);
+		assertTrue(written.contains(ContextDeltaEncoder.FULL_METHOD), written);
+		assertTrue(written.contains("/ws/b.txt"), written);
+		assertFalse(written.contains("test/event"), written);
+
+		// Later changes are deltas against the resent context
+		session.sendContext(context("/ws/c.txt"));
+		assertTrue(second.getWritten().contains(ContextDeltaEncoder.DELTA_METHOD), second.getWritten());
+	}
+
+	@Test
+	public void resumeWithoutLastEventIdSendsTheFullContext() {
+		SseSessionRegistry sessions = registry(8);
+		SseSession session = sessions.open(new RecordingExchange(), "s1", true);
+		session.sendContext(context("/ws/a.txt"));
+
+		RecordingExchange second = new RecordingExchange();
+		assertSame(session, sessions.resume("s1", second, null));
+		assertTrue(second.getWritten().contains(ContextDeltaEncoder.FULL_METHOD), second.getWritten());
+	}
+
+	@Test
+	public void unknownOrClosedSessionsAreNotResumed() {
+		SseSessionRegistry sessions = registry(8);
+		assertNull(sessions.resume("missing", new RecordingExchange(), "1"));
+
+		SseSession session = sessions.open(new RecordingExchange(), "s1", false);
+		session.close();
+		RecordingExchange second = new RecordingExchange();
+		assertNull(sessions.resume("s1", second, "1"));
+		assertFalse(second.isClosed());
+	}
+}
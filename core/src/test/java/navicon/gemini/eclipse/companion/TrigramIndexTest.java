@@ -0,0 +1,54 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+// Pruning with requiredLiterals must never drop a file the regex matches
+public class TrigramIndexTest {
+
+	// Each text matches its regex; the escapes' operands are not in the text as written
+	private static final String[][] MATCHES = {
+			{ "\\x41BCD", "ABCD" },
+			{ "\\x{41}BCD", "ABCD" },
+			{ "\\u0041BCD", "ABCD" },
+			{ "\\0101bcd", "Abcd" },
+			{ "\\cJabc", "\nabc" },
+			{ "(?<name>ab)foo\\k<name>", "abfooab" },
+			{ "\\p{Lu}xyz", "Axyz" },
+			{ "\\pLxyz", "Axyz" },
+			{ "\\P{Lu}xyz", "axyz" },
+			{ "\\N{LATIN SMALL LETTER A}bcd", "abcd" },
+			{ "\\x41+BCD", "AAABCD" },
+			{ "foo\\.bar", "foo.bar" },
+	};
+
+	@Test
+	public void candidatesIncludeEveryMatch() {
+		for (String[] match : MATCHES) {
+			String regex = match[0];
+			String text = match[1];
+			assertTrue(Pattern.compile(regex).matcher(text).find(), regex);
+			TrigramIndex index = new TrigramIndex(1 << 20);
+			index.put("/p/a.txt", "a.txt", text);
+			index.put("/p/other.txt", "other.txt", "nothing to see here");
+			List<TrigramIndex.Document> candidates = index.candidates(TrigramIndex.requiredLiterals(regex));
+			assertTrue(candidates == null || candidates.stream().anyMatch(doc -> doc.key.equals("/p/a.txt")),
+					regex + " pruned a matching file");
+		}
+	}
+
+	@Test
+	public void escapeOperandsAreNotLiterals() {
+		assertEquals(List.of("BCD"), TrigramIndex.requiredLiterals("\\x41BCD"));
+		assertEquals(List.of("BCD"), TrigramIndex.requiredLiterals("\\u0041BCD"));
+		assertEquals(List.of("bcd"), TrigramIndex.requiredLiterals("\\0101bcd"));
+		assertEquals(List.of("foo"), TrigramIndex.requiredLiterals("foo\\k<name>"));
+		assertEquals(List.of("xyz"), TrigramIndex.requiredLiterals("\\p{Lu}xyz"));
+		assertEquals(List.of("foo.bar"), TrigramIndex.requiredLiterals("foo\\.bar"));
+	}
+}
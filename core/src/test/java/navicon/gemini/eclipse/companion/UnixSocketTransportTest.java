@@ -0,0 +1,127 @@
+package navicon.gemini.eclipse.companion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class UnixSocketTransportTest {
+
+	@TempDir
+	Path tempDir;
+	private ExecutorService executor;
+	private UnixSocketTransport transport;
+
+	@BeforeEach
+	public void start() throws IOException {
+		assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		executor = Executors.newCachedThreadPool();
+		transport = new UnixSocketTransport(tempDir.resolve("server").resolve("mcp.sock"), executor, 1024, 300,
+				new ServerMetrics());
+		transport.createContext("/ok", exchange -> {
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		transport.start();
+	}
+
+	@AfterEach
+	public void stop() {
+		if (transport != null) {
+			transport.stop();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void socketDirectoryIsPrivate() throws IOException {
+		assertEquals("rwx------",
+				PosixFilePermissions.toString(Files.getPosixFilePermissions(transport.getSocketPath().getParent())));
+	}
+
+	@Test
+	public void requestsAreServed() throws IOException {
+		try (SocketChannel channel = connect()) {
+			write(channel, "GET /ok HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			assertTrue(readAll(channel, 5000).startsWith("HTTP/1.1 200"));
+		}
+	}
+
+	@Test
+	public void stalledRequestIsClosed() throws IOException {
+		try (SocketChannel channel = connect()) {
+			write(channel, "GET /ok HTTP/1.1\r\nHost: loc");
+			long start = System.nanoTime();
+			assertEquals("", readAll(channel, 5000));
+			assertTrue(System.nanoTime() - start < 4_000_000_000L, "closed by the timeout");
+		}
+	}
+
+	@Test
+	public void idleConnectionIsClosed() throws IOException {
+		try (SocketChannel channel = connect()) {
+			long start = System.nanoTime();
+			assertEquals("", readAll(channel, 5000));
+			assertTrue(System.nanoTime() - start < 4_000_000_000L, "closed by the timeout");
+		}
+	}
+
+	private SocketChannel connect() throws IOException {
+		SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.connect(UnixDomainSocketAddress.of(transport.getSocketPath()));
+		return channel;
+	}
+
+	private static void write(SocketChannel channel, String text) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	// Everything up to end of stream or the first response, whichever comes first
+	private static String readAll(SocketChannel channel, long timeoutMs) throws IOException {
+		StringBuilder text = new StringBuilder();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		channel.configureBlocking(false);
+		long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+		while (System.nanoTime() < deadline) {
+			int n = channel.read(buffer);
+			if (n < 0) {
+				break;
+			}
+			if (n > 0) {
+				text.append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+				buffer.clear();
+				if (text.indexOf("\r\n\r\n") >= 0) {
+					break;
+				}
+			} else {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		return text.toString();
+	}
+}
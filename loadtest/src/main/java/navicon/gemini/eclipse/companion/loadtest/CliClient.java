@@ -0,0 +1,215 @@
+package navicon.gemini.eclipse.companion.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import navicon.gemini.eclipse.companion.ContextDeltaEncoder;
+import navicon.gemini.eclipse.companion.SseSessionRegistry;
+
+// Talks to the companion the way the Gemini CLI does: initialize is POSTed with the discovery file's
+// token and answered with the SSE stream that carries the result and every notification after it,
+// the other requests are POSTed with the session id and answered with plain JSON, and DELETE ends
+// the session. The stream is read on its own thread; context notifications are timed against the
+// ContextTraceSource when there is one.
+public class CliClient implements AutoCloseable {
+
+	private static final String ACCEPT = "application/json, text/event-stream";
+
+	private final HttpClient httpClient;
+	private final URI endpoint;
+	private final String authToken;
+	private final ObjectMapper objectMapper;
+	private final LoadReport report;
+	private final ContextTraceSource traceSource;
+	private final boolean contextDeltas;
+	private final AtomicLong nextId = new AtomicLong(1);
+	private final CompletableFuture<JsonNode> initializeResult = new CompletableFuture<>();
+	private volatile String sessionId;
+	private volatile InputStream stream;
+	private volatile boolean closed;
+	private Thread reader;
+	// Newest trace stamp seen on the stream, only touched by the reader thread
+	private long lastStamp;
+
+	// With contextDeltas the client announces that it applies ide/contextDelta, which the Gemini CLI does not
+	public CliClient(HttpClient httpClient, int port, String authToken, ObjectMapper objectMapper, LoadReport report,
+			ContextTraceSource traceSource, boolean contextDeltas) {
+		this.httpClient = httpClient;
+		this.endpoint = URI.create("http://127.0.0.1:" + port + "/mcp");
+		this.authToken = authToken;
+		this.objectMapper = objectMapper;
+		this.report = report;
+		this.traceSource = traceSource;
+		this.contextDeltas = contextDeltas;
+	}
+
+	// Opens the stream and waits for the initialize result on it
+	public void connect(long timeoutMs) throws Exception {
+		ObjectNode params = objectMapper.createObjectNode();
+		params.put("protocolVersion", "2025-06-18");
+		ObjectNode capabilities = params.putObject("capabilities");
+		if (contextDeltas) {
+			capabilities.putObject("experimental").put(ContextDeltaEncoder.DELTA_CAPABILITY, true);
+		}
+		params.putObject("clientInfo").put("name", "gemini-companion-loadtest").put("version", "1.0.0");
+		long id = nextId.getAndIncrement();
+		HttpRequest request = post(message(id, "initialize", params)).build();
+		HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+		if (response.statusCode() != 200) {
+			response.body().close();
+			throw new IOException("initialize failed with HTTP " + response.statusCode());
+		}
+		sessionId = response.headers().firstValue(SseSessionRegistry.SESSION_HEADER)
+				.orElseThrow(() -> new IOException("initialize response has no session id"));
+		stream = response.body();
+		reader = new Thread(this::readStream, "SSE-" + sessionId);
+		reader.setDaemon(true);
+		reader.start();
+		JsonNode result = initializeResult.get(timeoutMs, TimeUnit.MILLISECONDS);
+		if (result.has("error")) {
+			throw new IOException("initialize failed: " + result.get("error"));
+		}
+	}
+
+	// Sends one request and waits for its response; returns false when it failed or the tool reported an error
+	public boolean call(String method, JsonNode params) {
+		try {
+			HttpRequest request = post(message(nextId.getAndIncrement(), method, params))
+					.header(SseSessionRegistry.SESSION_HEADER, sessionId).build();
+			HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			if (response.statusCode() != 200) {
+				return false;
+			}
+			JsonNode body = objectMapper.readTree(response.body());
+			return !body.has("error") && !body.path("result").path("isError").asBoolean(false);
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		if (sessionId != null) {
+			try {
+				HttpRequest request = HttpRequest.newBuilder(endpoint).timeout(Duration.ofSeconds(5))
+						.header("Authorization", "Bearer " + authToken)
+						.header(SseSessionRegistry.SESSION_HEADER, sessionId).DELETE().build();
+				httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+			} catch (IOException e) {
+				// The server may already be gone
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		InputStream in = stream;
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+	}
+
+	private HttpRequest.Builder post(byte[] body) {
+		return HttpRequest.newBuilder(endpoint).header("Authorization", "Bearer " + authToken)
+				.header("Content-Type", "application/json").header("Accept", ACCEPT)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+	}
+
+	private byte[] message(long id, String method, JsonNode params) throws IOException {
+		ObjectNode message = objectMapper.createObjectNode();
+		message.put("jsonrpc", "2.0");
+		message.put("id", id);
+		message.put("method", method);
+		if (params != null) {
+			message.set("params", params);
+		}
+		return objectMapper.writeValueAsBytes(message);
+	}
+
+	// --- SSE Stream ---
+
+	private void readStream() {
+		StringBuilder data = new StringBuilder();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					if (data.length() > 0) {
+						onEvent(data.toString(), System.nanoTime());
+						data.setLength(0);
+					}
+				} else if (line.startsWith("data:")) {
+					if (data.length() > 0) {
+						data.append('\n');
+					}
+					data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+				}
+				// id: lines and keep-alive comments need no handling; this client never resumes
+			}
+			if (!closed) {
+				report.recordStreamFailure();
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				report.recordStreamFailure();
+			}
+		}
+		initializeResult.completeExceptionally(new IOException("Stream ended before the initialize result"));
+	}
+
+	private void onEvent(String data, long arrivalNanos) throws IOException {
+		JsonNode message = objectMapper.readTree(data);
+		String method = message.path("method").asText(null);
+		if (method == null) {
+			initializeResult.complete(message);
+			return;
+		}
+		JsonNode params = message.path("params");
+		long newest;
+		if (ContextDeltaEncoder.FULL_METHOD.equals(method)) {
+			newest = newestStamp(params.path("openFiles"));
+		} else if (ContextDeltaEncoder.DELTA_METHOD.equals(method)) {
+			newest = newestStamp(params.path("openFiles").path("upserted"));
+		} else {
+			return;
+		}
+		long lag = -1;
+		if (traceSource != null && newest > lastStamp) {
+			// The first update carries changes made before this client connected
+			if (lastStamp > 0) {
+				lag = traceSource.lagSince(lastStamp, newest, arrivalNanos);
+			}
+			lastStamp = newest;
+		}
+		report.recordContextEvent(data.length(), lag);
+	}
+
+	private static long newestStamp(JsonNode files) {
+		long newest = 0;
+		for (JsonNode file : files) {
+			newest = Math.max(newest, file.path("timestamp").asLong());
+		}
+		return newest;
+	}
+}
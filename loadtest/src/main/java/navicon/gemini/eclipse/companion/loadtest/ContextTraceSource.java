@@ -0,0 +1,253 @@
+package navicon.gemini.eclipse.companion.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import navicon.gemini.eclipse.companion.CompanionSettings;
+import navicon.gemini.eclipse.companion.IdeContext;
+import navicon.gemini.eclipse.companion.IdeContext.CursorPosition;
+import navicon.gemini.eclipse.companion.IdeContext.OpenFile;
+import navicon.gemini.eclipse.companion.IdeContext.SelectionInfo;
+
+// Plays the part of the workbench listeners: replays a recorded trace of part activations, editor
+// opens and closes and selection changes (one JSON object per line, see TraceEvent), or generates a
+// random editing session when there is no trace. Every change publishes a new IdeContext snapshot.
+//
+// The active file's timestamp is stamped with a strictly increasing millisecond value at publish
+// time, so a client that sees a timestamp knows exactly which changes the update includes and
+// lagSince() can tell how long the oldest of them waited to be delivered.
+public class ContextTraceSource {
+
+	public static class TraceEvent {
+		// Time since the previous event
+		public long delayMs;
+		// activate, open, close or selection
+		public String type;
+		public String filePath;
+		public int line;
+		public int character;
+		public int length;
+	}
+
+	private final List<TraceEvent> trace;
+	private final double speed;
+	private final Consumer<IdeContext> publisher;
+	private final Random random = new Random(42);
+	private final ConcurrentSkipListMap<Long, Long> publishedNanos = new ConcurrentSkipListMap<>();
+	private final List<OpenFile> openFiles = new ArrayList<>();
+	private CursorPosition cursor;
+	private SelectionInfo selection;
+	private String selectedText;
+	private long lastStamp;
+	private Thread thread;
+	private volatile boolean running;
+
+	public ContextTraceSource(List<TraceEvent> trace, double speed, Consumer<IdeContext> publisher) {
+		this.trace = trace;
+		this.speed = speed <= 0 ? 1 : speed;
+		this.publisher = publisher;
+	}
+
+	public static List<TraceEvent> readTrace(Path file, ObjectMapper objectMapper) throws IOException {
+		List<TraceEvent> events = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					events.add(objectMapper.readValue(line, TraceEvent.class));
+				}
+			}
+		}
+		return events;
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(this::run, "Context-Trace");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	public long getPublishedCount() {
+		return publishedNanos.size();
+	}
+
+	// How long the first change after previousStamp had waited when an update carrying newestStamp
+	// arrived, or -1 when the update brings nothing new
+	public long lagSince(long previousStamp, long newestStamp, long arrivalNanos) {
+		Map.Entry<Long, Long> oldestUnseen = publishedNanos.higherEntry(previousStamp);
+		if (oldestUnseen == null || oldestUnseen.getKey() > newestStamp) {
+			return -1;
+		}
+		return arrivalNanos - oldestUnseen.getValue();
+	}
+
+	private void run() {
+		try {
+			int index = 0;
+			while (running) {
+				TraceEvent event = trace.isEmpty() ? randomEvent() : trace.get(index++ % trace.size());
+				long delay = (long) (event.delayMs / speed);
+				if (delay > 0) {
+					TimeUnit.MILLISECONDS.sleep(delay);
+				}
+				if (apply(event)) {
+					publish();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	// --- Editor Model ---
+
+	private boolean apply(TraceEvent event) {
+		switch (event.type == null ? "" : event.type) {
+		case "open":
+		case "activate":
+			OpenFile file = remove(event.filePath);
+			if (file == null) {
+				file = new OpenFile();
+				file.filePath = event.filePath;
+			}
+			openFiles.add(0, file);
+			cursor = null;
+			selection = null;
+			selectedText = null;
+			return true;
+		case "close":
+			boolean wasActive = !openFiles.isEmpty() && openFiles.get(0).filePath.equals(event.filePath);
+			if (remove(event.filePath) == null) {
+				return false;
+			}
+			if (wasActive) {
+				cursor = null;
+				selection = null;
+				selectedText = null;
+			}
+			return true;
+		case "selection":
+			if (openFiles.isEmpty()) {
+				return false;
+			}
+			cursor = new CursorPosition();
+			cursor.line = event.line;
+			cursor.character = event.character;
+			if (event.length > 0) {
+				String text = "x".repeat(event.length);
+				selection = new SelectionInfo();
+				selection.offset = event.line * 80 + event.character;
+				selection.length = event.length;
+				selection.hash = sha256(text);
+				int max = CompanionSettings.maxInlineSelectionChars();
+				selection.truncated = text.length() > max;
+				selectedText = selection.truncated ? text.substring(0, max) : text;
+			} else {
+				selection = null;
+				selectedText = null;
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private OpenFile remove(String filePath) {
+		for (int i = 0; i < openFiles.size(); i++) {
+			if (openFiles.get(i).filePath.equals(filePath)) {
+				return openFiles.remove(i);
+			}
+		}
+		return null;
+	}
+
+	// Copies the model into a snapshot that is never modified afterwards, as the UI thread capture does
+	private void publish() {
+		long stamp = Math.max(System.currentTimeMillis(), lastStamp + 1);
+		lastStamp = stamp;
+		IdeContext context = new IdeContext();
+		context.workspacePath = "/workspace";
+		context.openFiles = new ArrayList<>();
+		for (int i = 0; i < openFiles.size(); i++) {
+			OpenFile original = openFiles.get(i);
+			if (i == 0) {
+				original.timestamp = stamp;
+			}
+			OpenFile copy = new OpenFile();
+			copy.filePath = original.filePath;
+			copy.timestamp = original.timestamp;
+			copy.active = i == 0;
+			context.openFiles.add(copy);
+		}
+		context.activeFile = openFiles.isEmpty() ? null : openFiles.get(0).filePath;
+		context.cursorPosition = cursor;
+		context.selection = selection;
+		context.selectedText = selectedText;
+		publishedNanos.put(stamp, System.nanoTime());
+		publisher.accept(context);
+	}
+
+	// --- Synthetic Session ---
+
+	// Mostly selection changes in the active editor, now and then switching to another open editor,
+	// opening a new one or closing the oldest
+	private TraceEvent randomEvent() {
+		TraceEvent event = new TraceEvent();
+		event.delayMs = 20 + random.nextInt(180);
+		int roll = random.nextInt(100);
+		if (openFiles.isEmpty() || roll < 5) {
+			event.type = "open";
+			event.filePath = syntheticPath(random.nextInt(1000));
+		} else if (roll < 8 && openFiles.size() > 3) {
+			event.type = "close";
+			event.filePath = openFiles.get(openFiles.size() - 1).filePath;
+		} else if (roll < 25) {
+			event.type = "activate";
+			event.filePath = openFiles.get(random.nextInt(openFiles.size())).filePath;
+		} else {
+			event.type = "selection";
+			event.line = random.nextInt(500);
+			event.character = random.nextInt(80);
+			event.length = random.nextInt(4) == 0 ? random.nextInt(2000) : 0;
+		}
+		return event;
+	}
+
+	static String syntheticPath(int i) {
+		return "/workspace/project" + (i % 10) + "/src/main/java/com/example/module" + (i / 100) + "/Component" + i
+				+ ".java";
+	}
+
+	private static String sha256(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package navicon.gemini.eclipse.companion.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+import navicon.gemini.eclipse.companion.CompanionSettings;
+import navicon.gemini.eclipse.companion.CoalescingScheduler;
+import navicon.gemini.eclipse.companion.DiagnosticsStore;
+import navicon.gemini.eclipse.companion.FileContentReader;
+import navicon.gemini.eclipse.companion.FindFilesTool;
+import navicon.gemini.eclipse.companion.GetDiagnosticsTool;
+import navicon.gemini.eclipse.companion.GetServerStatsTool;
+import navicon.gemini.eclipse.companion.HeartbeatService;
+import navicon.gemini.eclipse.companion.IdeContext;
+import navicon.gemini.eclipse.companion.JsonCodec;
+import navicon.gemini.eclipse.companion.LaneExecutor;
+import navicon.gemini.eclipse.companion.ManagedFile;
+import navicon.gemini.eclipse.companion.McpDispatcher;
+import navicon.gemini.eclipse.companion.McpHttpHandler;
+import navicon.gemini.eclipse.companion.McpRequestParser;
+import navicon.gemini.eclipse.companion.PathIndex;
+import navicon.gemini.eclipse.companion.ReadFileTool;
+import navicon.gemini.eclipse.companion.ServerMetrics;
+import navicon.gemini.eclipse.companion.SseSessionRegistry;
+import navicon.gemini.eclipse.companion.ToolRegistry;
+
+// The companion server without Eclipse: the same HTTP handler, dispatcher, session registry, executors
+// and context scheduling as the plugin, with a synthetic workspace for findFiles, files on disk for
+// readFile and contexts from a ContextTraceSource instead of the workbench. The discovery file goes
+// into its own directory so a real Gemini CLI never picks this server up.
+public class HeadlessServer {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final JsonCodec codec = new JsonCodec(objectMapper);
+	private final ServerMetrics metrics = new ServerMetrics();
+	private final ToolRegistry toolRegistry = new ToolRegistry(objectMapper);
+	private final String authToken = UUID.randomUUID().toString();
+	private final AtomicReference<IdeContext> context = new AtomicReference<>();
+	private final AtomicReference<Runnable> captureListener = new AtomicReference<>();
+	private HttpServer server;
+	private ScheduledExecutorService scheduler;
+	private LaneExecutor requestLane;
+	private LaneExecutor streamLane;
+	private LaneExecutor connectionLane;
+	private SseSessionRegistry sessions;
+	private HeartbeatService heartbeatService;
+	private CoalescingScheduler contextUpdateScheduler;
+	private ManagedFile discoveryFile;
+
+	public HeadlessServer(int workspaceFiles) {
+		PathIndex index = new PathIndex();
+		for (int i = 0; i < workspaceFiles; i++) {
+			String key = "/project" + (i % 10) + "/src/main/java/com/example/module" + (i / 100) + "/Component" + i
+					+ ".java";
+			index.add(key, "/workspace" + key);
+		}
+		toolRegistry.register(new FindFilesTool(index, () -> true, objectMapper));
+		toolRegistry.register(new GetDiagnosticsTool(new DiagnosticsStore(), objectMapper));
+		toolRegistry.register(new ReadFileTool(new FileContentReader(new FileContentReader.Buffers() {
+			@Override
+			public String dirtyContent(String filePath) {
+				return null;
+			}
+
+			@Override
+			public Charset charset(String filePath) {
+				return StandardCharsets.UTF_8;
+			}
+
+			@Override
+			public boolean isReadable(String filePath) {
+				// Scenarios name the files they read; the server only listens on loopback for this process
+				return true;
+			}
+		}), objectMapper));
+		toolRegistry.register(new GetServerStatsTool(metrics, objectMapper));
+	}
+
+	public void start() throws IOException {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Headless-Scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+		String executionModel = CompanionSettings.executionModel();
+		requestLane = LaneExecutor.create("Headless-MCP-Request", executionModel, CompanionSettings.requestThreads(),
+				CompanionSettings.requestQueueCapacity());
+		streamLane = LaneExecutor.create("Headless-SSE-Writer", executionModel, CompanionSettings.streamThreads(),
+				1024);
+		McpDispatcher dispatcher = new McpDispatcher(toolRegistry, requestLane, metrics);
+		sessions = new SseSessionRegistry(codec, streamLane, CompanionSettings.sseQueueCapacity(),
+				CompanionSettings.replayBufferEvents(), CompanionSettings.replayBufferBytes(), metrics);
+		heartbeatService = new HeartbeatService(sessions, CompanionSettings.keepAliveIntervalMs(),
+				CompanionSettings.writeStallTimeoutMs(), CompanionSettings.sessionResumeTimeoutMs(), metrics);
+		heartbeatService.start(scheduler);
+		contextUpdateScheduler = new CoalescingScheduler(scheduler, CompanionSettings.contextUpdateIntervalMs(),
+				this::captureAndSendContext, "contextUpdate", metrics);
+		McpHttpHandler handler = new McpHttpHandler(new McpRequestParser(objectMapper,
+				CompanionSettings.maxRequestBytes()), dispatcher, sessions, codec, metrics, authToken,
+				this::captureAndSendContext);
+		CompanionSettings.enableHttpNoDelay();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/mcp", handler.onLane(requestLane, handler::handleMcp));
+		server.createContext("/metrics", handler.onLane(requestLane, handler::handleMetrics));
+		connectionLane = LaneExecutor.createUnbounded("Headless-HTTP", executionModel);
+		server.setExecutor(connectionLane);
+		server.start();
+		writeDiscoveryFile();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+		if (heartbeatService != null) {
+			heartbeatService.stop();
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (sessions != null) {
+			sessions.closeAll();
+		}
+		if (requestLane != null) {
+			requestLane.shutdownNow();
+			streamLane.shutdownNow();
+		}
+		if (connectionLane != null) {
+			connectionLane.shutdownNow();
+		}
+		if (discoveryFile != null) {
+			try {
+				discoveryFile.delete();
+				Files.deleteIfExists(discoveryFile.getPath().getParent());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public Path getDiscoveryFile() {
+		return discoveryFile.getPath();
+	}
+
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Takes the place of the workbench listeners: the snapshot is sent at most once per interval
+	public void updateContext(IdeContext snapshot) {
+		context.set(snapshot);
+		contextUpdateScheduler.requestFlush();
+	}
+
+	// Called right before a snapshot is handed to the sessions
+	public void setCaptureListener(Runnable listener) {
+		captureListener.set(listener);
+	}
+
+	private void captureAndSendContext() {
+		IdeContext snapshot = context.get();
+		if (snapshot == null || sessions.isEmpty()) {
+			return;
+		}
+		Runnable listener = captureListener.get();
+		if (listener != null) {
+			listener.run();
+		}
+		sessions.broadcastContext(snapshot);
+	}
+
+	private void writeDiscoveryFile() throws IOException {
+		int port = server.getAddress().getPort();
+		ObjectNode content = objectMapper.createObjectNode();
+		content.put("port", port);
+		content.put("workspacePath", "/workspace");
+		content.put("authToken", authToken);
+		content.putObject("ideInfo").put("name", "headless").put("displayName", "Headless load test server");
+		Path directory = Files.createTempDirectory("gemini-loadtest");
+		discoveryFile = new ManagedFile(directory.resolve(
+				String.format("gemini-ide-server-%d-%d.json", ProcessHandle.current().pid(), port)));
+		discoveryFile.update(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(content));
+	}
+}
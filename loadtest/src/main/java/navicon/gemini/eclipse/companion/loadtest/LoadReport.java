@@ -0,0 +1,108 @@
+package navicon.gemini.eclipse.companion.loadtest;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import navicon.gemini.eclipse.companion.LatencyHistogram;
+
+// What the clients measured: latency per request kind, the delay between a context change in the
+// trace and its arrival at a client, and the context events received. Nothing is recorded until
+// startMeasuring(), so the warmup does not show up in the numbers.
+public class LoadReport {
+
+	private final Map<String, Stats> requests = new ConcurrentHashMap<>();
+	private final LatencyHistogram contextLag = new LatencyHistogram();
+	private final LongAdder contextEvents = new LongAdder();
+	private final LongAdder contextBytes = new LongAdder();
+	private final LongAdder streamFailures = new LongAdder();
+	private volatile boolean measuring;
+	private volatile long startNanos;
+	private volatile long endNanos;
+
+	public static class Stats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public final LongAdder errors = new LongAdder();
+	}
+
+	public void startMeasuring() {
+		startNanos = System.nanoTime();
+		measuring = true;
+	}
+
+	public void stopMeasuring() {
+		endNanos = System.nanoTime();
+		measuring = false;
+	}
+
+	public boolean isMeasuring() {
+		return measuring;
+	}
+
+	public void recordRequest(String name, long nanos, boolean error) {
+		if (!measuring) {
+			return;
+		}
+		Stats stats = requests.computeIfAbsent(name, k -> new Stats());
+		stats.latency.record(nanos);
+		if (error) {
+			stats.errors.increment();
+		}
+	}
+
+	public void recordContextEvent(int bytes, long lagNanos) {
+		if (!measuring) {
+			return;
+		}
+		contextEvents.increment();
+		contextBytes.add(bytes);
+		if (lagNanos >= 0) {
+			contextLag.record(lagNanos);
+		}
+	}
+
+	public void recordStreamFailure() {
+		streamFailures.increment();
+	}
+
+	public void print(PrintStream out, int clients) {
+		double seconds = Math.max(1, endNanos - startNanos) / 1e9;
+		out.printf("%d clients, %.1f s measured%n%n", clients, seconds);
+		out.printf("%-24s %10s %9s %8s %9s %9s %9s %9s %9s%n", "request", "count", "req/s", "errors", "mean ms",
+				"p50 ms", "p99 ms", "p999 ms", "max ms");
+		long totalCount = 0;
+		long totalErrors = 0;
+		for (Map.Entry<String, Stats> entry : new TreeMap<>(requests).entrySet()) {
+			LatencyHistogram.Snapshot snapshot = entry.getValue().latency.snapshot();
+			long errors = entry.getValue().errors.sum();
+			printRow(out, entry.getKey(), snapshot, errors, seconds);
+			totalCount += snapshot.count;
+			totalErrors += errors;
+		}
+		out.printf("%-24s %10d %9.1f %8d%n", "total", totalCount, totalCount / seconds, totalErrors);
+
+		out.println();
+		LatencyHistogram.Snapshot lag = contextLag.snapshot();
+		out.printf("context events: %d received (%.1f/s, %.1f KB/s), %d stream failures%n", contextEvents.sum(),
+				contextEvents.sum() / seconds, contextBytes.sum() / seconds / 1024, streamFailures.sum());
+		if (lag.count > 0) {
+			out.printf("context delivery lag: mean %s, p50 %s, p99 %s, p999 %s, max %s ms (%d samples)%n",
+					millis(lag.mean()), millis(lag.percentile(0.5)), millis(lag.percentile(0.99)),
+					millis(lag.percentile(0.999)), millis(lag.max()), lag.count);
+		}
+	}
+
+	private static void printRow(PrintStream out, String name, LatencyHistogram.Snapshot snapshot, long errors,
+			double seconds) {
+		out.printf("%-24s %10d %9.1f %8d %9s %9s %9s %9s %9s%n", name, snapshot.count, snapshot.count / seconds,
+				errors, millis(snapshot.mean()), millis(snapshot.percentile(0.5)), millis(snapshot.percentile(0.99)),
+				millis(snapshot.percentile(0.999)), millis(snapshot.max()));
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -0,0 +1,319 @@
+package navicon.gemini.eclipse.companion.loadtest;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Drives a companion server with many concurrent stand-in CLI clients. Each client initializes its own
+// session and then sends requests back to back, picked at random from a weighted mix, while its SSE
+// stream collects context notifications. With --headless the server is the Eclipse-free core started
+// in this JVM and a ContextTraceSource feeds it editor activity, which also makes the context delivery
+// lag measurable; otherwise the target is the IDE named by a discovery file.
+public class LoadTest {
+
+	private static final String USAGE = String.join("\n",
+			"Usage: java -jar loadtest.jar [options]",
+			"  --discovery <file>    discovery file of the server to test; the newest one in <tmp>/gemini/ide",
+			"                        is used when neither this nor --headless is given",
+			"  --headless            start the headless core server in this JVM instead",
+			"  --files <n>           workspace files the headless server indexes (20000)",
+			"  --clients <n>         concurrent clients (16)",
+			"  --duration <s>        measured seconds (30)",
+			"  --warmup <s>          seconds to run before measuring (5)",
+			"  --mix <spec>          weighted requests, e.g. tools/list=5,findFiles=3,getServerStats=1",
+			"  --scenario <file>     JSON {\"requests\": [{name, weight, method | tool, arguments}]}",
+			"  --trace <file>        JSON lines of editor events to replay (headless only)",
+			"  --trace-speed <x>     replay speed factor (1.0)",
+			"  --context-deltas      clients accept ide/contextDelta instead of full updates");
+
+	public static class Options {
+		public Path discovery;
+		public boolean headless;
+		public int files = 20000;
+		public int clients = 16;
+		public int durationSeconds = 30;
+		public int warmupSeconds = 5;
+		public String mix = "tools/list=4,findFiles=4,getDiagnostics=1,getServerStats=1";
+		public Path scenario;
+		public Path trace;
+		public double traceSpeed = 1.0;
+		public boolean contextDeltas;
+	}
+
+	public static class Scenario {
+		public List<Workload> requests = new ArrayList<>();
+	}
+
+	// One kind of request in the mix: a JSON-RPC method, or a tool called through tools/call
+	public static class Workload {
+		public String name;
+		public int weight = 1;
+		public String method;
+		public String tool;
+		public JsonNode arguments;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options;
+		try {
+			options = parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		if (options == null) {
+			System.out.println(USAGE);
+			return;
+		}
+		System.exit(run(options) ? 0 : 1);
+	}
+
+	static Options parse(String[] args) {
+		Options options = new Options();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "--help":
+			case "-h":
+				return null;
+			case "--headless":
+				options.headless = true;
+				break;
+			case "--discovery":
+				options.discovery = Paths.get(value(args, ++i, arg));
+				break;
+			case "--files":
+				options.files = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--clients":
+				options.clients = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--duration":
+				options.durationSeconds = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--warmup":
+				options.warmupSeconds = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--mix":
+				options.mix = value(args, ++i, arg);
+				break;
+			case "--scenario":
+				options.scenario = Paths.get(value(args, ++i, arg));
+				break;
+			case "--trace":
+				options.trace = Paths.get(value(args, ++i, arg));
+				break;
+			case "--context-deltas":
+				options.contextDeltas = true;
+				break;
+			case "--trace-speed":
+				options.traceSpeed = Double.parseDouble(value(args, ++i, arg));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		return options;
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException(option + " needs a value");
+		}
+		return args[i];
+	}
+
+	static boolean run(Options options) throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<Workload> workloads = options.scenario != null
+				? objectMapper.readValue(options.scenario.toFile(), Scenario.class).requests
+				: parseMix(options.mix);
+		int totalWeight = prepare(workloads, objectMapper);
+
+		HeadlessServer server = null;
+		ContextTraceSource traceSource = null;
+		Path discovery = options.discovery;
+		if (options.headless) {
+			server = new HeadlessServer(options.files);
+			server.start();
+			discovery = server.getDiscoveryFile();
+			List<ContextTraceSource.TraceEvent> trace = options.trace != null
+					? ContextTraceSource.readTrace(options.trace, objectMapper)
+					: Collections.emptyList();
+			traceSource = new ContextTraceSource(trace, options.traceSpeed, server::updateContext);
+		} else if (options.trace != null) {
+			System.err.println("--trace needs --headless: a running IDE takes its context from the workbench");
+		}
+		if (discovery == null) {
+			discovery = newestDiscoveryFile();
+		}
+		JsonNode discoveryContent = objectMapper.readTree(discovery.toFile());
+		int port = discoveryContent.path("port").asInt();
+		String authToken = discoveryContent.path("authToken").asText();
+		System.out.printf("Target %s (port %d)%n", discovery, port);
+
+		LoadReport report = new LoadReport();
+		List<CliClient> clients = new ArrayList<>();
+		List<Thread> workers = new ArrayList<>();
+		boolean ok = true;
+		try {
+			for (int i = 0; i < options.clients; i++) {
+				HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+						.connectTimeout(Duration.ofSeconds(5)).build();
+				CliClient client = new CliClient(httpClient, port, authToken, objectMapper, report, traceSource,
+						options.contextDeltas);
+				clients.add(client);
+				client.connect(10000);
+			}
+			if (traceSource != null) {
+				traceSource.start();
+			}
+
+			long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(options.warmupSeconds + options.durationSeconds);
+			for (CliClient client : clients) {
+				Thread worker = new Thread(() -> drive(client, workloads, totalWeight, deadline, report),
+						"Client-" + workers.size());
+				worker.setDaemon(true);
+				worker.start();
+				workers.add(worker);
+			}
+			TimeUnit.SECONDS.sleep(options.warmupSeconds);
+			report.startMeasuring();
+			TimeUnit.SECONDS.sleep(options.durationSeconds);
+			report.stopMeasuring();
+			for (Thread worker : workers) {
+				worker.join(TimeUnit.SECONDS.toMillis(10));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			ok = false;
+		} finally {
+			if (traceSource != null) {
+				traceSource.stop();
+			}
+			for (CliClient client : clients) {
+				client.close();
+			}
+			if (server != null) {
+				server.stop();
+			}
+		}
+		if (ok) {
+			System.out.println();
+			report.print(System.out, options.clients);
+			if (traceSource != null) {
+				System.out.printf("trace: %d context changes published%n", traceSource.getPublishedCount());
+			}
+		}
+		return ok;
+	}
+
+	// Closed loop: the next request goes out as soon as the previous response is in
+	private static void drive(CliClient client, List<Workload> workloads, int totalWeight, long deadline,
+			LoadReport report) {
+		while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+			Workload workload = pick(workloads, totalWeight);
+			long start = System.nanoTime();
+			boolean success = client.call(workload.method, workload.arguments);
+			report.recordRequest(workload.name, System.nanoTime() - start, !success);
+		}
+	}
+
+	private static Workload pick(List<Workload> workloads, int totalWeight) {
+		int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (Workload workload : workloads) {
+			roll -= workload.weight;
+			if (roll < 0) {
+				return workload;
+			}
+		}
+		return workloads.get(workloads.size() - 1);
+	}
+
+	// --- Request Mix ---
+
+	// name=weight pairs; a name with a slash is a method, anything else a tool with default arguments
+	static List<Workload> parseMix(String mix) {
+		List<Workload> workloads = new ArrayList<>();
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split("=", 2);
+			Workload workload = new Workload();
+			workload.name = parts[0].trim();
+			workload.weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+			if (workload.name.contains("/")) {
+				workload.method = workload.name;
+			} else {
+				workload.tool = workload.name;
+			}
+			workloads.add(workload);
+		}
+		return workloads;
+	}
+
+	// Turns tool entries into tools/call requests and returns the total weight
+	private static int prepare(List<Workload> workloads, ObjectMapper objectMapper) {
+		int totalWeight = 0;
+		for (Workload workload : workloads) {
+			if (workload.weight < 0) {
+				throw new IllegalArgumentException("Negative weight for " + workload.name);
+			}
+			totalWeight += workload.weight;
+			if (workload.tool != null) {
+				ObjectNode params = objectMapper.createObjectNode();
+				params.put("name", workload.tool);
+				params.set("arguments", workload.arguments != null ? workload.arguments
+						: defaultArguments(workload.tool, objectMapper));
+				workload.method = "tools/call";
+				workload.arguments = params;
+				if (workload.name == null) {
+					workload.name = workload.tool;
+				}
+			} else if (workload.method == null) {
+				throw new IllegalArgumentException("Request " + workload.name + " has neither method nor tool");
+			} else if (workload.name == null) {
+				workload.name = workload.method;
+			}
+		}
+		if (totalWeight == 0) {
+			throw new IllegalArgumentException("The request mix is empty");
+		}
+		return totalWeight;
+	}
+
+	private static JsonNode defaultArguments(String tool, ObjectMapper objectMapper) {
+		ObjectNode arguments = objectMapper.createObjectNode();
+		if ("findFiles".equals(tool)) {
+			arguments.put("pattern", "**/Component1*.java");
+		}
+		return arguments;
+	}
+
+	private static Path newestDiscoveryFile() throws IOException {
+		Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "gemini", "ide");
+		if (!Files.isDirectory(directory)) {
+			throw new IOException("No discovery files in " + directory + "; use --discovery or --headless");
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().matches("gemini-ide-server-.*\\.json"))
+					.max(Comparator.comparingLong(p -> p.toFile().lastModified()))
+					.orElseThrow(() -> new IOException("No discovery files in " + directory));
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package navicon.gemini.eclipse.companion;
 
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.osgi.framework.BundleContext;
 
@@ -19,6 +20,7 @@ public class Activator implements BundleActivator {
 
 	public void start(BundleContext bundleContext) throws Exception {
 		Activator.context = bundleContext;
+		CompanionLog.setSink(Activator::logWarning, Activator::logError);
 		// The startup logic is now handled by the Startup class via the extension
 		// point.
 		// This method can be empty.
@@ -26,6 +28,7 @@ public class Activator implements BundleActivator {
 
 	public void stop(BundleContext bundleContext) throws Exception {
 		Activator.context = null;
+		CompanionLog.setSink(null, null);
 		// The stop logic remains here.
 		if (server != null) {
 			server.stop();
@@ -41,4 +44,21 @@ public class Activator implements BundleActivator {
             System.out.println(message);
         }
     }
+
+	public static void logWarning(String message) {
+		if (context != null && context.getBundle() != null) {
+			Platform.getLog(context.getBundle()).log(new Status(IStatus.WARNING, PLUGIN_ID, message));
+		} else {
+			System.err.println(message);
+		}
+	}
+
+	public static void logError(String message, Throwable error) {
+		if (context != null && context.getBundle() != null) {
+			Platform.getLog(context.getBundle()).log(new Status(IStatus.ERROR, PLUGIN_ID, message, error));
+		} else {
+			System.err.println(message);
+			error.printStackTrace();
+		}
+	}
 }
\ No newline at end of file
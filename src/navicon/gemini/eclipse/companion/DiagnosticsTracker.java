@@ -0,0 +1,168 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.Job;
+
+// Mirrors the workspace's problem markers into a DiagnosticsStore from marker deltas and reports the
+// accumulated changes at most once per interval. While a build job runs, reports are held back so
+// that a build creating thousands of markers ends in one notification, with an upper bound so a long
+// build still shows progress. The markers present at startup are loaded under the workspace root rule,
+// which keeps marker changes out until the listener is in place.
+public class DiagnosticsTracker implements IResourceChangeListener {
+
+	private final IWorkspace workspace;
+	private final DiagnosticsStore store;
+	private final Consumer<DiagnosticsStore.Delta> listener;
+	private final CoalescingScheduler flushScheduler;
+	private final int maxChanges;
+	private final long maxBuildDeferNanos;
+	private long deferredSinceNanos;
+	private boolean deferring;
+
+	public DiagnosticsTracker(IWorkspace workspace, DiagnosticsStore store, ScheduledExecutorService scheduler,
+			long intervalMs, int maxChanges, long maxBuildDeferMs, Consumer<DiagnosticsStore.Delta> listener,
+			ServerMetrics metrics) {
+		this.workspace = workspace;
+		this.store = store;
+		this.listener = listener;
+		this.maxChanges = maxChanges;
+		this.maxBuildDeferNanos = maxBuildDeferMs * 1_000_000;
+		this.flushScheduler = new CoalescingScheduler(scheduler, intervalMs, this::flush, "diagnostics", metrics);
+	}
+
+	public void start() {
+		Job job = Job.create("Loading problem markers for Gemini CLI", monitor -> {
+			workspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+			List<DiagnosticsStore.Diagnostic> diagnostics = new ArrayList<>();
+			for (IMarker marker : workspace.getRoot().findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)) {
+				DiagnosticsStore.Diagnostic diagnostic = toDiagnostic(marker);
+				if (diagnostic != null) {
+					diagnostics.add(diagnostic);
+				}
+			}
+			store.load(diagnostics);
+			Activator.logInfo("Gemini Companion loaded " + diagnostics.size() + " problem markers");
+		});
+		job.setSystem(true);
+		job.setRule(workspace.getRoot());
+		job.schedule();
+	}
+
+	public void stop() {
+		workspace.removeResourceChangeListener(this);
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IMarkerDelta[] deltas = event.findMarkerDeltas(IMarker.PROBLEM, true);
+		if (deltas.length == 0) {
+			return;
+		}
+		for (IMarkerDelta delta : deltas) {
+			if (delta.getKind() == IResourceDelta.REMOVED) {
+				// By id: the resource of a closed or deleted project has no location any more
+				store.remove(delta.getId());
+			} else {
+				DiagnosticsStore.Diagnostic diagnostic = toDiagnostic(delta.getMarker());
+				if (diagnostic != null) {
+					store.put(diagnostic);
+				}
+			}
+		}
+		flushScheduler.requestFlush();
+	}
+
+	// Runs on the scheduler thread
+	private void flush() {
+		if (isBuilding()) {
+			long now = System.nanoTime();
+			if (!deferring) {
+				deferring = true;
+				deferredSinceNanos = now;
+			}
+			if (now - deferredSinceNanos < maxBuildDeferNanos) {
+				// Try again one interval later
+				flushScheduler.requestFlush();
+				return;
+			}
+		}
+		deferring = false;
+		DiagnosticsStore.Delta delta = store.drain(maxChanges);
+		if (!delta.isEmpty()) {
+			listener.accept(delta);
+		}
+	}
+
+	private static boolean isBuilding() {
+		IJobManager jobManager = Job.getJobManager();
+		return isRunning(jobManager.find(ResourcesPlugin.FAMILY_MANUAL_BUILD))
+				|| isRunning(jobManager.find(ResourcesPlugin.FAMILY_AUTO_BUILD));
+	}
+
+	private static boolean isRunning(Job[] jobs) {
+		for (Job job : jobs) {
+			if (job.getState() == Job.RUNNING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static DiagnosticsStore.Diagnostic toDiagnostic(IMarker marker) {
+		if (!marker.exists()) {
+			// Deleted again by a later change in the same notification
+			return null;
+		}
+		DiagnosticsStore.Diagnostic diagnostic = new DiagnosticsStore.Diagnostic();
+		diagnostic.path = path(marker.getResource());
+		diagnostic.id = marker.getId();
+		switch (marker.getAttribute(IMarker.SEVERITY, IMarker.SEVERITY_INFO)) {
+		case IMarker.SEVERITY_ERROR:
+			diagnostic.severity = DiagnosticsStore.ERROR;
+			break;
+		case IMarker.SEVERITY_WARNING:
+			diagnostic.severity = DiagnosticsStore.WARNING;
+			break;
+		default:
+			diagnostic.severity = DiagnosticsStore.INFO;
+		}
+		diagnostic.message = marker.getAttribute(IMarker.MESSAGE, "");
+		diagnostic.line = positive(marker.getAttribute(IMarker.LINE_NUMBER, -1));
+		int charStart = marker.getAttribute(IMarker.CHAR_START, -1);
+		if (charStart >= 0) {
+			diagnostic.charStart = charStart;
+			diagnostic.charEnd = Math.max(charStart, marker.getAttribute(IMarker.CHAR_END, charStart));
+		}
+		try {
+			diagnostic.source = marker.getType();
+		} catch (CoreException e) {
+			return null;
+		}
+		return diagnostic;
+	}
+
+	private static Integer positive(int value) {
+		return value > 0 ? value : null;
+	}
+
+	// The same file system paths the context reports for open files
+	private static String path(IResource resource) {
+		IPath location = resource.getLocation();
+		return location != null ? location.toOSString() : resource.getFullPath().toString();
+	}
+}
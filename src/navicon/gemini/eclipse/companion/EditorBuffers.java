@@ -0,0 +1,82 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.swt.widgets.Display;
+
+// Unsaved editor content by file system path, from the text file buffers the editors share
+public class EditorBuffers implements FileContentReader.Buffers {
+
+	private final IWorkspace workspace;
+	private final ITextFileBufferManager bufferManager = FileBuffers.getTextFileBufferManager();
+
+	public EditorBuffers(IWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
+	@Override
+	public String dirtyContent(String filePath) {
+		// NORMALIZE finds the buffer of a workspace file as well as of an external one
+		ITextFileBuffer buffer = bufferManager.getTextFileBuffer(new Path(filePath), LocationKind.NORMALIZE);
+		if (buffer == null || !buffer.isDirty()) {
+			return null;
+		}
+		String[] text = new String[1];
+		// Documents belong to the UI thread; runs directly when already on it
+		Display.getDefault().syncExec(() -> text[0] = buffer.getDocument().get());
+		return text[0];
+	}
+
+	@Override
+	public Charset charset(String filePath) {
+		try {
+			ITextFileBuffer buffer = bufferManager.getTextFileBuffer(new Path(filePath), LocationKind.NORMALIZE);
+			if (buffer != null && buffer.getEncoding() != null) {
+				return Charset.forName(buffer.getEncoding());
+			}
+			IFile file = workspace.getRoot().getFileForLocation(new Path(filePath));
+			if (file != null) {
+				return Charset.forName(file.getCharset());
+			}
+		} catch (CoreException | IllegalArgumentException e) {
+			// Unknown or unsupported encoding
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	// Files open in an editor, and files of open projects once symbolic links and ".." are resolved,
+	// so a link inside a project cannot lead to something like ~/.ssh
+	@Override
+	public boolean isReadable(String filePath) {
+		try {
+			if (bufferManager.getTextFileBuffer(new Path(filePath), LocationKind.NORMALIZE) != null) {
+				return true;
+			}
+			java.nio.file.Path requested = Paths.get(filePath).toAbsolutePath().normalize();
+			java.nio.file.Path real = requested.toRealPath();
+			for (IFile file : workspace.getRoot().findFilesForLocationURI(requested.toUri())) {
+				IPath projectLocation = file.getProject().getLocation();
+				if (file.isAccessible() && projectLocation != null
+						&& real.startsWith(Paths.get(projectLocation.toOSString()).toRealPath())) {
+					return true;
+				}
+			}
+		} catch (IOException | InvalidPathException e) {
+			// Missing or malformed paths are not readable
+		}
+		return false;
+	}
+}
@@ -2,630 +2,806 @@
 package navicon.gemini.eclipse.companion;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
-import org.eclipse.compare.CompareConfiguration;
-import org.eclipse.compare.CompareUI;
-import org.eclipse.compare.IEditableContent;
-import org.eclipse.compare.IStreamContentAccessor;
-import org.eclipse.compare.ITypedElement;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextSelection;
 import org.eclipse.jface.viewers.ISelection;
-import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Display;
-import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
-import org.eclipse.ui.IEditorReference;
-import org.eclipse.ui.IPartListener2;
 import org.eclipse.ui.ISelectionListener;
-import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchPart;
-import org.eclipse.ui.IWorkbenchPartReference;
-import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.texteditor.ITextEditor;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 
-public class GeminiHttpServer implements IPartListener2, ISelectionListener {
+public class GeminiHttpServer implements ISelectionListener {
 
 	private HttpServer server;
-	private Path discoveryFilePath;
+	private UnixSocketTransport unixSocketTransport;
+	private int port;
+	private WorkspaceModel workspaceModel;
+	// Before the components below, which report their failures to it
+	private final ServerMetrics metrics = new ServerMetrics();
+	private final WorkspaceFileIndexer fileIndexer = new WorkspaceFileIndexer(ResourcesPlugin.getWorkspace(),
+			new PathIndex(), metrics);
+	private final TextSearchIndexer textIndexer = new TextSearchIndexer(ResourcesPlugin.getWorkspace(), fileIndexer,
+			new TrigramIndex(CompanionSettings.searchIndexMaxBytes()));
+	private final DiagnosticsStore diagnostics = new DiagnosticsStore();
+	private final FileContentReader fileReader = new FileContentReader(
+			new EditorBuffers(ResourcesPlugin.getWorkspace()));
+	private DiagnosticsTracker diagnosticsTracker;
+	private ManagedFile discoveryFile;
+	private ManagedFile environmentFile;
 	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final JsonCodec codec = new JsonCodec(objectMapper);
+	private final ToolRegistry toolRegistry = new ToolRegistry(objectMapper);
+	private McpDispatcher dispatcher;
+	private final McpRequestParser requestParser = new McpRequestParser(objectMapper,
+			CompanionSettings.maxRequestBytes());
 	private final String authToken = UUID.randomUUID().toString();
-	private volatile HttpExchange mcpExchange;
-	private final AtomicBoolean sseSessionActive = new AtomicBoolean(false);
+	private SseSessionRegistry sessions;
+	private McpHttpHandler httpHandler;
+	// Only changed on the UI thread, so closeDiff is always ordered after the diff views it closes
+	private final DiffSessionRegistry<NotifyingStringCompareInput> diffSessions = new DiffSessionRegistry<>();
+	private HeartbeatService heartbeatService;
+	private final AtomicBoolean contextCaptureQueued = new AtomicBoolean(false);
+	// Created, used and disposed on the UI thread
+	private OpenEditorTracker editorTracker;
+	private final SelectionSummarizer selectionSummarizer = new SelectionSummarizer(
+			CompanionSettings.maxInlineSelectionChars());
+	private ScheduledExecutorService scheduler;
+	private LaneExecutor requestLane;
+	private LaneExecutor streamLane;
+	private LaneExecutor connectionLane;
+	private CoalescingScheduler contextUpdateScheduler;
+
+	public GeminiHttpServer() {
+		toolRegistry.register(new OpenDiffTool());
+		toolRegistry.register(new OpenDiffBatchTool());
+		toolRegistry.register(new CloseDiffTool());
+		toolRegistry.register(new GetDocumentRangeTool());
+		toolRegistry.register(new FindFilesTool(fileIndexer.getIndex(), fileIndexer::isReady, objectMapper));
+		toolRegistry.register(new SearchTextTool(textIndexer.getIndex(), textIndexer, textIndexer::isReady,
+				objectMapper));
+		toolRegistry.register(new GetDiagnosticsTool(diagnostics, objectMapper));
+		toolRegistry.register(new ReadFileTool(fileReader, objectMapper));
+		toolRegistry.register(new GetServerStatsTool(metrics, objectMapper));
+		toolRegistry.addChangeListener(() -> sendMcpNotification("notifications/tools/list_changed", null));
+	}
+
+	public ToolRegistry getToolRegistry() {
+		return toolRegistry;
+	}
 
 	public void start() {
 		try {
-			server = HttpServer.create(new InetSocketAddress(0), 0);
-			int port = server.getAddress().getPort();
-			server.createContext("/mcp", this::handleMcpConnection);
-			server.setExecutor(Executors.newCachedThreadPool());
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "Gemini-Companion-Scheduler");
+				t.setDaemon(true);
+				return t;
+			});
+			String executionModel = CompanionSettings.executionModel();
+			requestLane = LaneExecutor.create("Gemini-MCP-Request", executionModel,
+					CompanionSettings.requestThreads(), CompanionSettings.requestQueueCapacity());
+			// Each session has at most one drain task queued or running, so in either execution model this
+			// bound of streamThreads + 1024 tasks is effectively the session limit
+			streamLane = LaneExecutor.create("Gemini-SSE-Writer", executionModel, CompanionSettings.streamThreads(),
+					1024);
+			dispatcher = new McpDispatcher(toolRegistry, requestLane, metrics);
+			dispatcher.registerMethod("ide/resyncContext", this::handleResyncContext);
+			sessions = new SseSessionRegistry(codec, streamLane, CompanionSettings.sseQueueCapacity(),
+					CompanionSettings.replayBufferEvents(), CompanionSettings.replayBufferBytes(), metrics);
+			heartbeatService = new HeartbeatService(sessions, CompanionSettings.keepAliveIntervalMs(),
+					CompanionSettings.writeStallTimeoutMs(), CompanionSettings.sessionResumeTimeoutMs(), metrics);
+			heartbeatService.start(scheduler);
+			contextUpdateScheduler = new CoalescingScheduler(scheduler,
+					CompanionSettings.contextUpdateIntervalMs(), this::captureAndSendIdeContext, "contextUpdate", metrics);
+			// Ready before the server starts: initialize captures the context, which reads the workspace path.
+			// Its change listener is added once the port for the discovery file is known.
+			workspaceModel = new WorkspaceModel(ResourcesPlugin.getWorkspace());
+			workspaceModel.start();
+			registerMetrics();
+			httpHandler = new McpHttpHandler(requestParser, dispatcher, sessions, codec, metrics, authToken,
+					this::sendInitialContext);
+			CompanionSettings.enableHttpNoDelay();
+			// Not reachable from other hosts; the tools read workspace files
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			port = server.getAddress().getPort();
+			server.createContext("/mcp", httpHandler.onLane(requestLane, httpHandler::handleMcp));
+			server.createContext("/metrics", httpHandler.onLane(requestLane, httpHandler::handleMetrics));
+			connectionLane = LaneExecutor.createUnbounded("Gemini-HTTP", executionModel);
+			server.setExecutor(connectionLane);
 			server.start();
-			System.out.println("Gemini Companion Server started on port: " + port);
 			Activator.logInfo("Gemini Companion Server started on port: " + port);
-			createDiscoveryFile(port);
-			updateEnvironmentFile(port);
+			if (CompanionSettings.unixSocketEnabled()) {
+				startUnixSocketTransport(port);
+			}
+			workspaceModel.addChangeListener(this::handleWorkspaceChanged);
+			textIndexer.start();
+			fileIndexer.start();
+			diagnosticsTracker = new DiagnosticsTracker(ResourcesPlugin.getWorkspace(), diagnostics, scheduler,
+					CompanionSettings.diagnosticsIntervalMs(), CompanionSettings.maxDiagnosticsPerNotification(),
+					CompanionSettings.diagnosticsBuildDeferMs(), delta -> sendMcpNotification("ide/diagnostics", delta),
+					metrics);
+			diagnosticsTracker.start();
+			writeDiscoveryFile();
+			writeEnvironmentFile();
 			startListening();
 		} catch (IOException e) {
-			e.printStackTrace();
+			metrics.reportError("start", e);
 		}
 	}
 
 	public void stop() {
 		stopListening();
+		if (workspaceModel != null) {
+			workspaceModel.stop();
+		}
+		fileIndexer.stop();
+		textIndexer.stop();
+		if (diagnosticsTracker != null) {
+			diagnosticsTracker.stop();
+		}
 		if (server != null) {
 			server.stop(0);
 		}
+		if (unixSocketTransport != null) {
+			unixSocketTransport.stop();
+		}
+		if (heartbeatService != null) {
+			heartbeatService.stop();
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (contextUpdateScheduler != null) {
+			Activator.logInfo("Gemini Companion context updates: requested=" + contextUpdateScheduler.getRequestedCount()
+					+ ", flushed=" + contextUpdateScheduler.getFlushCount() + ", sent="
+					+ metrics.counter("context.updatesSent").sum());
+		}
 		deleteDiscoveryFile();
 		deleteEnvironmentFile();
-		sseSessionActive.set(false);
-		if (mcpExchange != null) {
-			mcpExchange.close();
-			mcpExchange = null;
+		if (sessions != null) {
+			sessions.closeAll();
+		}
+		if (requestLane != null) {
+			Activator.logInfo("Gemini Companion executors: " + requestLane + ", " + streamLane);
+			requestLane.shutdownNow();
+			streamLane.shutdownNow();
+		}
+		if (connectionLane != null) {
+			connectionLane.shutdownNow();
+		}
+	}
+
+	private void startUnixSocketTransport(int port) {
+		// In a directory of its own, which the transport creates accessible to this user only
+		Path socketPath = Paths.get(System.getProperty("java.io.tmpdir"), "gemini", "ide",
+				String.format("gemini-ide-server-%d-%d", ProcessHandle.current().pid(), port), "mcp.sock");
+		UnixSocketTransport transport = new UnixSocketTransport(socketPath, requestLane,
+				CompanionSettings.maxRequestBytes(), CompanionSettings.unixSocketTimeoutMs(), metrics);
+		transport.createContext("/mcp", httpHandler::handleMcp);
+		transport.createContext("/metrics", httpHandler::handleMetrics);
+		try {
+			transport.start();
+			unixSocketTransport = transport;
+			Activator.logInfo("Gemini Companion Server listening on " + socketPath);
+		} catch (IOException | UnsupportedOperationException e) {
+			// Unix domain sockets are optional, TCP keeps working without them
+			metrics.reportError("unixSocket.start", e);
 		}
 	}
 
-	private void updateEnvironmentFile(int port) {
+	// Projects were opened, closed, added or removed
+	private void handleWorkspaceChanged() {
+		try {
+			writeDiscoveryFile();
+		} catch (IOException e) {
+			metrics.reportError("writeDiscoveryFile", e);
+		}
+		writeEnvironmentFile();
+		updateAndSendIdeContext();
+	}
+
+	private void writeEnvironmentFile() {
 		try {
 			IWorkspaceRoot workspaceRoot = ResourcesPlugin.getWorkspace().getRoot();
 			String workspacePath = workspaceRoot.getLocation().toOSString();
 			String content = String.format("export GEMINI_CLI_IDE_SERVER_PORT=%d\n" + "export TERM_PROGRAM=vscode\n"
 					+ "export GEMINI_CLI_IDE_WORKSPACE_PATH=\"%s\"\n", port, workspacePath);
-			Path geminiDir = Paths.get(System.getProperty("java.io.tmpdir"), "gemini");
-			Files.createDirectories(geminiDir);
-			Path envFile = geminiDir.resolve("eclipse_env.sh");
-			Files.writeString(envFile, content, StandardCharsets.UTF_8);
+			if (environmentFile == null) {
+				environmentFile = new ManagedFile(
+						Paths.get(System.getProperty("java.io.tmpdir"), "gemini", "eclipse_env.sh"));
+			}
+			environmentFile.update(content.getBytes(StandardCharsets.UTF_8));
 		} catch (IOException e) {
-			e.printStackTrace();
+			metrics.reportError("writeEnvironmentFile", e);
 		}
 	}
 
 	private void deleteEnvironmentFile() {
-		try {
-			Path envFile = Paths.get(System.getProperty("java.io.tmpdir"), "gemini", "eclipse_env.sh");
-			if (Files.exists(envFile)) {
-				Files.delete(envFile);
+		if (environmentFile != null) {
+			try {
+				environmentFile.delete();
+			} catch (IOException e) {
+				metrics.reportError("deleteEnvironmentFile", e);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 	}
 
-	// --- MCP Connection Handling ---
-
-	private void handleMcpConnection(HttpExchange exchange) throws IOException {
-		if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-			exchange.sendResponseHeaders(405, -1);
-			return;
-		}
+	private Object handleResyncContext(McpRequest request, String sessionId) {
+		SseSession session = sessions.get(sessionId);
+		if (session != null) {
+			session.requestContextResync();
+		} else {
+			sessions.all().forEach(SseSession::requestContextResync);
+		}
+		captureAndSendIdeContext();
+		return Collections.emptyMap();
+	}
+
+	// --- Metrics ---
+
+	// Counters the components keep themselves, read when a snapshot is taken
+	private void registerMetrics() {
+		metrics.registerGauge("sessions", sessions::size);
+		metrics.registerGauge("diff.openSessions", diffSessions::size);
+		metrics.registerGauge("requestLane.queueDepth", requestLane::getQueueDepth);
+		metrics.registerGauge("requestLane.active", requestLane::getActiveCount);
+		metrics.registerGauge("streamLane.queueDepth", streamLane::getQueueDepth);
+		metrics.registerGauge("streamLane.active", streamLane::getActiveCount);
+		TrigramIndex searchIndex = textIndexer.getIndex();
+		metrics.registerGauge("searchIndex.files", () -> searchIndex.getStats().files);
+		metrics.registerGauge("searchIndex.trigrams", () -> searchIndex.getStats().trigrams);
+		metrics.registerGauge("searchIndex.postings", () -> searchIndex.getStats().postings);
+		metrics.registerGauge("searchIndex.estimatedBytes", () -> searchIndex.getStats().estimatedBytes);
+		metrics.registerGauge("searchIndex.overBudgetFiles", textIndexer::getOverBudgetCount);
+		metrics.registerCounter("requestLane.completed", requestLane::getCompletedCount);
+		metrics.registerCounter("requestLane.rejected", requestLane::getRejectedCount);
+		metrics.registerCounter("streamLane.completed", streamLane::getCompletedCount);
+		metrics.registerCounter("streamLane.rejected", streamLane::getRejectedCount);
+		metrics.registerCounter("sse.keepAlivesSent", heartbeatService::getKeepAlivesSent);
+		metrics.registerCounter("sse.writeStalls", heartbeatService::getStalledSessions);
+		metrics.registerCounter("sse.sessionsExpired", heartbeatService::getExpiredSessions);
+		metrics.registerCounter("context.updatesRequested", contextUpdateScheduler::getRequestedCount);
+		// context.updatesSent and context.updatesBuffered are counted by the sessions, per notification
+		// written to a client's stream or, while it is detached, only to its replay buffer
+		metrics.registerCounter("context.updatesFlushed", contextUpdateScheduler::getFlushCount);
+	}
 
-		String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-		JsonNode request;
-		try {
-			request = objectMapper.readTree(requestBody);
-		} catch (Exception e) {
-			sendJsonRpcError(exchange, null, -32700, "Parse error");
-			return;
-		}
+	// --- Tool Handling ---
 
-		String method = request.has("method") ? request.get("method").asText() : null;
-		JsonNode id = request.has("id") ? request.get("id") : null;
+	private class OpenDiffTool implements McpTool {
+		private final JsonNode schema = fileChangeSchema()
+				.property("acceptResponse", "string",
+						"What ide/diffAccepted carries: content (default) or patch, a unified diff of the accepted changes")
+				.required("filePath").build();
 
-		if ("initialize".equals(method)) {
-			handleInitializeRequest(exchange, id);
-		} else if ("notifications/initialized".equals(method)) {
-			handleInitializedNotification(exchange);
-		} else if ("tools/list".equals(method)) {
-			handleToolsList(exchange, id);
-		} else if ("tools/call".equals(method)) {
-			handleToolCall(exchange, request);
-		} else {
-			sendJsonRpcError(exchange, id, -32601, "Method not found: " + method);
+		@Override
+		public String getName() {
+			return "openDiff";
 		}
-	}
 
-	private void handleInitializeRequest(HttpExchange exchange, JsonNode id) throws IOException {
-		if (sseSessionActive.get()) {
-			sendJsonRpcError(exchange, id, -32600, "Session already active");
-			return;
+		@Override
+		public String getDescription() {
+			return "Opens a diff view in Eclipse comparing original and new content";
 		}
 
-		sseSessionActive.set(true);
-		this.mcpExchange = exchange;
-
-		exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
-		exchange.getResponseHeaders().add("Connection", "keep-alive");
-		exchange.getResponseHeaders().add("Cache-Control", "no-cache");
-		exchange.getResponseHeaders().add("X-Accel-Buffering", "no");
-		exchange.sendResponseHeaders(200, 0);
+		@Override
+		public JsonNode getInputSchema() {
+			return schema;
+		}
 
-		ObjectNode response = objectMapper.createObjectNode();
-		response.put("jsonrpc", "2.0");
-		response.set("id", id);
-		ObjectNode result = objectMapper.createObjectNode();
-		result.put("protocolVersion", "2025-06-18");
-		ObjectNode capabilities = objectMapper.createObjectNode();
-		ObjectNode tools = objectMapper.createObjectNode();
-		tools.put("listChanged", false);
-		capabilities.set("tools", tools);
-		result.set("capabilities", capabilities);
-		ObjectNode serverInfo = objectMapper.createObjectNode();
-		serverInfo.put("name", "eclipse-companion");
-		serverInfo.put("version", "1.0.0");
-		result.set("serverInfo", serverInfo);
-		response.set("result", result);
+		@Override
+		public ToolResult call(ToolCall call) throws ToolException {
+			CompanionEvents.DiffViewOpen event = new CompanionEvents.DiffViewOpen();
+			event.begin();
+			ToolArguments args = call.getArguments();
+			boolean returnPatch = returnPatch(args);
+			NotifyingStringCompareInput.FileChange change = proposeChange(args);
+			String diffId = diffSessions.newDiffId();
+			Display.getDefault().asyncExec(
+					() -> showDiffView(diffId, Collections.singletonList(change), returnPatch, event));
+			return ToolResult.text("Diff view opened successfully.");
+		}
 
-		sendSseMessage(exchange.getResponseBody(), response);
-		sendInitialContext();
-		startKeepAliveThread(exchange, exchange.getResponseBody());
+		@Override
+		public boolean isParallelSafe() {
+			// Diff views open in the order they were requested
+			return false;
+		}
 	}
 
-	private void handleInitializedNotification(HttpExchange exchange) throws IOException {
-		exchange.sendResponseHeaders(200, -1);
-		exchange.close();
-	}
+	// Many files in one compare editor instead of one view per openDiff call
+	private class OpenDiffBatchTool implements McpTool {
+		private static final int MAX_FILES = 200;
+		private final JsonNode schema;
 
-	// --- Tool Handling ---
+		OpenDiffBatchTool() {
+			ObjectNode files = objectMapper.createObjectNode();
+			files.put("type", "array");
+			files.put("description", "The proposed changes, one per file, each given like the arguments of openDiff");
+			files.set("items", fileChangeSchema().required("filePath").build());
+			schema = SchemaBuilder.object().property("files", files)
+					.property("acceptResponse", "string",
+							"What ide/diffAccepted carries: content (default) or patch, a unified diff of the accepted changes")
+					.required("files").build();
+		}
 
-	private void handleToolsList(HttpExchange exchange, JsonNode id) throws IOException {
-		ObjectNode response = objectMapper.createObjectNode();
-		response.put("jsonrpc", "2.0");
-		response.set("id", id);
-		ArrayNode tools = objectMapper.createArrayNode();
-
-		// openDiff tool
-		ObjectNode openDiffTool = objectMapper.createObjectNode();
-		openDiffTool.put("name", "openDiff");
-		openDiffTool.put("description", "Opens a diff view in Eclipse comparing original and new content");
-		ObjectNode openDiffSchema = objectMapper.createObjectNode();
-		openDiffSchema.put("type", "object");
-		ObjectNode openDiffProps = objectMapper.createObjectNode();
-		ObjectNode filePathProp = objectMapper.createObjectNode();
-		filePathProp.put("type", "string");
-		openDiffProps.set("filePath", filePathProp);
-		ObjectNode newContentProp = objectMapper.createObjectNode();
-		newContentProp.put("type", "string");
-		openDiffProps.set("newContent", newContentProp);
-		openDiffSchema.set("properties", openDiffProps);
-		ArrayNode openDiffRequired = objectMapper.createArrayNode();
-		openDiffRequired.add("filePath");
-		openDiffRequired.add("newContent");
-		openDiffSchema.set("required", openDiffRequired);
-		openDiffTool.set("inputSchema", openDiffSchema);
-		tools.add(openDiffTool);
-
-		// closeDiff tool
-		ObjectNode closeDiffTool = objectMapper.createObjectNode();
-		closeDiffTool.put("name", "closeDiff");
-		closeDiffTool.put("description", "Closes an open diff view.");
-		ObjectNode closeDiffSchema = objectMapper.createObjectNode();
-		closeDiffSchema.put("type", "object");
-		closeDiffSchema.set("properties", objectMapper.createObjectNode());
-		closeDiffTool.set("inputSchema", closeDiffSchema);
-		tools.add(closeDiffTool);
-
-		ObjectNode result = objectMapper.createObjectNode();
-		result.set("tools", tools);
-		response.set("result", result);
-		sendJsonResponse(exchange, response);
-	}
-
-	private void handleToolCall(HttpExchange exchange, JsonNode request) throws IOException {
-		JsonNode params = request.get("params");
-		JsonNode id = request.get("id");
-		String toolName = params.get("name").asText();
-		JsonNode arguments = params.get("arguments");
-		if ("openDiff".equals(toolName)) {
-			String filePath = arguments.get("filePath").asText();
-			String newContent = arguments.get("newContent").asText();
-			Display.getDefault().asyncExec(() -> showDiffView(filePath, newContent));
-			sendToolSuccessResponse(exchange, id, "Diff view opened successfully.");
-		} else if ("closeDiff".equals(toolName)) {
-			// TODO: Implement logic to programmatically close the diff view.
-			sendToolSuccessResponse(exchange, id, "Diff view closed (not implemented).");
-		} else {
-			sendJsonRpcError(exchange, id, -32601, "Unknown tool: " + toolName);
+		@Override
+		public String getName() {
+			return "openDiffBatch";
 		}
-	}
 
-	// --- IDE Context Listening & Reporting ---
+		@Override
+		public String getDescription() {
+			return "Opens one Eclipse compare editor listing several proposed file changes; each file is accepted "
+					+ "or rejected on its own and reported with ide/diffAccepted or ide/diffRejected";
+		}
 
-	private void startListening() {
-		Display.getDefault().asyncExec(() -> {
-			IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-			if (window != null) {
-				window.getPartService().addPartListener(this);
-				window.getSelectionService().addSelectionListener(this);
-			}
-		});
-	}
+		@Override
+		public JsonNode getInputSchema() {
+			return schema;
+		}
 
-	private void stopListening() {
-		Display.getDefault().asyncExec(() -> {
-			IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-			if (window != null) {
-				window.getPartService().removePartListener(this);
-				window.getSelectionService().removeSelectionListener(this);
+		@Override
+		public ToolResult call(ToolCall call) throws ToolException {
+			CompanionEvents.DiffViewOpen event = new CompanionEvents.DiffViewOpen();
+			event.begin();
+			ToolArguments args = call.getArguments();
+			boolean returnPatch = returnPatch(args);
+			JsonNode files = args.getNode("files");
+			if (files == null || !files.isArray() || files.size() == 0) {
+				throw ToolException.invalidParams("files must be a non-empty array");
 			}
-		});
-	}
-
-	private void sendInitialContext() {
-		updateAndSendIdeContext();
-	}
-
-	private void updateAndSendIdeContext() {
-		Display.getDefault().asyncExec(() -> {
-			IdeContext context = new IdeContext();
-			IWorkspaceRoot workspaceRoot = ResourcesPlugin.getWorkspace().getRoot();
-			IProject[] projects = workspaceRoot.getProjects();
-			String pathSeparator = System.getProperty("path.separator");
-			context.workspacePath = Arrays.stream(projects).filter(IProject::isOpen)
-					.map(p -> p.getLocation().toOSString()).collect(Collectors.joining(pathSeparator));
-			if (context.workspacePath.isEmpty()) {
-				context.workspacePath = workspaceRoot.getLocation().toOSString();
+			if (files.size() > MAX_FILES) {
+				throw ToolException.invalidParams("At most " + MAX_FILES + " files per batch");
 			}
-
-			context.openFiles = new ArrayList<>();
-			IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-			if (window != null) {
-				IWorkbenchPage page = window.getActivePage();
-				if (page != null) {
-					IEditorPart activeEditor = page.getActiveEditor();
-					for (IEditorReference editorRef : page.getEditorReferences()) {
-						try {
-							IEditorInput editorInput = editorRef.getEditorInput();
-							IFile file = editorInput.getAdapter(IFile.class);
-							if (file != null) {
-								OpenFile openFile = new OpenFile();
-								openFile.filePath = file.getLocation().toOSString();
-								openFile.timestamp = file.getLocalTimeStamp();
-								openFile.active = editorRef.getPart(false) == activeEditor;
-								context.openFiles.add(openFile);
-							}
-						} catch (Exception e) {
-							// Ignore editors that don't resolve to files
-						}
-					}
-
-					if (activeEditor instanceof ITextEditor) {
-						ITextEditor textEditor = (ITextEditor) activeEditor;
-						IFile file = textEditor.getEditorInput().getAdapter(IFile.class);
-						if (file != null) {
-							context.activeFile = file.getLocation().toOSString();
-						}
-
-						ISelection selection = textEditor.getSelectionProvider().getSelection();
-						if (selection instanceof ITextSelection) {
-							ITextSelection textSelection = (ITextSelection) selection;
-							context.selectedText = textSelection.getText();
-
-							IDocument document = textEditor.getDocumentProvider()
-									.getDocument(textEditor.getEditorInput());
-							if (document != null) {
-								try {
-									context.cursorPosition = new CursorPosition();
-									context.cursorPosition.line = document.getLineOfOffset(textSelection.getOffset());
-									context.cursorPosition.character = textSelection.getOffset()
-											- document.getLineOffset(context.cursorPosition.line);
-								} catch (Exception e) {
-									// Ignore if offset is invalid
-								}
-							}
-						}
-					}
+			List<NotifyingStringCompareInput.FileChange> changes = new ArrayList<>(files.size());
+			Set<String> filePaths = new HashSet<>();
+			for (JsonNode file : files) {
+				call.throwIfCancelled();
+				NotifyingStringCompareInput.FileChange change = proposeChange(ToolArguments.fromTree(file));
+				if (!filePaths.add(change.filePath)) {
+					throw ToolException.invalidParams("Duplicate file in batch: " + change.filePath);
 				}
+				changes.add(change);
+			}
+			String diffId = diffSessions.newDiffId();
+			Display.getDefault().asyncExec(() -> showDiffView(diffId, changes, returnPatch, event));
+			DiffBatchResponse response = new DiffBatchResponse();
+			response.diffId = diffId;
+			response.files = changes.size();
+			try {
+				return ToolResult.text(objectMapper.writeValueAsString(response));
+			} catch (JsonProcessingException e) {
+				throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
 			}
-			sendMcpNotification("ide/contextUpdate", context);
-		});
-	}
-
-	@Override
-	public void selectionChanged(IWorkbenchPart part, ISelection selection) {
-		if (part instanceof IEditorPart) {
-			updateAndSendIdeContext();
 		}
-	}
-
-	@Override
-	public void partActivated(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	@Override
-	public void partBroughtToTop(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	@Override
-	public void partClosed(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	@Override
-	public void partDeactivated(IWorkbenchPartReference partRef) {
-		/* No-op */ }
-
-	@Override
-	public void partOpened(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	@Override
-	public void partHidden(IWorkbenchPartReference partRef) {
-		/* No-op */ }
 
-	@Override
-	public void partVisible(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	@Override
-	public void partInputChanged(IWorkbenchPartReference partRef) {
-		updateAndSendIdeContext();
-	}
-
-	// --- Diff View Implementation ---
-
-	private void showDiffView(String filePath, String newContent) {
+		@Override
+		public boolean isParallelSafe() {
+			return false;
+		}
+	}
+
+	// Arguments that describe one proposed change, shared by openDiff and the files of openDiffBatch
+	private SchemaBuilder fileChangeSchema() {
+		ObjectNode hunks = objectMapper.createObjectNode();
+		hunks.put("type", "array");
+		hunks.put("description", "Line replacements applied to the current content; use instead of newContent");
+		hunks.set("items", SchemaBuilder.object()
+				.property("startLine", "integer", "First replaced line, 0-based")
+				.property("lineCount", "integer", "Number of replaced lines; 0 inserts before startLine")
+				.property("newText", "string", "Replacement lines")
+				.property("oldText", "string", "Current text of the replaced lines, checked before applying")
+				.required("startLine", "lineCount", "newText").build());
+		return SchemaBuilder.object().property("filePath", "string", null)
+				.property("newContent", "string", "The complete proposed content")
+				.property("patch", "string",
+						"Unified diff against the current content, unsaved changes included; use instead of newContent")
+				.property("hunks", hunks);
+	}
+
+	private static boolean returnPatch(ToolArguments args) throws ToolException {
+		String acceptResponse = args.getString("acceptResponse");
+		if (acceptResponse != null && !acceptResponse.equals("content") && !acceptResponse.equals("patch")) {
+			throw ToolException.invalidParams("acceptResponse must be content or patch");
+		}
+		return "patch".equals(acceptResponse);
+	}
+
+	private NotifyingStringCompareInput.FileChange proposeChange(ToolArguments args) throws ToolException {
+		String filePath = args.getString("filePath");
+		if (filePath == null) {
+			throw ToolException.invalidParams("Missing required argument: filePath");
+		}
+		String newContent = args.getString("newContent");
+		String patch = args.getString("patch");
+		JsonNode hunks = args.getNode("hunks");
+		if ((newContent != null ? 1 : 0) + (patch != null ? 1 : 0) + (hunks != null ? 1 : 0) != 1) {
+			throw ToolException.invalidParams("Exactly one of newContent, patch or hunks is required for " + filePath);
+		}
+		NotifyingStringCompareInput.FileChange change = new NotifyingStringCompareInput.FileChange();
+		change.filePath = filePath;
 		try {
-			String originalContent = Files.readString(Paths.get(filePath));
-			CompareConfiguration config = new CompareConfiguration();
-			config.setLeftEditable(false);
-			config.setRightEditable(true);
-			config.setLeftLabel("Original: " + filePath);
-			config.setRightLabel("Proposed Changes");
-			NotifyingStringCompareInput input = new NotifyingStringCompareInput(config, filePath, originalContent,
-					newContent);
-			CompareUI.openCompareDialog(input);
+			// What the user currently sees, unsaved changes included
+			change.originalContent = fileReader.readText(filePath);
+		} catch (NoSuchFileException e) {
+			if (newContent == null) {
+				throw ToolException.invalidParams("File not found: " + filePath);
+			}
+			// A new file
+			change.originalContent = "";
+			change.added = true;
 		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private class NotifyingStringCompareInput extends org.eclipse.compare.CompareEditorInput {
-		private final String filePath;
-		private final ITypedElement left;
-		private final StringTypedElement right;
-
-		public NotifyingStringCompareInput(CompareConfiguration config, String filePath, String leftContent,
-				String rightContent) {
-			super(config);
-			this.filePath = filePath;
-			this.left = new StringTypedElement(filePath, leftContent);
-			this.right = new StringTypedElement("new.txt", rightContent);
-			setTitle("Compare Proposed Changes");
-			setDirty(true);
+			throw ToolException.invalidParams("Cannot read " + filePath + ": " + e.getMessage());
 		}
-
-		@Override
-		protected Object prepareInput(org.eclipse.core.runtime.IProgressMonitor monitor) {
-			return new org.eclipse.compare.structuremergeviewer.DiffNode(left, right);
+		try {
+			if (patch != null) {
+				newContent = TextPatch.applyUnifiedDiff(change.originalContent, patch);
+			} else if (hunks != null) {
+				newContent = TextPatch.applyHunks(change.originalContent, toHunks(hunks));
+			}
+		} catch (TextPatch.PatchException e) {
+			throw ToolException.invalidParams(filePath + ": " + e.getMessage());
 		}
+		change.proposedContent = newContent;
+		return change;
+	}
 
-		@Override
-		public boolean okPressed() {
-			String newContent = right.getContent();
-			ObjectNode params = objectMapper.createObjectNode();
-			params.put("filePath", filePath);
-			params.put("content", newContent);
-			sendMcpNotification("ide/diffAccepted", params);
-			return super.okPressed();
+	private static List<TextPatch.Hunk> toHunks(JsonNode hunks) throws ToolException {
+		if (!hunks.isArray()) {
+			throw ToolException.invalidParams("hunks must be an array");
 		}
-
-		@Override
-		public void cancelPressed() {
-			ObjectNode params = objectMapper.createObjectNode();
-			params.put("filePath", filePath);
-			sendMcpNotification("ide/diffRejected", params);
-			super.cancelPressed();
+		List<TextPatch.Hunk> result = new ArrayList<>();
+		for (JsonNode node : hunks) {
+			if (!node.path("startLine").canConvertToInt() || !node.path("lineCount").canConvertToInt()
+					|| !node.path("newText").isTextual()) {
+				throw ToolException.invalidParams("Every hunk needs startLine, lineCount and newText");
+			}
+			TextPatch.Hunk hunk = new TextPatch.Hunk();
+			hunk.startLine = node.get("startLine").intValue();
+			hunk.lineCount = node.get("lineCount").intValue();
+			hunk.newText = node.get("newText").textValue();
+			hunk.oldText = node.path("oldText").isTextual() ? node.get("oldText").textValue() : null;
+			result.add(hunk);
 		}
+		return result;
 	}
 
-	private static class StringTypedElement implements ITypedElement, IStreamContentAccessor, IEditableContent {
-		private final String name;
-		private String content;
+	// Closes diff views for the CLI, which then knows the outcome itself: no ide/diffRejected is sent
+	private class CloseDiffTool implements McpTool {
+		private final JsonNode schema = SchemaBuilder.object()
+				.property("filePath", "string", "Closes the diff of this file")
+				.property("diffId", "string", "Closes every file of the openDiffBatch call that returned this id")
+				.property("all", "boolean", "Closes every open diff")
+				.build();
 
-		public StringTypedElement(String name, String content) {
-			this.name = name;
-			this.content = (content == null) ? "" : content;
+		@Override
+		public String getName() {
+			return "closeDiff";
 		}
 
-		public String getContent() {
-			return content;
+		@Override
+		public String getDescription() {
+			return "Closes an open diff view. Closing a single file returns its proposed content, "
+					+ "including edits the user made in the view.";
 		}
 
 		@Override
-		public String getName() {
-			return name;
+		public JsonNode getInputSchema() {
+			return schema;
 		}
 
 		@Override
-		public Image getImage() {
-			return null;
+		public ToolResult call(ToolCall call) throws ToolException {
+			ToolArguments args = call.getArguments();
+			String filePath = args.getString("filePath");
+			String diffId = args.getString("diffId");
+			boolean all = args.getBoolean("all", false);
+			if ((filePath != null ? 1 : 0) + (diffId != null ? 1 : 0) + (all ? 1 : 0) != 1) {
+				throw ToolException.invalidParams("Exactly one of filePath, diffId or all is required");
+			}
+			CloseDiffResponse response = new CloseDiffResponse();
+			// Runs after any diff view that an earlier openDiff queued on the UI thread
+			Display.getDefault().syncExec(() -> {
+				List<DiffSessionRegistry.DiffSession<NotifyingStringCompareInput>> closed;
+				if (filePath != null) {
+					DiffSessionRegistry.DiffSession<NotifyingStringCompareInput> session = diffSessions
+							.removeFile(filePath);
+					closed = session == null ? Collections.emptyList() : Collections.singletonList(session);
+				} else if (diffId != null) {
+					closed = diffSessions.removeDiff(diffId);
+				} else {
+					closed = diffSessions.removeAll();
+				}
+				for (DiffSessionRegistry.DiffSession<NotifyingStringCompareInput> session : closed) {
+					String content = session.view.discard(session.filePath);
+					if (filePath != null) {
+						response.content = content;
+					}
+					ClosedDiff entry = new ClosedDiff();
+					entry.filePath = session.filePath;
+					entry.diffId = session.diffId;
+					response.closed.add(entry);
+				}
+			});
+			try {
+				return ToolResult.text(objectMapper.writeValueAsString(response));
+			} catch (JsonProcessingException e) {
+				throw new ToolException(ToolException.INTERNAL_ERROR, e.getMessage());
+			}
 		}
 
 		@Override
-		public String getType() {
-			return "txt";
+		public boolean isParallelSafe() {
+			return false;
 		}
+	}
+
+	// Large selections are only summarized in context updates; the CLI pulls the text it needs here
+	private class GetDocumentRangeTool implements McpTool {
+		private final JsonNode schema = SchemaBuilder.object()
+				.property("filePath", "string", "An open file; defaults to the active editor")
+				.property("offset", "integer", "First character of the range")
+				.property("length", "integer", "Number of characters; defaults to the rest of the document")
+				.property("startLine", "integer", "First line of the range, 0-based; use instead of offset")
+				.property("endLine", "integer", "Last line of the range, 0-based and inclusive; defaults to startLine")
+				.build();
 
 		@Override
-		public InputStream getContents() {
-			return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+		public String getName() {
+			return "getDocumentRange";
 		}
 
 		@Override
-		public boolean isEditable() {
-			return true;
+		public String getDescription() {
+			return "Returns a character or line range of an open editor's current, possibly unsaved, content";
 		}
 
 		@Override
-		public void setContent(byte[] newContent) {
-			this.content = new String(newContent, StandardCharsets.UTF_8);
+		public JsonNode getInputSchema() {
+			return schema;
 		}
 
 		@Override
-		public ITypedElement replace(ITypedElement dest, ITypedElement src) {
-			return null;
+		public ToolResult call(ToolCall call) throws ToolException {
+			ToolArguments args = call.getArguments();
+			if (!args.has("offset") && !args.has("startLine")) {
+				throw ToolException.invalidParams("Either offset or startLine is required");
+			}
+			// Documents belong to the UI thread
+			Object[] outcome = new Object[1];
+			Display.getDefault().syncExec(() -> {
+				try {
+					outcome[0] = readDocumentRange(args);
+				} catch (ToolException e) {
+					outcome[0] = e;
+				}
+			});
+			if (outcome[0] instanceof ToolException) {
+				throw (ToolException) outcome[0];
+			}
+			return ToolResult.text((String) outcome[0]);
 		}
 	}
 
-	// --- JSON & HTTP Communication Utilities ---
-
-	public void sendMcpNotification(String method, Object params) {
-		HttpExchange exchange = mcpExchange;
-		if (exchange == null || !sseSessionActive.get()) {
-			return;
+	private String readDocumentRange(ToolArguments args) throws ToolException {
+		String filePath = args.getString("filePath");
+		IEditorPart editor = editorTracker == null ? null : editorTracker.findEditor(filePath);
+		if (!(editor instanceof ITextEditor)) {
+			throw ToolException.invalidParams(
+					filePath == null ? "No active text editor" : "File is not open in a text editor: " + filePath);
+		}
+		ITextEditor textEditor = (ITextEditor) editor;
+		IDocument document = textEditor.getDocumentProvider().getDocument(textEditor.getEditorInput());
+		if (document == null) {
+			throw ToolException.invalidParams("No document for " + filePath);
 		}
 		try {
-			ObjectNode notification = objectMapper.createObjectNode();
-			notification.put("jsonrpc", "2.0");
-			notification.put("method", method);
-			notification.set("params", objectMapper.valueToTree(params));
-			synchronized (exchange) {
-				if (mcpExchange == exchange && sseSessionActive.get()) {
-					sendSseMessage(exchange.getResponseBody(), notification);
+			int offset;
+			int length;
+			if (args.has("startLine")) {
+				int startLine = args.getInt("startLine", 0);
+				int endLine = args.getInt("endLine", startLine);
+				if (startLine < 0 || endLine < startLine || endLine >= document.getNumberOfLines()) {
+					throw ToolException.invalidParams("Line range outside the document: " + startLine + "-" + endLine);
+				}
+				offset = document.getLineOffset(startLine);
+				IRegion last = document.getLineInformation(endLine);
+				length = last.getOffset() + last.getLength() - offset;
+			} else {
+				offset = args.getInt("offset", 0);
+				length = args.getInt("length", document.getLength() - offset);
+				if (offset < 0 || length < 0 || offset + length > document.getLength()) {
+					throw ToolException.invalidParams("Range outside the document: " + offset + "+" + length);
 				}
 			}
-		} catch (IOException e) {
-			sseSessionActive.set(false);
-			mcpExchange = null;
+			return document.get(offset, length);
+		} catch (BadLocationException e) {
+			throw ToolException.invalidParams(e.getMessage());
 		}
 	}
 
-	private void sendJsonResponse(HttpExchange exchange, ObjectNode response) throws IOException {
-		byte[] responseBytes = objectMapper.writeValueAsBytes(response);
-		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
-		exchange.sendResponseHeaders(200, responseBytes.length);
-		try (OutputStream os = exchange.getResponseBody()) {
-			os.write(responseBytes);
-		}
+	// --- IDE Context Listening & Reporting ---
+
+	// The tracker follows every workbench window and reports part changes; selections come to this class
+	private void startListening() {
+		Display.getDefault().asyncExec(() -> {
+			editorTracker = new OpenEditorTracker(PlatformUI.getWorkbench(), this::updateAndSendIdeContext, this,
+					metrics);
+			editorTracker.start();
+		});
 	}
 
-	private void sendSseMessage(OutputStream os, Object message) throws IOException {
-		String jsonPayload = objectMapper.writeValueAsString(message);
-		String sseMessage = "data: " + jsonPayload + "\n\n";
-		os.write(sseMessage.getBytes(StandardCharsets.UTF_8));
-		os.flush();
+	private void stopListening() {
+		Display.getDefault().asyncExec(() -> {
+			if (editorTracker != null) {
+				editorTracker.stop();
+				editorTracker = null;
+			}
+		});
 	}
 
-	private void sendJsonRpcError(HttpExchange exchange, JsonNode id, int code, String message) throws IOException {
-		ObjectNode response = objectMapper.createObjectNode();
-		response.put("jsonrpc", "2.0");
-		response.set("id", id);
-		ObjectNode error = objectMapper.createObjectNode();
-		error.put("code", code);
-		error.put("message", message);
-		response.set("error", error);
-		byte[] responseBytes = objectMapper.writeValueAsBytes(response);
-		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
-		exchange.sendResponseHeaders(400, responseBytes.length);
-		try (OutputStream os = exchange.getResponseBody()) {
-			os.write(responseBytes);
-		}
+	private void sendInitialContext() {
+		captureAndSendIdeContext();
 	}
 
-	private void sendToolSuccessResponse(HttpExchange exchange, JsonNode id, String message) throws IOException {
-		ObjectNode response = objectMapper.createObjectNode();
-		response.put("jsonrpc", "2.0");
-		response.set("id", id);
-		ObjectNode result = objectMapper.createObjectNode();
-		ArrayNode content = objectMapper.createArrayNode();
-		ObjectNode textContent = objectMapper.createObjectNode();
-		textContent.put("type", "text");
-		textContent.put("text", message);
-		content.add(textContent);
-		result.set("content", content);
-		response.set("result", result);
-		sendJsonResponse(exchange, response);
+	// Called from every workbench listener; bursts are coalesced by the scheduler
+	private void updateAndSendIdeContext() {
+		if (contextUpdateScheduler != null) {
+			contextUpdateScheduler.requestFlush();
+		}
 	}
 
-	private void startKeepAliveThread(HttpExchange exchange, OutputStream os) {
-		Thread keepAliveThread = new Thread(() -> {
-			try {
-				while (sseSessionActive.get() && mcpExchange == exchange) {
-					Thread.sleep(15000);
-					if (sseSessionActive.get() && mcpExchange == exchange) {
-						synchronized (exchange) {
+	private void captureAndSendIdeContext() {
+		if (sessions.isEmpty()) {
+			return;
+		}
+		// A capture still waiting for the UI thread will read the latest state anyway
+		if (!contextCaptureQueued.compareAndSet(false, true)) {
+			return;
+		}
+		long queued = System.nanoTime();
+		Display.getDefault().asyncExec(() -> {
+			CompanionEvents.ContextCapture event = new CompanionEvents.ContextCapture();
+			event.begin();
+			long started = System.nanoTime();
+			metrics.timer("ui.contextCaptureWait").record(started - queued, false);
+			contextCaptureQueued.set(false);
+			IdeContext context = new IdeContext();
+			context.workspacePath = workspaceModel.getWorkspacePath();
+
+			// The snapshot is handed to the writer thread, so openFiles must be immutable; the tracker's
+			// list is, and only changes after an editor change
+			context.openFiles = Collections.emptyList();
+			OpenEditorTracker tracker = editorTracker;
+			if (tracker != null) {
+				context.openFiles = tracker.getOpenFiles();
+				IEditorPart activeEditor = tracker.getActiveEditor();
+				if (activeEditor instanceof ITextEditor) {
+					ITextEditor textEditor = (ITextEditor) activeEditor;
+					IFile file = textEditor.getEditorInput().getAdapter(IFile.class);
+					if (file != null) {
+						context.activeFile = file.getLocation().toOSString();
+					}
+
+					ISelection selection = textEditor.getSelectionProvider().getSelection();
+					if (selection instanceof ITextSelection) {
+						ITextSelection textSelection = (ITextSelection) selection;
+
+						IDocument document = textEditor.getDocumentProvider()
+								.getDocument(textEditor.getEditorInput());
+						if (document != null) {
 							try {
-								os.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
-								os.flush();
-							} catch (IOException e) {
-								break;
+								// Reads at most the inline cap instead of the whole selection
+								selectionSummarizer.summarize(document, textSelection.getOffset(),
+										textSelection.getLength(), context);
+								context.cursorPosition = new IdeContext.CursorPosition();
+								context.cursorPosition.line = document.getLineOfOffset(textSelection.getOffset());
+								context.cursorPosition.character = textSelection.getOffset()
+										- document.getLineOffset(context.cursorPosition.line);
+							} catch (Exception e) {
+								// Ignore if offset is invalid
 							}
 						}
 					}
 				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-			} finally {
-				sseSessionActive.set(false);
-				mcpExchange = null;
 			}
+			metrics.timer("ui.contextCapture").recordSince(started);
+			event.end();
+			if (event.shouldCommit()) {
+				event.openFiles = context.openFiles.size();
+				event.selectionLength = context.selection != null ? context.selection.length : 0;
+				event.queueWait = started - queued;
+				event.commit();
+			}
+			sendContextUpdate(context);
 		});
-		keepAliveThread.setDaemon(true);
-		keepAliveThread.setName("MCP-KeepAlive");
-		keepAliveThread.start();
 	}
 
-	private void createDiscoveryFile(int port) throws IOException {
-		IWorkspaceRoot workspaceRoot = ResourcesPlugin.getWorkspace().getRoot();
-		IProject[] projects = workspaceRoot.getProjects();
-		String pathSeparator = System.getProperty("path.separator");
-		String workspacePath = Arrays.stream(projects).filter(IProject::isOpen).map(p -> p.getLocation().toOSString())
-				.collect(Collectors.joining(pathSeparator));
-		if (workspacePath.isEmpty()) {
-			workspacePath = workspaceRoot.getLocation().toOSString();
+	// Only enqueues the snapshot; delta encoding and the socket writes happen on each session's writer
+	private void sendContextUpdate(IdeContext context) {
+		sessions.broadcastContext(context);
+	}
+
+	@Override
+	public void selectionChanged(IWorkbenchPart part, ISelection selection) {
+		if (part instanceof IEditorPart) {
+			updateAndSendIdeContext();
+		}
+	}
+
+	// --- Diff View Implementation ---
+
+	// A non-modal compare editor, so a batch of proposals does not block the workbench
+	private void showDiffView(String diffId, List<NotifyingStringCompareInput.FileChange> changes, boolean returnPatch,
+			CompanionEvents.DiffViewOpen openEvent) {
+		new NotifyingStringCompareInput(diffId, changes, returnPatch, diffSessions, this::sendMcpNotification,
+				openEvent, metrics).open();
+	}
+
+	// --- JSON & HTTP Communication Utilities ---
+
+	public void sendMcpNotification(String method, Object params) {
+		if (sessions != null) {
+			sessions.broadcastNotification(method, params);
 		}
+	}
+
+	// Rewritten whenever the set of open projects changes; a no-op when the content is unchanged
+	private void writeDiscoveryFile() throws IOException {
 		DiscoveryFileContent discoveryContent = new DiscoveryFileContent();
 		discoveryContent.port = port;
-		discoveryContent.workspacePath = workspacePath;
+		discoveryContent.workspacePath = workspaceModel.getWorkspacePath();
 		discoveryContent.authToken = this.authToken;
+		if (unixSocketTransport != null) {
+			discoveryContent.socketPath = unixSocketTransport.getSocketPath().toString();
+		}
 		discoveryContent.ideInfo = new IdeInfo();
-		long pid = ProcessHandle.current().pid();
-		String tempDir = System.getProperty("java.io.tmpdir");
-		Path geminiDir = Paths.get(tempDir, "gemini", "ide");
-		Files.createDirectories(geminiDir);
-		String fileName = String.format("gemini-ide-server-%d-%d.json", pid, port);
-		this.discoveryFilePath = geminiDir.resolve(fileName);
-		objectMapper.writerWithDefaultPrettyPrinter().writeValue(discoveryFilePath.toFile(), discoveryContent);
-		discoveryFilePath.toFile().deleteOnExit();
+		if (discoveryFile == null) {
+			long pid = ProcessHandle.current().pid();
+			String fileName = String.format("gemini-ide-server-%d-%d.json", pid, port);
+			discoveryFile = new ManagedFile(Paths.get(System.getProperty("java.io.tmpdir"), "gemini", "ide", fileName));
+			discoveryFile.getPath().toFile().deleteOnExit();
+		}
+		discoveryFile.update(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(discoveryContent));
 	}
 
 	private void deleteDiscoveryFile() {
-		if (discoveryFilePath != null && Files.exists(discoveryFilePath)) {
+		if (discoveryFile != null) {
 			try {
-				Files.delete(discoveryFilePath);
+				discoveryFile.delete();
 			} catch (IOException e) {
-				e.printStackTrace();
+				metrics.reportError("deleteDiscoveryFile", e);
 			}
 		}
 	}
@@ -647,29 +823,29 @@ public class GeminiHttpServer implements IPartListener2, ISelectionListener {
 		public String newContent;
 	}
 
-	public static class IdeContext {
-		public String workspacePath;
-		public List<OpenFile> openFiles;
-		public String activeFile;
-		public String selectedText;
-		public CursorPosition cursorPosition;
+	public static class DiffBatchResponse {
+		public String diffId;
+		public int files;
 	}
 
-	public static class OpenFile {
-		public String filePath;
-		public long timestamp;
-		public boolean active;
+	public static class CloseDiffResponse {
+		// The proposal at closing time, when a single filePath was closed
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String content;
+		public List<ClosedDiff> closed = new ArrayList<>();
 	}
 
-	public static class CursorPosition {
-		public int line;
-		public int character;
+	public static class ClosedDiff {
+		public String filePath;
+		public String diffId;
 	}
 
 	public static class DiscoveryFileContent {
 		public int port;
 		public String workspacePath;
 		public String authToken;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String socketPath;
 		public IdeInfo ideInfo;
 	}
 
@@ -0,0 +1,369 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.compare.CompareConfiguration;
+import org.eclipse.compare.CompareEditorInput;
+import org.eclipse.compare.CompareUI;
+import org.eclipse.compare.IEditableContent;
+import org.eclipse.compare.IEncodedStreamContentAccessor;
+import org.eclipse.compare.ITypedElement;
+import org.eclipse.compare.structuremergeviewer.DiffNode;
+import org.eclipse.compare.structuremergeviewer.DiffTreeViewer;
+import org.eclipse.compare.structuremergeviewer.Differencer;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IMenuManager;
+import org.eclipse.jface.action.Separator;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import navicon.gemini.eclipse.companion.DiffSessionRegistry.DiffSession;
+
+// A non-modal compare editor with the proposed changes of one openDiff or openDiffBatch call: the
+// current content on the left, the editable proposal on the right. A batch lists its files in a
+// DiffNode tree whose context menu accepts or rejects single files. Saving accepts every file still
+// open, closing the editor rejects them. Settled files leave the tree and their content is released;
+// the editor closes with the last one. Everything here runs on the UI thread.
+public class NotifyingStringCompareInput extends CompareEditorInput {
+
+	private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+	private final String diffId;
+	private final DiffSessionRegistry<NotifyingStringCompareInput> registry;
+	private final BiConsumer<String, Object> notifier;
+	private final ServerMetrics metrics;
+	private final boolean returnPatch;
+	private final Map<String, FileNode> files = new LinkedHashMap<>();
+	// Parent of the file nodes of a batch, null when the editor shows a single file
+	private final DiffNode root;
+	private DiffTreeViewer treeViewer;
+	// Committed once the input is ready, right before the editor shows it
+	private CompanionEvents.DiffViewOpen openEvent;
+
+	// One proposed change: the file's current content, unsaved changes included, and the new content
+	public static class FileChange {
+		public String filePath;
+		public String originalContent;
+		public String proposedContent;
+		// The file does not exist yet
+		public boolean added;
+	}
+
+	private static class FileNode extends DiffNode {
+		final String filePath;
+		final StringTypedElement original;
+		final StringTypedElement proposed;
+		DiffSession<NotifyingStringCompareInput> session;
+
+		FileNode(DiffNode parent, FileChange change, StringTypedElement original, StringTypedElement proposed) {
+			super(parent, change.added ? Differencer.ADDITION : Differencer.CHANGE, null, original, proposed);
+			this.filePath = change.filePath;
+			this.original = original;
+			this.proposed = proposed;
+		}
+	}
+
+	public NotifyingStringCompareInput(String diffId, List<FileChange> changes, boolean returnPatch,
+			DiffSessionRegistry<NotifyingStringCompareInput> registry, BiConsumer<String, Object> notifier,
+			CompanionEvents.DiffViewOpen openEvent, ServerMetrics metrics) {
+		super(createConfiguration(changes));
+		this.metrics = metrics;
+		this.diffId = diffId;
+		this.registry = registry;
+		this.notifier = notifier;
+		this.returnPatch = returnPatch;
+		this.openEvent = openEvent;
+		this.root = changes.size() > 1 ? new DiffNode(Differencer.NO_CHANGE) : null;
+		for (FileChange change : changes) {
+			files.put(change.filePath, new FileNode(root, change,
+					new StringTypedElement(change.filePath, change.originalContent),
+					new StringTypedElement(change.filePath, change.proposedContent)));
+		}
+		setTitle(root == null ? "Compare Proposed Changes" : "Proposed Changes (" + changes.size() + " files)");
+		setDirty(true);
+	}
+
+	private static CompareConfiguration createConfiguration(List<FileChange> changes) {
+		CompareConfiguration config = new CompareConfiguration();
+		config.setLeftEditable(false);
+		config.setRightEditable(true);
+		config.setLeftLabel(changes.size() == 1 ? "Original: " + changes.get(0).filePath : "Original");
+		config.setRightLabel("Proposed Changes");
+		return config;
+	}
+
+	// Registers a session per file, drops older diffs of the same files and opens the editor
+	public void open() {
+		for (FileNode node : files.values()) {
+			node.session = new DiffSession<>(diffId, node.filePath, this);
+			DiffSession<NotifyingStringCompareInput> superseded = registry.open(node.session);
+			if (superseded != null) {
+				superseded.view.discard(superseded.filePath);
+			}
+		}
+		CompareUI.openCompareEditor(this);
+	}
+
+	public String getDiffId() {
+		return diffId;
+	}
+
+	// Drops a file whose session closeDiff or a newer diff already removed, without a notification.
+	// Returns the proposal as it was at that point, edits in the editor included.
+	public String discard(String filePath) {
+		FileNode node = files.get(filePath);
+		if (node == null) {
+			return null;
+		}
+		flushViewers();
+		String content = node.proposed.getContent();
+		drop(node);
+		afterSettled();
+		return content;
+	}
+
+	@Override
+	protected Object prepareInput(IProgressMonitor monitor) {
+		Object input = root != null ? root : files.values().iterator().next();
+		CompanionEvents.DiffViewOpen event = openEvent;
+		openEvent = null;
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				FileNode first = files.values().iterator().next();
+				event.filePath = first.filePath;
+				event.files = files.size();
+				for (FileNode node : files.values()) {
+					event.proposedLength += node.proposed.getContent().length();
+				}
+				event.commit();
+			}
+		}
+		return input;
+	}
+
+	@Override
+	public Viewer createDiffViewer(Composite parent) {
+		treeViewer = new DiffTreeViewer(parent, getCompareConfiguration()) {
+			@Override
+			protected void fillContextMenu(IMenuManager manager) {
+				super.fillContextMenu(manager);
+				List<FileNode> selected = selectedFiles(getSelection());
+				if (!selected.isEmpty()) {
+					manager.add(new Separator());
+					manager.add(action("Accept Changes", () -> settle(selected, true)));
+					manager.add(action("Reject Changes", () -> settle(selected, false)));
+				}
+			}
+		};
+		return treeViewer;
+	}
+
+	// Save in the compare editor
+	@Override
+	public void saveChanges(IProgressMonitor monitor) throws CoreException {
+		super.saveChanges(monitor);
+		settle(new ArrayList<>(files.values()), true);
+	}
+
+	@Override
+	protected void handleDispose() {
+		super.handleDispose();
+		// Closed by the user without saving, or after everything was settled
+		for (FileNode node : new ArrayList<>(files.values())) {
+			if (registry.remove(node.session)) {
+				sendRejected(node);
+			}
+			drop(node);
+		}
+	}
+
+	// --- Accept and Reject ---
+
+	private void settle(List<FileNode> nodes, boolean accept) {
+		if (accept) {
+			flushViewers();
+		}
+		for (FileNode node : nodes) {
+			if (files.get(node.filePath) != node) {
+				continue;
+			}
+			if (registry.remove(node.session)) {
+				if (accept) {
+					sendAccepted(node);
+				} else {
+					sendRejected(node);
+				}
+			}
+			drop(node);
+		}
+		afterSettled();
+	}
+
+	private void sendAccepted(FileNode node) {
+		ObjectNode params = NODES.objectNode();
+		params.put("filePath", node.filePath);
+		params.put("diffId", diffId);
+		if (returnPatch) {
+			params.put("patch", TextPatch.unifiedDiff(node.original.getContent(), node.proposed.getContent(),
+					node.filePath));
+		} else {
+			params.put("content", node.proposed.getContent());
+		}
+		notifier.accept("ide/diffAccepted", params);
+	}
+
+	private void sendRejected(FileNode node) {
+		ObjectNode params = NODES.objectNode();
+		params.put("filePath", node.filePath);
+		params.put("diffId", diffId);
+		notifier.accept("ide/diffRejected", params);
+	}
+
+	private void drop(FileNode node) {
+		files.remove(node.filePath);
+		if (root != null) {
+			root.remove(node);
+		}
+		node.original.release();
+		node.proposed.release();
+	}
+
+	private void afterSettled() {
+		if (files.isEmpty()) {
+			setDirty(false);
+			closeEditor();
+		} else if (treeViewer != null && !treeViewer.getControl().isDisposed()) {
+			treeViewer.refresh();
+		}
+	}
+
+	// Writes pending edits in the content viewers back to the proposals
+	private void flushViewers() {
+		try {
+			super.saveChanges(new NullProgressMonitor());
+		} catch (CoreException e) {
+			metrics.reportError("openDiff.save", e);
+		}
+	}
+
+	// Deferred, so that it never runs in the middle of the editor's own save or dispose
+	private void closeEditor() {
+		Display.getDefault().asyncExec(() -> {
+			for (IWorkbenchWindow window : PlatformUI.getWorkbench().getWorkbenchWindows()) {
+				for (IWorkbenchPage page : window.getPages()) {
+					IEditorPart editor = page.findEditor(this);
+					if (editor != null) {
+						page.closeEditor(editor, false);
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	private List<FileNode> selectedFiles(ISelection selection) {
+		List<FileNode> selected = new ArrayList<>();
+		if (selection instanceof IStructuredSelection) {
+			for (Object element : ((IStructuredSelection) selection).toList()) {
+				if (element instanceof FileNode) {
+					selected.add((FileNode) element);
+				}
+			}
+		}
+		return selected;
+	}
+
+	private static Action action(String text, Runnable run) {
+		return new Action(text) {
+			@Override
+			public void run() {
+				run.run();
+			}
+		};
+	}
+
+	// Holds the content only as UTF-8, encoded once; the compare viewer asks for the stream repeatedly,
+	// and the text is decoded again only when the diff is accepted
+	private static class StringTypedElement implements ITypedElement, IEncodedStreamContentAccessor, IEditableContent {
+		private static final byte[] RELEASED = new byte[0];
+		private final String name;
+		private byte[] encoded;
+
+		public StringTypedElement(String name, String content) {
+			this.name = name;
+			this.encoded = (content == null) ? RELEASED : content.getBytes(StandardCharsets.UTF_8);
+		}
+
+		public String getContent() {
+			return new String(encoded, StandardCharsets.UTF_8);
+		}
+
+		// The editor may keep the element until it is disposed; the content is not needed after settling
+		public void release() {
+			encoded = RELEASED;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Image getImage() {
+			return null;
+		}
+
+		@Override
+		public String getType() {
+			return "txt";
+		}
+
+		@Override
+		public InputStream getContents() {
+			return new ByteArrayInputStream(encoded);
+		}
+
+		@Override
+		public String getCharset() {
+			// Without this the viewer decodes with the platform default
+			return StandardCharsets.UTF_8.name();
+		}
+
+		@Override
+		public boolean isEditable() {
+			return true;
+		}
+
+		@Override
+		public void setContent(byte[] newContent) {
+			this.encoded = newContent;
+		}
+
+		@Override
+		public ITypedElement replace(ITypedElement dest, ITypedElement src) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.ISelectionListener;
+import org.eclipse.ui.IWindowListener;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPartReference;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+
+import navicon.gemini.eclipse.companion.IdeContext.OpenFile;
+
+// The file editors open in every workbench window, kept current from part events instead of walking
+// all editor references on each context capture. An editor's input is resolved once when it opens
+// or its input changes, and file timestamps are refreshed from resource deltas when a file's content
+// changes; the list of inactive files is rebuilt only after one of these changes. Switching the active
+// editor does not rebuild it: the immutable list handed out overlays the active entry of one slot,
+// found through a per-path index. Also attaches the selection listener to every window it follows.
+// All state is confined to the UI thread.
+public class OpenEditorTracker implements IPartListener2, IWindowListener, IResourceChangeListener {
+
+	private static class Entry {
+		final IFile file;
+		final OpenFile inactive;
+		final OpenFile active;
+
+		Entry(IFile file) {
+			this.file = file;
+			this.inactive = openFile(file, false);
+			this.active = openFile(file, true);
+		}
+
+		private static OpenFile openFile(IFile file, boolean active) {
+			OpenFile openFile = new OpenFile();
+			openFile.filePath = file.getLocation().toOSString();
+			openFile.timestamp = file.getLocalTimeStamp();
+			openFile.active = active;
+			return openFile;
+		}
+	}
+
+	// An immutable view of the inactive files with one slot replaced by its active entry
+	private static class OpenFileList extends AbstractList<OpenFile> implements RandomAccess {
+		private final List<OpenFile> inactive;
+		private final int activeIndex;
+		private final OpenFile active;
+
+		OpenFileList(List<OpenFile> inactive, int activeIndex, OpenFile active) {
+			this.inactive = inactive;
+			this.activeIndex = activeIndex;
+			this.active = active;
+		}
+
+		@Override
+		public OpenFile get(int index) {
+			return index == activeIndex ? active : inactive.get(index);
+		}
+
+		@Override
+		public int size() {
+			return inactive.size();
+		}
+	}
+
+	private final IWorkbench workbench;
+	private final Runnable changeListener;
+	private final ISelectionListener selectionListener;
+	private final ServerMetrics metrics;
+	private final Map<IEditorReference, Entry> entries = new LinkedHashMap<>();
+	private IEditorReference activeRef;
+	private List<OpenFile> inactiveFiles = Collections.emptyList();
+	private Map<String, Integer> indexByPath = Collections.emptyMap();
+	private List<OpenFile> openFiles = Collections.emptyList();
+	private boolean openFilesStale;
+	private boolean activeStale;
+
+	public OpenEditorTracker(IWorkbench workbench, Runnable changeListener, ISelectionListener selectionListener,
+			ServerMetrics metrics) {
+		this.workbench = workbench;
+		this.changeListener = changeListener;
+		this.selectionListener = selectionListener;
+		this.metrics = metrics;
+	}
+
+	// UI thread only
+	public void start() {
+		workbench.addWindowListener(this);
+		for (IWorkbenchWindow window : workbench.getWorkbenchWindows()) {
+			follow(window);
+		}
+		updateActive(workbench.getActiveWorkbenchWindow());
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+	}
+
+	// UI thread only
+	public void stop() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		workbench.removeWindowListener(this);
+		for (IWorkbenchWindow window : workbench.getWorkbenchWindows()) {
+			window.getPartService().removePartListener(this);
+			window.getSelectionService().removeSelectionListener(selectionListener);
+		}
+		entries.clear();
+		activeRef = null;
+		inactiveFiles = Collections.emptyList();
+		indexByPath = Collections.emptyMap();
+		openFiles = Collections.emptyList();
+	}
+
+	public List<OpenFile> getOpenFiles() {
+		if (openFilesStale) {
+			buildInactiveFiles();
+			openFilesStale = false;
+			activeStale = true;
+		}
+		if (activeStale) {
+			openFiles = overlayActive();
+			activeStale = false;
+		}
+		return openFiles;
+	}
+
+	// The active editor of the active window, also while a view has the focus
+	public IEditorPart getActiveEditor() {
+		return activeRef == null ? null : activeRef.getEditor(false);
+	}
+
+	// An open editor showing the file, preferring the active one; the active editor when filePath is null
+	public IEditorPart findEditor(String filePath) {
+		if (filePath == null) {
+			return getActiveEditor();
+		}
+		IEditorPart found = null;
+		for (Map.Entry<IEditorReference, Entry> e : entries.entrySet()) {
+			if (filePath.equals(e.getValue().inactive.filePath)) {
+				IEditorPart editor = e.getKey().getEditor(false);
+				if (e.getKey() == activeRef && editor != null) {
+					return editor;
+				}
+				if (found == null) {
+					found = editor;
+				}
+			}
+		}
+		return found;
+	}
+
+	private void follow(IWorkbenchWindow window) {
+		window.getPartService().addPartListener(this);
+		window.getSelectionService().addSelectionListener(selectionListener);
+		for (IWorkbenchPage page : window.getPages()) {
+			for (IEditorReference editorRef : page.getEditorReferences()) {
+				index(editorRef);
+			}
+		}
+	}
+
+	private void index(IEditorReference editorRef) {
+		IFile file = null;
+		try {
+			IEditorInput input = editorRef.getEditorInput();
+			file = input == null ? null : input.getAdapter(IFile.class);
+		} catch (PartInitException e) {
+			// Editors whose input cannot be restored are not reported
+		}
+		Entry previous = file == null || file.getLocation() == null ? entries.remove(editorRef)
+				: entries.put(editorRef, new Entry(file));
+		if (previous != null || entries.containsKey(editorRef)) {
+			openFilesStale = true;
+		}
+	}
+
+	private void updateActive(IWorkbenchWindow window) {
+		IWorkbenchPage page = window == null ? null : window.getActivePage();
+		IEditorPart editor = page == null ? null : page.getActiveEditor();
+		IEditorReference ref = editor == null ? null : (IEditorReference) page.getReference(editor);
+		if (ref != activeRef) {
+			activeRef = ref;
+			activeStale = true;
+		}
+	}
+
+	private void buildInactiveFiles() {
+		// The same file can be open in several windows; report it once, as active if any copy is
+		List<OpenFile> files = new ArrayList<>(entries.size());
+		Map<String, Integer> index = new HashMap<>();
+		for (Entry entry : entries.values()) {
+			if (index.putIfAbsent(entry.inactive.filePath, files.size()) == null) {
+				files.add(entry.inactive);
+			}
+		}
+		inactiveFiles = Collections.unmodifiableList(files);
+		indexByPath = index;
+	}
+
+	private List<OpenFile> overlayActive() {
+		Entry entry = activeRef == null ? null : entries.get(activeRef);
+		Integer index = entry == null ? null : indexByPath.get(entry.active.filePath);
+		return index == null ? inactiveFiles : new OpenFileList(inactiveFiles, index, entry.active);
+	}
+
+	private boolean isActiveWindow(IWorkbenchPartReference partRef) {
+		return partRef.getPage().getWorkbenchWindow() == workbench.getActiveWorkbenchWindow();
+	}
+
+	// --- Part events ---
+
+	@Override
+	public void partOpened(IWorkbenchPartReference partRef) {
+		if (partRef instanceof IEditorReference) {
+			index((IEditorReference) partRef);
+			changeListener.run();
+		}
+	}
+
+	@Override
+	public void partClosed(IWorkbenchPartReference partRef) {
+		if (partRef instanceof IEditorReference) {
+			if (entries.remove(partRef) != null) {
+				openFilesStale = true;
+			}
+			if (partRef == activeRef) {
+				activeRef = null;
+				activeStale = true;
+			}
+			changeListener.run();
+		}
+	}
+
+	@Override
+	public void partInputChanged(IWorkbenchPartReference partRef) {
+		if (partRef instanceof IEditorReference) {
+			index((IEditorReference) partRef);
+			changeListener.run();
+		}
+	}
+
+	@Override
+	public void partActivated(IWorkbenchPartReference partRef) {
+		if (isActiveWindow(partRef)) {
+			updateActive(partRef.getPage().getWorkbenchWindow());
+		}
+		changeListener.run();
+	}
+
+	@Override
+	public void partBroughtToTop(IWorkbenchPartReference partRef) {
+		if (partRef instanceof IEditorReference && isActiveWindow(partRef)) {
+			updateActive(partRef.getPage().getWorkbenchWindow());
+			changeListener.run();
+		}
+	}
+
+	@Override
+	public void partVisible(IWorkbenchPartReference partRef) {
+		if (partRef instanceof IEditorReference) {
+			changeListener.run();
+		}
+	}
+
+	@Override
+	public void partDeactivated(IWorkbenchPartReference partRef) {
+		/* No-op */ }
+
+	@Override
+	public void partHidden(IWorkbenchPartReference partRef) {
+		/* No-op */ }
+
+	// --- Window events ---
+
+	@Override
+	public void windowOpened(IWorkbenchWindow window) {
+		follow(window);
+		changeListener.run();
+	}
+
+	@Override
+	public void windowClosed(IWorkbenchWindow window) {
+		window.getPartService().removePartListener(this);
+		window.getSelectionService().removeSelectionListener(selectionListener);
+		if (entries.keySet().removeIf(ref -> ref.getPage().getWorkbenchWindow() == window)) {
+			openFilesStale = true;
+		}
+		if (activeRef != null && !entries.containsKey(activeRef)) {
+			activeRef = null;
+			activeStale = true;
+		}
+		changeListener.run();
+	}
+
+	@Override
+	public void windowActivated(IWorkbenchWindow window) {
+		updateActive(window);
+		changeListener.run();
+	}
+
+	@Override
+	public void windowDeactivated(IWorkbenchWindow window) {
+		/* No-op */ }
+
+	// --- File timestamps ---
+
+	// Runs on the thread that changed the workspace; only the changed paths are collected here
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		Set<IPath> changed = new HashSet<>();
+		try {
+			delta.accept(child -> {
+				if (child.getResource().getType() == IResource.FILE
+						&& (child.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0) {
+					changed.add(child.getFullPath());
+				}
+				return true;
+			});
+		} catch (CoreException e) {
+			metrics.reportError("editorTracker.resourceChanged", e);
+			return;
+		}
+		if (!changed.isEmpty()) {
+			Display.getDefault().asyncExec(() -> refreshTimestamps(changed));
+		}
+	}
+
+	private void refreshTimestamps(Set<IPath> changed) {
+		boolean refreshed = false;
+		for (Map.Entry<IEditorReference, Entry> e : entries.entrySet()) {
+			IFile file = e.getValue().file;
+			if (changed.contains(file.getFullPath()) && file.getLocation() != null) {
+				e.setValue(new Entry(file));
+				refreshed = true;
+			}
+		}
+		if (refreshed) {
+			openFilesStale = true;
+			changeListener.run();
+		}
+	}
+}
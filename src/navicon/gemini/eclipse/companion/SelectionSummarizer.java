@@ -0,0 +1,73 @@
+package navicon.gemini.eclipse.companion;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+import navicon.gemini.eclipse.companion.IdeContext.SelectionInfo;
+
+// Describes the editor selection for a context update without copying it whole: selectedText holds
+// at most maxInlineChars, and the selection info carries the offsets, the length and a SHA-256 of
+// the full text so the CLI can tell whether a range it fetched with getDocumentRange is current.
+// The hash is read from the document in chunks and remembered per (document, modification stamp,
+// offset, length), so repeated captures of an unchanged large selection cost nothing. UI thread only.
+public class SelectionSummarizer {
+
+	private static final int HASH_CHUNK = 64 * 1024;
+
+	private final int maxInlineChars;
+	private WeakReference<IDocument> lastDocument = new WeakReference<>(null);
+	private long lastStamp;
+	private int lastOffset;
+	private int lastLength;
+	private String lastHash;
+
+	public SelectionSummarizer(int maxInlineChars) {
+		this.maxInlineChars = Math.max(0, maxInlineChars);
+	}
+
+	public void summarize(IDocument document, int offset, int length, IdeContext context)
+			throws BadLocationException {
+		SelectionInfo selection = new SelectionInfo();
+		selection.offset = offset;
+		selection.length = length;
+		selection.truncated = length > maxInlineChars;
+		if (length > 0) {
+			selection.hash = hash(document, offset, length);
+		}
+		context.selectedText = document.get(offset, Math.min(length, maxInlineChars));
+		context.selection = selection;
+	}
+
+	private String hash(IDocument document, int offset, int length) throws BadLocationException {
+		long stamp = document instanceof IDocumentExtension4
+				? ((IDocumentExtension4) document).getModificationStamp()
+				: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		if (lastDocument.get() == document && stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+				&& stamp == lastStamp && offset == lastOffset && length == lastLength) {
+			return lastHash;
+		}
+		MessageDigest digest = FileContentReader.sha256();
+		int end = offset + length;
+		for (int pos = offset; pos < end;) {
+			int chunkEnd = Math.min(end, pos + HASH_CHUNK);
+			// Never split a surrogate pair between two chunks
+			if (chunkEnd < end && Character.isHighSurrogate(document.getChar(chunkEnd - 1))) {
+				chunkEnd--;
+			}
+			digest.update(document.get(pos, chunkEnd - pos).getBytes(StandardCharsets.UTF_8));
+			pos = chunkEnd;
+		}
+		lastDocument = new WeakReference<>(document);
+		lastStamp = stamp;
+		lastOffset = offset;
+		lastLength = length;
+		lastHash = HexFormat.of().formatHex(digest.digest());
+		return lastHash;
+	}
+}
@@ -0,0 +1,336 @@
+package navicon.gemini.eclipse.companion;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.IFileBuffer;
+import org.eclipse.core.filebuffers.IFileBufferListener;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.swt.widgets.Display;
+
+// Keeps the searchText trigram index in step with the files of the WorkspaceFileIndexer. Files to
+// (re)index are queued by key and read by a background job, so neither resource deltas nor typing
+// wait for it. Unsaved editor content wins over the file on disk: text file buffers are watched,
+// edits reindex the file after a short pause, and closing a buffer reindexes it from disk. Files
+// over the size limit or with a NUL byte near the start are treated as binary and skipped; files
+// the index has no room for are remembered and read on every search instead.
+public class TextSearchIndexer implements WorkspaceFileIndexer.FileListener, IFileBufferListener,
+		SearchTextTool.Source {
+
+	private static final long EDIT_DELAY_MS = 500;
+	private static final int BINARY_PROBE_BYTES = 8192;
+
+	private final IWorkspace workspace;
+	private final PathIndex files;
+	private final TrigramIndex index;
+	private final ITextFileBufferManager bufferManager = FileBuffers.getTextFileBufferManager();
+	private final long maxFileBytes = CompanionSettings.searchMaxFileBytes();
+	private final Map<String, IFile> pending = new ConcurrentHashMap<>();
+	// Files left out of the index because it was full, by key to location
+	private final Map<String, String> overflow = new ConcurrentHashMap<>();
+	// Touched on the UI thread only
+	private final Map<IDocument, IDocumentListener> documentListeners = new HashMap<>();
+	private final Job indexJob = Job.create("Indexing workspace text for Gemini CLI", this::drain);
+	private volatile boolean scanFinished;
+	private volatile boolean draining;
+
+	public TextSearchIndexer(IWorkspace workspace, WorkspaceFileIndexer fileIndexer, TrigramIndex index) {
+		this.workspace = workspace;
+		this.files = fileIndexer.getIndex();
+		this.index = index;
+		indexJob.setSystem(true);
+		indexJob.setPriority(Job.DECORATE);
+		fileIndexer.addFileListener(this);
+	}
+
+	public TrigramIndex getIndex() {
+		return index;
+	}
+
+	// Files the index had no room for, read on every search instead
+	public int getOverBudgetCount() {
+		return overflow.size();
+	}
+
+	// True once every file found by the initial scan has been indexed
+	public boolean isReady() {
+		return scanFinished && !draining && pending.isEmpty();
+	}
+
+	public void start() {
+		bufferManager.addFileBufferListener(this);
+		watchOpenBuffers();
+	}
+
+	public void stop() {
+		bufferManager.removeFileBufferListener(this);
+		indexJob.cancel();
+		Display.getDefault().asyncExec(() -> {
+			documentListeners.forEach(IDocument::removeDocumentListener);
+			documentListeners.clear();
+		});
+		TrigramIndex.Stats stats = index.getStats();
+		Activator.logInfo("Gemini Companion text index: " + stats.files + " files, " + stats.trigrams
+				+ " trigrams, " + stats.postings + " postings, ~" + stats.estimatedBytes / (1024 * 1024) + " MB, "
+				+ getOverBudgetCount() + " files over budget");
+	}
+
+	// --- WorkspaceFileIndexer.FileListener ---
+
+	@Override
+	public void fileAdded(IFile file, String key) {
+		enqueue(key, file, 0);
+	}
+
+	@Override
+	public void fileChanged(IFile file, String key) {
+		enqueue(key, file, 0);
+	}
+
+	@Override
+	public void fileRemoved(String key) {
+		pending.remove(key);
+		overflow.remove(key);
+		index.remove(key);
+	}
+
+	@Override
+	public void folderRemoved(String key) {
+		String folder = key + "/";
+		pending.keySet().removeIf(k -> k.startsWith(folder));
+		overflow.keySet().removeIf(k -> k.startsWith(folder));
+		index.removePrefix(key);
+	}
+
+	@Override
+	public void scanFinished() {
+		scanFinished = true;
+		// Buffers opened before their file was found by the scan were not watched yet
+		watchOpenBuffers();
+	}
+
+	private void watchOpenBuffers() {
+		for (IFileBuffer buffer : bufferManager.getFileBuffers()) {
+			bufferCreated(buffer);
+		}
+	}
+
+	private void enqueue(String key, IFile file, long delayMs) {
+		pending.put(key, file);
+		indexJob.schedule(delayMs);
+	}
+
+	private IStatus drain(IProgressMonitor monitor) {
+		draining = true;
+		try {
+			for (String key : pending.keySet()) {
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				IFile file = pending.remove(key);
+				if (file != null) {
+					indexFile(key, file);
+				}
+			}
+		} finally {
+			draining = false;
+		}
+		return Status.OK_STATUS;
+	}
+
+	private void indexFile(String key, IFile file) {
+		IPath location = file.getLocation();
+		if (location == null) {
+			return;
+		}
+		String path = location.toOSString();
+		CharSequence text;
+		try {
+			text = read(key, path);
+		} catch (IOException e) {
+			// Gone again; the delta removing it is on its way
+			text = null;
+		}
+		if (text == null) {
+			overflow.remove(key);
+			index.remove(key);
+		} else if (index.put(key, path, text)) {
+			overflow.remove(key);
+		} else {
+			overflow.put(key, path);
+		}
+		// Removed while it was being read
+		if (!files.contains(key)) {
+			overflow.remove(key);
+			index.remove(key);
+		}
+	}
+
+	// --- SearchTextTool.Source ---
+
+	@Override
+	public Map<String, String> unindexedFiles() {
+		Map<String, String> result = new HashMap<>(overflow);
+		// Queued files have stale or no postings, so they are read directly; while the initial scan is
+		// still queueing files that would be most of the workspace, and the result says it is incomplete
+		if (scanFinished) {
+			pending.forEach((key, file) -> {
+				IPath location = file.getLocation();
+				if (location != null) {
+					result.put(key, location.toOSString());
+				}
+			});
+		}
+		return result;
+	}
+
+	@Override
+	public CharSequence read(String key, String location) throws IOException {
+		ITextFileBuffer buffer = bufferManager.getTextFileBuffer(new Path(key).makeAbsolute(), LocationKind.IFILE);
+		if (buffer != null && buffer.isDirty()) {
+			String[] text = new String[1];
+			// Documents belong to the UI thread
+			Display.getDefault().syncExec(() -> text[0] = buffer.getDocument().get());
+			return text[0] != null && text[0].length() <= maxFileBytes ? text[0] : null;
+		}
+		java.nio.file.Path path = Paths.get(location);
+		if (Files.size(path) > maxFileBytes) {
+			return null;
+		}
+		byte[] bytes = Files.readAllBytes(path);
+		for (int i = 0, n = Math.min(bytes.length, BINARY_PROBE_BYTES); i < n; i++) {
+			if (bytes[i] == 0) {
+				return null;
+			}
+		}
+		return new String(bytes, charset(key));
+	}
+
+	private Charset charset(String key) {
+		try {
+			return Charset.forName(workspace.getRoot().getFile(new Path(key)).getCharset());
+		} catch (CoreException | IllegalArgumentException e) {
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+	// --- IFileBufferListener ---
+
+	@Override
+	public void bufferCreated(IFileBuffer buffer) {
+		if (!(buffer instanceof ITextFileBuffer)) {
+			return;
+		}
+		String key = bufferKey(buffer);
+		if (key == null) {
+			return;
+		}
+		IFile file = workspace.getRoot().getFile(buffer.getLocation());
+		IDocument document = ((ITextFileBuffer) buffer).getDocument();
+		Display.getDefault().asyncExec(() -> {
+			if (documentListeners.containsKey(document) || bufferManager.getFileBuffer(buffer.getLocation(),
+					LocationKind.IFILE) != buffer) {
+				return;
+			}
+			IDocumentListener listener = new IDocumentListener() {
+				@Override
+				public void documentAboutToBeChanged(DocumentEvent event) {
+				}
+
+				@Override
+				public void documentChanged(DocumentEvent event) {
+					enqueue(key, file, EDIT_DELAY_MS);
+				}
+			};
+			document.addDocumentListener(listener);
+			documentListeners.put(document, listener);
+		});
+	}
+
+	@Override
+	public void bufferDisposed(IFileBuffer buffer) {
+		if (!(buffer instanceof ITextFileBuffer)) {
+			return;
+		}
+		IDocument document = ((ITextFileBuffer) buffer).getDocument();
+		Display.getDefault().asyncExec(() -> {
+			IDocumentListener listener = documentListeners.remove(document);
+			if (listener != null) {
+				document.removeDocumentListener(listener);
+			}
+		});
+		// Unsaved edits may have been discarded, so the disk content is what is searched from now on
+		String key = bufferKey(buffer);
+		if (key != null) {
+			enqueue(key, workspace.getRoot().getFile(buffer.getLocation()), 0);
+		}
+	}
+
+	@Override
+	public void dirtyStateChanged(IFileBuffer buffer, boolean isDirty) {
+		// Reverted edits leave the disk content in force again
+		String key = isDirty ? null : bufferKey(buffer);
+		if (key != null) {
+			enqueue(key, workspace.getRoot().getFile(buffer.getLocation()), 0);
+		}
+	}
+
+	@Override
+	public void bufferContentAboutToBeReplaced(IFileBuffer buffer) {
+	}
+
+	@Override
+	public void bufferContentReplaced(IFileBuffer buffer) {
+	}
+
+	@Override
+	public void stateChanging(IFileBuffer buffer) {
+	}
+
+	@Override
+	public void stateValidationChanged(IFileBuffer buffer, boolean isStateValidated) {
+	}
+
+	@Override
+	public void underlyingFileMoved(IFileBuffer buffer, IPath path) {
+	}
+
+	@Override
+	public void underlyingFileDeleted(IFileBuffer buffer) {
+	}
+
+	@Override
+	public void stateChangeFailed(IFileBuffer buffer) {
+	}
+
+	// Only buffers of files in the file index are tracked; others are excluded or outside the workspace
+	private String bufferKey(IFileBuffer buffer) {
+		IPath location = buffer.getLocation();
+		if (location == null) {
+			return null;
+		}
+		String key = location.makeRelative().toString();
+		return files.contains(key) ? key : null;
+	}
+}
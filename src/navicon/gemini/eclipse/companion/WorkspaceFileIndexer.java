@@ -0,0 +1,248 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.team.core.Team;
+
+// Fills a PathIndex with the files of all open projects and keeps it current. The initial scan runs
+// as a background job over resource proxies; deltas are applied as they arrive, also while the scan
+// is running, and files removed during the scan are remembered so the scan cannot add them back.
+// Derived resources (build output), team-private members such as .git, and resources matching the
+// team ignore patterns are left out together with everything below them. Listeners hear about
+// every indexed file that is added, changed on disk or removed, on the thread that found out.
+public class WorkspaceFileIndexer implements IResourceChangeListener {
+
+	public interface FileListener {
+		void fileAdded(IFile file, String key);
+
+		void fileChanged(IFile file, String key);
+
+		void fileRemoved(String key);
+
+		// A folder or project and everything below it
+		void folderRemoved(String key);
+
+		// The initial scan is done; files added before this were found by the scan
+		void scanFinished();
+	}
+
+	private final IWorkspace workspace;
+	private final PathIndex index;
+	private final ServerMetrics metrics;
+	private final Set<String> removedDuringScan = ConcurrentHashMap.newKeySet();
+	private final List<FileListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile boolean scanning;
+	private volatile boolean ready;
+	private Job scanJob;
+
+	public WorkspaceFileIndexer(IWorkspace workspace, PathIndex index, ServerMetrics metrics) {
+		this.workspace = workspace;
+		this.index = index;
+		this.metrics = metrics;
+	}
+
+	public PathIndex getIndex() {
+		return index;
+	}
+
+	// False until the initial scan has finished; lookups before that see a partial index
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void addFileListener(FileListener listener) {
+		listeners.add(listener);
+	}
+
+	public synchronized void start() {
+		workspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+		scheduleScan(workspace.getRoot());
+	}
+
+	public synchronized void stop() {
+		workspace.removeResourceChangeListener(this);
+		if (scanJob != null) {
+			scanJob.cancel();
+			scanJob = null;
+		}
+	}
+
+	private synchronized void scheduleScan(IContainer container) {
+		Job job = Job.create("Indexing workspace files for Gemini CLI", monitor -> scan(container, monitor));
+		job.setSystem(true);
+		job.setPriority(Job.DECORATE);
+		if (container.getType() == IResource.ROOT) {
+			scanJob = job;
+			scanning = true;
+		}
+		job.schedule();
+	}
+
+	private IStatus scan(IContainer container, IProgressMonitor monitor) {
+		long start = System.nanoTime();
+		try {
+			container.accept(proxy -> {
+				if (monitor.isCanceled()) {
+					return false;
+				}
+				return visit(proxy);
+			}, IResource.NONE);
+		} catch (CoreException e) {
+			metrics.reportError("fileIndexer.scan", e);
+		} finally {
+			if (container.getType() == IResource.ROOT) {
+				scanning = false;
+				removedDuringScan.clear();
+				ready = !monitor.isCanceled();
+				if (ready) {
+					for (FileListener listener : listeners) {
+						listener.scanFinished();
+					}
+				}
+				Activator.logInfo("Gemini Companion indexed " + index.size() + " files in "
+						+ (System.nanoTime() - start) / 1_000_000 + " ms");
+			}
+		}
+		return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	private boolean visit(IResourceProxy proxy) {
+		switch (proxy.getType()) {
+		case IResource.ROOT:
+			return true;
+		case IResource.PROJECT:
+			return proxy.isAccessible();
+		case IResource.FOLDER:
+			return !isExcluded(proxy.isDerived(), proxy.isTeamPrivateMember(), proxy.requestResource());
+		case IResource.FILE:
+			IResource file = proxy.requestResource();
+			if (!isExcluded(proxy.isDerived(), proxy.isTeamPrivateMember(), file)) {
+				String key = key(proxy.requestFullPath());
+				if (!removedDuringScan.contains(key)) {
+					add(file, key);
+				}
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isExcluded(boolean derived, boolean teamPrivate, IResource resource) {
+		return derived || teamPrivate || Team.isIgnoredHint(resource);
+	}
+
+	private void add(IResource file, String key) {
+		IPath location = file.getLocation();
+		if (location != null) {
+			index.add(key, location.toOSString());
+			for (FileListener listener : listeners) {
+				listener.fileAdded((IFile) file, key);
+			}
+		}
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		try {
+			delta.accept(this::applyDelta);
+		} catch (CoreException e) {
+			metrics.reportError("fileIndexer.delta", e);
+		}
+	}
+
+	private boolean applyDelta(IResourceDelta delta) {
+		IResource resource = delta.getResource();
+		int type = resource.getType();
+		if (type == IResource.ROOT) {
+			return true;
+		}
+		String key = key(resource.getFullPath());
+		switch (delta.getKind()) {
+		case IResourceDelta.REMOVED:
+			removed(type, key);
+			return false;
+		case IResourceDelta.ADDED:
+			if (type == IResource.FILE) {
+				if (!isExcluded(resource.isDerived(IResource.CHECK_ANCESTORS), resource.isTeamPrivateMember(
+						IResource.CHECK_ANCESTORS), resource)) {
+					removedDuringScan.remove(key);
+					add(resource, key);
+				}
+				return false;
+			}
+			// Nothing below an excluded folder is indexed, even if it is not excluded itself
+			return type == IResource.PROJECT || !isExcluded(resource.isDerived(IResource.CHECK_ANCESTORS),
+					resource.isTeamPrivateMember(IResource.CHECK_ANCESTORS), resource);
+		default:
+			int flags = delta.getFlags();
+			if (type == IResource.FILE) {
+				if ((flags & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0 && index.contains(key)) {
+					for (FileListener listener : listeners) {
+						listener.fileChanged((IFile) resource, key);
+					}
+				}
+				return false;
+			}
+			if (type == IResource.PROJECT && (flags & IResourceDelta.OPEN) != 0) {
+				if (((IProject) resource).isOpen()) {
+					scheduleScan((IProject) resource);
+				} else {
+					removed(type, key);
+				}
+				return false;
+			}
+			if (type != IResource.FILE && (flags & IResourceDelta.DERIVED_CHANGED) != 0) {
+				removed(type, key);
+				if (!resource.isDerived(IResource.CHECK_ANCESTORS)) {
+					scheduleScan((IContainer) resource);
+				}
+				return false;
+			}
+			return true;
+		}
+	}
+
+	private void removed(int type, String key) {
+		if (type == IResource.FILE) {
+			index.remove(key);
+			for (FileListener listener : listeners) {
+				listener.fileRemoved(key);
+			}
+		} else {
+			index.removePrefix(key);
+			for (FileListener listener : listeners) {
+				listener.folderRemoved(key);
+			}
+		}
+		if (scanning) {
+			removedDuringScan.add(key);
+		}
+	}
+
+	private static String key(IPath fullPath) {
+		return fullPath.makeRelative().toString();
+	}
+}
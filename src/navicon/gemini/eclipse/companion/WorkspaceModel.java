@@ -0,0 +1,102 @@
+package navicon.gemini.eclipse.companion;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.IPath;
+
+// The open projects of the workspace and the workspacePath derived from them (their locations
+// joined with the path separator, or the workspace root when no project is open). Built once, then
+// kept current from resource deltas that open, close, add or remove a project, so readers on the UI
+// thread never walk all projects. Listeners run on the thread that reported the change, and only
+// when the workspacePath actually changed.
+public class WorkspaceModel implements IResourceChangeListener {
+
+	private final IWorkspace workspace;
+	private final String pathSeparator = System.getProperty("path.separator");
+	// Keyed by name, which is the order IWorkspaceRoot.getProjects() reports them in
+	private final Map<String, String> openProjects = new TreeMap<>();
+	private final CopyOnWriteArrayList<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+	private volatile String workspacePath;
+
+	public WorkspaceModel(IWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
+	public void start() {
+		synchronized (openProjects) {
+			openProjects.clear();
+			for (IProject project : workspace.getRoot().getProjects()) {
+				refresh(project);
+			}
+			workspacePath = joinPaths();
+		}
+		workspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+	}
+
+	public void stop() {
+		workspace.removeResourceChangeListener(this);
+	}
+
+	public String getWorkspacePath() {
+		return workspacePath;
+	}
+
+	public void addChangeListener(Runnable listener) {
+		changeListeners.add(listener);
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		boolean changed;
+		synchronized (openProjects) {
+			boolean touched = false;
+			for (IResourceDelta child : delta.getAffectedChildren(
+					IResourceDelta.ADDED | IResourceDelta.REMOVED | IResourceDelta.CHANGED)) {
+				if (child.getResource().getType() != IResource.PROJECT) {
+					continue;
+				}
+				if (child.getKind() != IResourceDelta.CHANGED
+						|| (child.getFlags() & (IResourceDelta.OPEN | IResourceDelta.DESCRIPTION)) != 0) {
+					touched |= refresh((IProject) child.getResource());
+				}
+			}
+			String previous = workspacePath;
+			if (touched) {
+				workspacePath = joinPaths();
+			}
+			changed = !workspacePath.equals(previous);
+		}
+		if (changed) {
+			for (Runnable listener : changeListeners) {
+				listener.run();
+			}
+		}
+	}
+
+	private boolean refresh(IProject project) {
+		IPath location = project.exists() && project.isOpen() ? project.getLocation() : null;
+		if (location == null) {
+			return openProjects.remove(project.getName()) != null;
+		}
+		return !location.toOSString().equals(openProjects.put(project.getName(), location.toOSString()));
+	}
+
+	private String joinPaths() {
+		if (openProjects.isEmpty()) {
+			return workspace.getRoot().getLocation().toOSString();
+		}
+		return String.join(pathSeparator, openProjects.values());
+	}
+}